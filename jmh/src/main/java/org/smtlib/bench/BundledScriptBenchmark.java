@@ -0,0 +1,37 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ */
+package org.smtlib.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.smtlib.IParser.ParserException;
+import org.smtlib.SMT;
+
+/** Measures parsing the bundled script, src/test.smt2, and executing it on the test solver */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BundledScriptBenchmark {
+
+	private SMT.Configuration config;
+	private String text;
+
+	@Setup
+	public void setup() throws IOException {
+		config = Scripts.configuration(false);
+		text = Scripts.bundled();
+	}
+
+	@Benchmark
+	public void testScript(Blackhole bh) throws ParserException {
+		SolverTestBenchmark.run(config, text, bh);
+	}
+}
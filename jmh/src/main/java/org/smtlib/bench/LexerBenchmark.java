@@ -0,0 +1,55 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ */
+package org.smtlib.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.smtlib.IParser.ParserException;
+import org.smtlib.SMT;
+import org.smtlib.impl.Pos;
+import org.smtlib.sexpr.Lexer;
+
+/** Measures the token throughput of sexpr.Lexer, with either of its scanners */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LexerBenchmark {
+
+	@Param({"100", "1000"})
+	public int assertions;
+
+	@Param({"0.0", "0.5"})
+	public double sharing;
+
+	/** Whether to use the regular-expression scanner rather than the table-driven one */
+	@Param({"false", "true"})
+	public boolean regex;
+
+	private SMT.Configuration config;
+	private String text;
+
+	@Setup
+	public void setup() {
+		config = Scripts.configuration(false);
+		config.regexLexer = regex;
+		text = Scripts.synthetic(assertions, 40, sharing, 1);
+	}
+
+	/** Scans the whole script, returning the number of tokens */
+	@Benchmark
+	public int tokens() throws ParserException {
+		Lexer lexer = new Lexer(config, new Pos.Source(text,null));
+		int n = 0;
+		while (!lexer.isEOD()) {
+			lexer.getToken();
+			n++;
+		}
+		return n;
+	}
+}
@@ -0,0 +1,61 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ */
+package org.smtlib.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.smtlib.ICommand;
+import org.smtlib.IParser.ParserException;
+import org.smtlib.SMT;
+import org.smtlib.impl.Pos;
+import org.smtlib.sexpr.Parser;
+
+/** Measures Parser.parseCommand and Parser.parseScript on synthetic scripts */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+	@Param({"100", "1000"})
+	public int assertions;
+
+	@Param({"0.0", "0.5", "0.9"})
+	public double sharing;
+
+	/** Whether expressions are built by the hash-consing factory */
+	@Param({"false", "true"})
+	public boolean hashCons;
+
+	private SMT.Configuration config;
+	private String text;
+	private String scriptText;
+
+	@Setup
+	public void setup() {
+		config = Scripts.configuration(hashCons);
+		text = Scripts.synthetic(assertions, 40, sharing, 1);
+		scriptText = "(" + text + ")";
+	}
+
+	/** Parses the script command by command */
+	@Benchmark
+	public void parseCommand(Blackhole bh) throws ParserException {
+		Parser p = new Parser(config, new Pos.Source(text,null));
+		while (!p.isEOD()) {
+			bh.consume(p.parseCommand());
+		}
+	}
+
+	/** Parses the script as a single parenthesized list of commands */
+	@Benchmark
+	public ICommand.IScript parseScript() {
+		return new Parser(config, new Pos.Source(scriptText,null)).parseScript();
+	}
+}
@@ -0,0 +1,74 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ */
+package org.smtlib.bench;
+
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.smtlib.ICommand;
+import org.smtlib.IVisitor;
+import org.smtlib.SMT;
+import org.smtlib.impl.DagSharing;
+import org.smtlib.sexpr.Printer;
+
+/** Measures Printer.write on the commands of a synthetic script, printing each expression as a
+ * tree or (with let-sharing) as a DAG
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrinterBenchmark {
+
+	@Param({"100", "1000"})
+	public int assertions;
+
+	@Param({"0.0", "0.5", "0.9"})
+	public double sharing;
+
+	/** Whether repeated subterms are shared (with hash-consing) and printed with let bindings */
+	@Param({"false", "true"})
+	public boolean letSharing;
+
+	private SMT.Configuration config;
+	private List<ICommand> commands;
+
+	/** A Writer that counts and discards what is written, so that only the printing is measured */
+	static public class CountingWriter extends Writer {
+		public long count = 0;
+		@Override public void write(char[] cbuf, int off, int len) { count += len; }
+		@Override public void write(String str, int off, int len) { count += len; }
+		@Override public void write(int c) { count++; }
+		@Override public Writer append(CharSequence csq) { count += csq.length(); return this; }
+		@Override public void flush() {}
+		@Override public void close() {}
+	}
+
+	@Setup
+	public void setup() {
+		config = Scripts.configuration(letSharing);
+		commands = Scripts.parse(config, Scripts.synthetic(assertions, 40, sharing, 1));
+	}
+
+	/** Prints each command, returning the number of characters printed */
+	@Benchmark
+	public long write() throws IVisitor.VisitorException {
+		CountingWriter w = new CountingWriter();
+		for (ICommand c: commands) {
+			if (letSharing) {
+				Printer p = new Printer(w);
+				p.setSharing(new DagSharing(config.exprFactory));
+				p.print(c);
+			} else {
+				Printer.write(w, c);
+			}
+		}
+		return w.count;
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ */
+package org.smtlib.bench;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import org.smtlib.ICommand;
+import org.smtlib.IParser.ParserException;
+import org.smtlib.SMT;
+import org.smtlib.impl.Pos;
+import org.smtlib.sexpr.Parser;
+
+/** The SMT-LIB scripts used by the benchmarks: synthetic scripts of a given size and degree of
+ * sharing, and the scripts bundled with the project.
+ */
+public class Scripts {
+
+	/** The number of Int constants declared in a synthetic script */
+	final static public int CONSTANTS = 50;
+
+	/** The system property giving the path of the bundled script (src/test.smt2) */
+	final static public String SCRIPT_PROPERTY = "smtlib.bench.script";
+
+	/** Returns a QF_UFLIA script of the given number of assertions, each comparing two terms of
+	 * about termSize function applications.  With probability sharing, a subterm is a copy of one
+	 * already generated rather than a new one, so that the script has the repeated subterms that
+	 * hash-consing and DAG-aware printing take advantage of.  The same arguments always produce
+	 * the same script.
+	 */
+	static public String synthetic(int assertions, int termSize, double sharing, long seed) {
+		Random random = new Random(seed);
+		List<String> generated = new ArrayList<String>();
+		StringBuilder sb = new StringBuilder();
+		sb.append("(set-logic QF_UFLIA)\n");
+		sb.append("(declare-fun f (Int Int) Int)\n");
+		sb.append("(declare-fun g (Int) Int)\n");
+		sb.append("(declare-fun p (Int) Bool)\n");
+		for (int i = 0; i < CONSTANTS; i++) {
+			sb.append("(declare-fun x").append(i).append(" () Int)\n");
+		}
+		for (int i = 0; i < assertions; i++) {
+			if (i % 100 == 99) sb.append("(push 1)\n");
+			sb.append("(assert (or (p ");
+			sb.append(term(termSize/2, sharing, random, generated));
+			sb.append(") (< ");
+			sb.append(term(termSize/2, sharing, random, generated));
+			sb.append(" x").append(random.nextInt(CONSTANTS));
+			sb.append(")))\n");
+		}
+		sb.append("(check-sat)\n");
+		return sb.toString();
+	}
+
+	/** Returns an Int term of about the given number of function applications */
+	static private String term(int size, double sharing, Random random, List<String> generated) {
+		if (size > 0 && !generated.isEmpty() && random.nextDouble() < sharing) {
+			return generated.get(random.nextInt(generated.size()));
+		}
+		String t;
+		if (size <= 0) {
+			t = random.nextInt(4) == 0 ? Integer.toString(random.nextInt(100)) : "x" + random.nextInt(CONSTANTS);
+			return t;
+		}
+		int left = random.nextInt(size);
+		switch (random.nextInt(4)) {
+			case 0:
+				t = "(f " + term(left, sharing, random, generated) + " " + term(size-1-left, sharing, random, generated) + ")";
+				break;
+			case 1:
+				t = "(+ " + term(left, sharing, random, generated) + " " + term(size-1-left, sharing, random, generated) + ")";
+				break;
+			case 2:
+				t = "(g " + term(size-1, sharing, random, generated) + ")";
+				break;
+			default:
+				String a = term(left/2, sharing, random, generated);
+				String b = term(left - left/2, sharing, random, generated);
+				t = "(ite (p " + a + ") " + b + " " + term(size-1-left, sharing, random, generated) + ")";
+				break;
+		}
+		generated.add(t);
+		return t;
+	}
+
+	/** Returns the text of the bundled script, src/test.smt2, found through the system property
+	 * SCRIPT_PROPERTY or else relative to the working directory
+	 */
+	static public String bundled() throws IOException {
+		String path = System.getProperty(SCRIPT_PROPERTY, "src/test.smt2");
+		return new String(Files.readAllBytes(Paths.get(path)), Charset.defaultCharset());
+	}
+
+	/** Returns a configuration for the benchmarks; logics are found as resources on the class path */
+	static public SMT.Configuration configuration(boolean hashCons) {
+		SMT.Configuration config = new SMT().smtConfig;
+		config.logicPath = null;
+		config.hashCons = hashCons;
+		if (hashCons) config.exprFactory = new org.smtlib.impl.HashConsingFactory();
+		return config;
+	}
+
+	/** Parses the commands of the given script */
+	static public List<ICommand> parse(SMT.Configuration config, String text) {
+		Parser p = new Parser(config, new Pos.Source(text,null));
+		List<ICommand> commands = new LinkedList<ICommand>();
+		try {
+			while (!p.isEOD()) {
+				ICommand c = p.parseCommand();
+				if (c == null) throw new IllegalStateException("The benchmark script does not parse");
+				commands.add(c);
+			}
+		} catch (ParserException e) {
+			throw new IllegalStateException(e);
+		}
+		return commands;
+	}
+}
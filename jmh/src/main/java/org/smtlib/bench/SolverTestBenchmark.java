@@ -0,0 +1,64 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ */
+package org.smtlib.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.smtlib.ICommand;
+import org.smtlib.IParser.ParserException;
+import org.smtlib.SMT;
+import org.smtlib.impl.Pos;
+import org.smtlib.sexpr.Parser;
+import org.smtlib.solvers.Solver_test;
+
+/** Measures the end-to-end path of parsing a synthetic script and executing it on the test solver
+ * (which type checks the assertions); see also BundledScriptBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SolverTestBenchmark {
+
+	@Param({"100", "1000"})
+	public int assertions;
+
+	@Param({"0.0", "0.5", "0.9"})
+	public double sharing;
+
+	/** Whether expressions are built by the hash-consing factory */
+	@Param({"false", "true"})
+	public boolean hashCons;
+
+	private SMT.Configuration config;
+	private String text;
+
+	@Setup
+	public void setup() {
+		config = Scripts.configuration(hashCons);
+		text = Scripts.synthetic(assertions, 40, sharing, 1);
+	}
+
+	@Benchmark
+	public void synthetic(Blackhole bh) throws ParserException {
+		run(config, text, bh);
+	}
+
+	/** Parses the text command by command, executing each on a new test solver */
+	static public void run(SMT.Configuration config, String text, Blackhole bh) throws ParserException {
+		Solver_test solver = new Solver_test(config, "");
+		solver.start();
+		Parser p = new Parser(config, new Pos.Source(text,null));
+		while (!p.isEOD()) {
+			ICommand c = p.parseCommand();
+			if (c != null) bh.consume(c.execute(solver));
+		}
+		solver.exit();
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ */
+package org.smtlib.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.smtlib.IExpr;
+import org.smtlib.ISort;
+import org.smtlib.SMT;
+import org.smtlib.SymbolTable;
+
+/** Measures SymbolTable push, add, lookup and pop: each operation pushes the given number of
+ * scopes, declaring symbols in each, looks every symbol up, and pops the scopes again
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SymbolTableBenchmark {
+
+	/** The number of nested scopes */
+	@Param({"1", "10", "100"})
+	public int scopes;
+
+	/** The number of symbols declared in each scope */
+	@Param({"10", "1000"})
+	public int symbols;
+
+	private SymbolTable symTable;
+	private SymbolTable.Entry[][] entries;
+
+	@Setup
+	public void setup() {
+		SMT.Configuration config = Scripts.configuration(false);
+		symTable = new SymbolTable(config);
+		ISort.IFcnSort sort = config.sortFactory.createFcnSort(new ISort[0], config.sortFactory.Bool());
+		entries = new SymbolTable.Entry[scopes][symbols];
+		for (int i = 0; i < scopes; i++) {
+			for (int j = 0; j < symbols; j++) {
+				// Some symbols are declared again in inner scopes, shadowing the outer declaration
+				IExpr.ISymbol name = config.exprFactory.symbol("s" + i%3 + "_" + j);
+				entries[i][j] = new SymbolTable.Entry(name, sort, null);
+			}
+		}
+	}
+
+	@Benchmark
+	public void pushAddLookupPop(Blackhole bh) {
+		for (int i = 0; i < scopes; i++) {
+			symTable.push();
+			for (SymbolTable.Entry e: entries[i]) symTable.add(e);
+		}
+		for (SymbolTable.Entry[] scope: entries) {
+			for (SymbolTable.Entry e: scope) bh.consume(symTable.lookup(0, e.name));
+		}
+		for (int i = 0; i < scopes; i++) symTable.pop();
+	}
+}
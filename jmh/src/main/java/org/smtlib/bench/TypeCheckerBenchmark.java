@@ -0,0 +1,73 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ */
+package org.smtlib.bench;
+
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.smtlib.ICommand;
+import org.smtlib.IExpr;
+import org.smtlib.IResponse;
+import org.smtlib.ISort;
+import org.smtlib.SMT;
+import org.smtlib.SymbolTable;
+import org.smtlib.TypeChecker;
+import org.smtlib.solvers.Solver_test;
+
+/** Measures TypeChecker.check on the assertions of a synthetic script, in the symbol table
+ * produced by executing the script's other commands
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TypeCheckerBenchmark {
+
+	@Param({"100", "1000"})
+	public int assertions;
+
+	@Param({"0.0", "0.5", "0.9"})
+	public double sharing;
+
+	/** Whether expressions are built by the hash-consing factory (so that repeated subterms are shared) */
+	@Param({"false", "true"})
+	public boolean hashCons;
+
+	private SymbolTable symTable;
+	private List<IExpr> exprs = new LinkedList<IExpr>();
+
+	@Setup
+	public void setup() {
+		SMT.Configuration config = Scripts.configuration(hashCons);
+		Solver_test solver = new Solver_test(config, "");
+		solver.start();
+		for (ICommand c: Scripts.parse(config, Scripts.synthetic(assertions, 40, sharing, 1))) {
+			if (c instanceof ICommand.Iassert) exprs.add(((ICommand.Iassert)c).expr());
+			else if (!(c instanceof ICommand.Icheck_sat)) c.execute(solver);
+		}
+		symTable = solver.symTable;
+		for (IExpr e: exprs) {
+			List<IResponse> errors = TypeChecker.check(symTable, e);
+			if (!errors.isEmpty()) throw new IllegalStateException("The benchmark script does not type check");
+		}
+	}
+
+	/** Type checks each assertion */
+	@Benchmark
+	public void check(Blackhole bh) {
+		symTable.clearChecked();
+		Map<IExpr,ISort> typemap = new IdentityHashMap<IExpr,ISort>();
+		for (IExpr e: exprs) {
+			bh.consume(TypeChecker.check(symTable, e, typemap));
+		}
+	}
+}
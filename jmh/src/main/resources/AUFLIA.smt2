@@ -0,0 +1 @@
+(logic AUFLIA :smt-lib-version 2.0 :theories (Core Ints ArraysEx))
@@ -0,0 +1,5 @@
+(theory ArraysEx :smt-lib-version 2.0
+ :sorts ((Array 2))
+ :funs ((par (X Y) (select (Array X Y) X Y))
+        (par (X Y) (store (Array X Y) X Y (Array X Y))))
+)
@@ -0,0 +1,8 @@
+(theory Core :smt-lib-version 2.0
+ :sorts ((Bool 0))
+ :funs ((true Bool) (false Bool) (not Bool Bool)
+        (=> Bool Bool Bool :right-assoc) (and Bool Bool Bool :left-assoc)
+        (or Bool Bool Bool :left-assoc) (xor Bool Bool Bool :left-assoc)
+        (par (A) (= A A Bool :chainable)) (par (A) (distinct A A Bool :pairwise))
+        (par (A) (ite Bool A A A)))
+)
@@ -0,0 +1,7 @@
+(theory Ints :smt-lib-version 2.0
+ :sorts ((Int 0))
+ :funs ((NUMERAL Int) (- Int Int) (- Int Int Int :left-assoc) (+ Int Int Int :left-assoc)
+        (* Int Int Int :left-assoc) (div Int Int Int :left-assoc) (mod Int Int Int) (abs Int Int)
+        (<= Int Int Bool :chainable) (< Int Int Bool :chainable)
+        (>= Int Int Bool :chainable) (> Int Int Bool :chainable))
+)
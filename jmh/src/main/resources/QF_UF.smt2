@@ -0,0 +1 @@
+(logic QF_UF :smt-lib-version 2.0 :theories (Core))
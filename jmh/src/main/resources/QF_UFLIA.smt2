@@ -0,0 +1 @@
+(logic QF_UFLIA :smt-lib-version 2.0 :theories (Core Ints))
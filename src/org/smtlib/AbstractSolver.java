@@ -38,6 +38,12 @@ public class AbstractSolver implements ISolver {
 		throw new UnsupportedOperationException("AbstractSolver.start");
 	}
 
+	/** @see org.smtlib.ISolver#rebind(SMT.Configuration) */
+	@Override
+	public void rebind(SMT.Configuration smtConfig) {
+		throw new UnsupportedOperationException("AbstractSolver.rebind");
+	}
+
 	/** @see org.smtlib.ISolver#exit() */
 	@Override
 	public IResponse exit() {
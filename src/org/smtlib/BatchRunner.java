@@ -0,0 +1,186 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ */
+package org.smtlib;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** This class processes a list of independent files concurrently, on a fixed number of threads.
+ * Each file is run as an SMT session of its own - with a copy of the template configuration,
+ * its own log, parser and solver - just as the files would be run one at a time by separate
+ * invocations of the application.  At most one solver per thread is in use at a time; if the
+ * configuration's poolSize is positive the solvers are taken from and returned to SMT.solverPool,
+ * otherwise each file's solver is started for it and exited afterwards.
+ * <P>
+ * The output (and diagnostic output) of each file is held until the file is done and is then
+ * written to the template's log, in the order in which the files were listed, so the output is
+ * the same as that of processing the files one after another.  At the end a summary of the run
+ * (the numbers of files, of failures and of errors, and the times taken) is written to the
+ * diagnostic output.
+ * @author David R. Cok
+ */
+public class BatchRunner {
+
+	/** The SMT instance whose configuration (and properties) are the template for each file */
+	final protected SMT smt;
+
+	/** The number of files processed at once */
+	final protected int jobs;
+
+	/** The outcome of processing one file */
+	static protected class Result {
+		/** The file processed */
+		final protected String file;
+
+		/** The normal output of the file's session */
+		final protected ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		/** The diagnostic output of the file's session */
+		final protected ByteArrayOutputStream diag = new ByteArrayOutputStream();
+
+		/** The exit code of the file's session */
+		protected int retcode = 0;
+
+		/** The number of errors logged by the file's session */
+		protected int errors = 0;
+
+		/** The time taken to process the file, in nanoseconds */
+		protected long nanos = 0;
+
+		protected Result(String file) {
+			this.file = file;
+		}
+	}
+
+	/** Creates a runner (which does nothing until run() is called)
+	 * @param smt the SMT instance whose configuration is used for each file
+	 * @param jobs the number of files to process at once
+	 */
+	public BatchRunner(SMT smt, int jobs) {
+		this.smt = smt;
+		this.jobs = jobs;
+	}
+
+	/** Processes the given files, writing their output in order as they are done;
+	 * returns the exit code for the application: the last non-zero code of any file, or 0 */
+	public int run(List<String> files) {
+		SMT.Configuration smtConfig = smt.smtConfig;
+		final AtomicInteger count = new AtomicInteger();
+		ExecutorService workers = Executors.newFixedThreadPool(jobs, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r,"smt-batch-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		if (smtConfig.verbose != 0) smtConfig.log.logDiag("Processing " + files.size() + " files, " + jobs + " at a time");
+		long start = System.nanoTime();
+		int retcode = 0;
+		int failed = 0;
+		int errors = 0;
+		long total = 0;
+		long slowest = -1;
+		String slowestFile = null;
+		try {
+			List<Future<Result>> results = new ArrayList<Future<Result>>(files.size());
+			for (final String file: files) {
+				results.add(workers.submit(new Callable<Result>() {
+					@Override
+					public Result call() {
+						return execFile(file);
+					}
+				}));
+			}
+			// Each result is dropped once written, so that its output is not kept to the end of the run
+			for (int i=0; i<results.size(); i++) {
+				Result r;
+				try {
+					r = results.get(i).get();
+					results.set(i,null);
+				} catch (ExecutionException e) {
+					throw new SMT.InternalException("Unexpected failure processing a file: " + e.getCause());
+				}
+				smtConfig.log.out.write(r.out.toByteArray(), 0, r.out.size());
+				smtConfig.log.out.flush();
+				smtConfig.log.diag.write(r.diag.toByteArray(), 0, r.diag.size());
+				smtConfig.log.diag.flush();
+				if (r.retcode != 0) {
+					retcode = r.retcode;
+					failed++;
+				}
+				errors += r.errors;
+				total += r.nanos;
+				if (r.nanos > slowest) {
+					slowest = r.nanos;
+					slowestFile = r.file;
+				}
+			}
+		} catch (InterruptedException e) {
+			smtConfig.log.logDiag("Interrupted while processing files");
+			return 2;
+		} finally {
+			workers.shutdownNow();
+		}
+		long wall = System.nanoTime() - start;
+		smtConfig.log.logDiag("Processed " + files.size() + " files with " + jobs + " jobs: "
+				+ failed + " failed, " + errors + " errors; "
+				+ millis(wall) + " ms elapsed, " + millis(total) + " ms total, "
+				+ millis(total/files.size()) + " ms mean, "
+				+ millis(slowest) + " ms max (" + slowestFile + ")");
+		return retcode;
+	}
+
+	/** Processes one file in a session of its own, returning what it produced */
+	protected Result execFile(String file) {
+		Result result = new Result(file);
+		long start = System.nanoTime();
+		SMT session = new SMT();
+		session.props = smt.props;
+		try {
+			session.smtConfig = fileConfig(result);
+			result.retcode = session.execFile(file);
+			if (session.smtConfig.poolSize > 0) {
+				session.releaseSolver();
+			} else if (session.solver != null && session.lastResponse != session.smtConfig.responseFactory.success_exit()) {
+				session.solver.exit(); // The script did not exit the solver itself
+			}
+			result.errors = session.smtConfig.log.numErrors;
+		} catch (Exception e) {
+			// Reported with the file's output, in order
+			new PrintStream(result.out,true).println("Processing " + file + " failed: " + e);
+			result.retcode = 1;
+		}
+		result.nanos = System.nanoTime() - start;
+		return result;
+	}
+
+	/** Creates the configuration for processing one file: a copy of the template configuration,
+	 * with its own log (whose output is held in the result) and utilities */
+	protected SMT.Configuration fileConfig(Result result) throws CloneNotSupportedException {
+		SMT.Configuration template = smt.smtConfig;
+		SMT.Configuration config = template.clone();
+		config.interactive = false;
+		config.log = new Log(config);
+		config.log.out = new PrintStream(result.out,true);
+		config.log.diag = new PrintStream(result.diag,true);
+		config.utils = new org.smtlib.sexpr.Utils(config);
+		return config;
+	}
+
+	/** Writes the given number of nanoseconds as milliseconds */
+	static private String millis(long nanos) {
+		return Long.toString(nanos/1000000);
+	}
+}
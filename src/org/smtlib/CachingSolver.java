@@ -0,0 +1,506 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ */
+package org.smtlib;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.smtlib.ICommand.Ideclare_fun;
+import org.smtlib.ICommand.Ideclare_sort;
+import org.smtlib.ICommand.Idefine_fun;
+import org.smtlib.ICommand.Idefine_sort;
+import org.smtlib.IExpr.IAttributeValue;
+import org.smtlib.IExpr.IBinding;
+import org.smtlib.IExpr.IDeclaration;
+import org.smtlib.IExpr.IExists;
+import org.smtlib.IExpr.IForall;
+import org.smtlib.IExpr.IKeyword;
+import org.smtlib.IExpr.ILet;
+import org.smtlib.IExpr.ISymbol;
+
+/** This class wraps a solver, answering check-sat from a QueryCache when an equivalent query
+ * has been answered before (in this or, if the cache is persistent, an earlier run), without
+ * involving the solver.  All other commands are passed to the wrapped solver.
+ * <P>
+ * A query is identified by a fingerprint of the solver name, the logic, the options set and
+ * the declarations, definitions and assertions in force, in order.  User-declared names are
+ * replaced by names derived from the order of declaration, and bound variables by names
+ * derived from their binding depth, so queries that differ only in the choice of names
+ * have the same fingerprint.  The canonical text of the commands is not kept: each assertion
+ * stack frame holds a running digest of it (continuing that of the enclosing frame), so a
+ * fingerprint costs the same however many commands there are.
+ * <P>
+ * When a check-sat is answered from the cache, the wrapped solver has not checked the current
+ * assertions, so a subsequent command that needs the result of the check (get-model, get-value,
+ * get-assignment, get-unsat-core or get-proof) first performs the check-sat in the solver.
+ * @author David R. Cok
+ */
+public class CachingSolver implements ISolver {
+
+	/** The wrapped solver */
+	final protected ISolver solver;
+
+	/** The cache of results */
+	final protected QueryCache cache;
+
+	/** A string identifying the solver (the adapter and executable), included in each fingerprint,
+	 * since solvers may differ in which queries they answer with unknown */
+	final protected String solverKey;
+
+	/** The logic, if set */
+	protected /*@Nullable*/ String logic = null;
+
+	/** The canonical text of the options set so far */
+	protected StringBuilder options = new StringBuilder();
+
+	/** The assertion stack frames, the background frame first */
+	protected List<Frame> frames = new ArrayList<Frame>();
+
+	/** The result of the most recent check-sat, if answered from the cache and still current */
+	protected /*@Nullable*/ IResponse cachedStatus = null;
+
+	/** True if the most recent check-sat was answered from the cache, so the wrapped solver
+	 * has not yet checked the current assertions */
+	protected boolean stale = false;
+
+	/** One assertion stack frame */
+	static protected class Frame {
+		/** The running digest of the canonical text of the commands executed in this and all enclosing frames */
+		final MessageDigest digest;
+		/** The canonical names of the symbols declared in this frame */
+		final Map<String,String> names = new HashMap<String,String>();
+		/** The number of symbols declared in this and all enclosing frames */
+		int count;
+
+		Frame(int count, MessageDigest digest) {
+			this.count = count;
+			this.digest = digest;
+		}
+	}
+
+	/** Creates a caching wrapper around a (started) solver
+	 * @param solver the solver to wrap
+	 * @param cache the cache of results, which may be shared with other solvers
+	 * @param solverKey identifies the kind of solver
+	 */
+	public CachingSolver(ISolver solver, QueryCache cache, String solverKey) {
+		this.solver = solver;
+		this.cache = cache;
+		this.solverKey = solverKey;
+		frames.add(new Frame(0,QueryCache.digest()));
+	}
+
+	/** The wrapped solver */
+	public ISolver solver() {
+		return solver;
+	}
+
+	/** Returns the canonical name given to a new declaration of the given symbol in the top frame */
+	protected String declare(ISymbol sym, String prefix) {
+		Frame top = frames.get(frames.size()-1);
+		String name = prefix + (top.count++);
+		top.names.put(sym.value(),name);
+		return name;
+	}
+
+	/** Adds the text to the digest of the top frame */
+	protected void record(String text) {
+		frames.get(frames.size()-1).digest.update((text + "\n").getBytes(StandardCharsets.UTF_8));
+	}
+
+	/** This printer writes an expression with user-declared and bound names replaced by canonical names */
+	protected class Fingerprinter extends org.smtlib.sexpr.Printer {
+		/** The names of the variables bound at the current point, outermost first */
+		final private List<String> bound = new ArrayList<String>();
+
+		public Fingerprinter() {
+			super(new StringWriter());
+		}
+
+		/** Returns the canonical text of the given expression, sort or declaration */
+		public String text(IAccept e) {
+			w = new StringWriter();
+			try {
+				e.accept(this);
+			} catch (IVisitor.VisitorException ex) {
+				return "<<ERROR: " + ex.getMessage() + ">>"; // Just a cache miss
+			}
+			return w.toString();
+		}
+
+		/** Binds a variable, for the remainder of the current binder */
+		public void bind(ISymbol sym) {
+			bound.add(sym.value());
+		}
+
+		/** Unbinds the given number of the most recently bound variables */
+		public void unbind(int n) {
+			while (n-- > 0) bound.remove(bound.size()-1);
+		}
+
+		@Override
+		public Void visit(ISymbol e) throws IVisitor.VisitorException {
+			String v = e.value();
+			String name = null;
+			int k = bound.lastIndexOf(v);
+			if (k >= 0) {
+				name = "_b" + k;
+			} else {
+				for (int i = frames.size()-1; i >= 0; i--) {
+					name = frames.get(i).names.get(v);
+					if (name != null) break;
+				}
+			}
+			try {
+				w.append(name != null ? name : e.toString());
+			} catch (IOException ex) {
+				throw new IVisitor.VisitorException(ex);
+			}
+			return null;
+		}
+
+		@Override
+		protected Traversal traversal(IExpr root) {
+			return new Canonical(root);
+		}
+
+		/** A traversal that binds the variables of binders, and writes let-bound names canonically */
+		protected class Canonical extends Traversal {
+			/** The number of variables bound outside each let being written, innermost last */
+			final private List<Integer> lets = new ArrayList<Integer>();
+
+			public Canonical(IExpr root) {
+				super(root);
+			}
+
+			@Override
+			protected /*@Nullable*/ List<? extends IExpr> children(IExpr e) throws IVisitor.VisitorException {
+				if (e != root && !inline(e)) return null;
+				if (e instanceof IForall) {
+					for (IDeclaration d: ((IForall)e).parameters()) bind(d.parameter());
+				} else if (e instanceof IExists) {
+					for (IDeclaration d: ((IExists)e).parameters()) bind(d.parameter());
+				} else if (e instanceof ILet) {
+					// The bound expressions are in the scope outside the let, so the
+					// names and the expressions are written separately
+					ILet let = (ILet)e;
+					int n = bound.size();
+					lets.add(n);
+					List<IExpr> list = new ArrayList<IExpr>(let.bindings().size()+1);
+					for (IBinding b: let.bindings()) list.add(b.expr());
+					list.add(let.expr());
+					try {
+						w.append("(" + Utils.LET + " (");
+						if (let.bindings().isEmpty()) w.append(") ");
+						else w.append("(_b" + n + " ");
+					} catch (IOException ex) {
+						throw new IVisitor.VisitorException(ex,e.pos());
+					}
+					return list;
+				}
+				return super.children(e);
+			}
+
+			@Override
+			protected boolean next(IExpr e, int i, /*@Nullable*/ Void result) throws IVisitor.VisitorException {
+				if (!(e instanceof ILet)) return super.next(e,i,result);
+				ILet let = (ILet)e;
+				int nb = let.bindings().size();
+				if (i >= nb) return true;
+				try {
+					w.append(") ");
+					if (i < nb-1) {
+						w.append("(_b" + (lets.get(lets.size()-1)+i+1) + " ");
+					} else {
+						for (IBinding b: let.bindings()) bind(b.parameter());
+						w.append(") ");
+					}
+				} catch (IOException ex) {
+					throw new IVisitor.VisitorException(ex,e.pos());
+				}
+				return true;
+			}
+
+			@Override
+			protected /*@Nullable*/ Void finish(IExpr e, List</*@Nullable*/ Void> results) throws IVisitor.VisitorException {
+				if (e instanceof IForall) {
+					unbind(((IForall)e).parameters().size());
+				} else if (e instanceof IExists) {
+					unbind(((IExists)e).parameters().size());
+				} else if (e instanceof ILet) {
+					lets.remove(lets.size()-1);
+					unbind(((ILet)e).bindings().size());
+					try {
+						w.append(")");
+					} catch (IOException ex) {
+						throw new IVisitor.VisitorException(ex,e.pos());
+					}
+					return null;
+				}
+				return super.finish(e,results);
+			}
+		}
+	}
+
+	/** The printer used to produce canonical text */
+	final protected Fingerprinter fingerprinter = new Fingerprinter();
+
+	/** Returns the fingerprint of the current state */
+	protected String fingerprint() {
+		MessageDigest md = QueryCache.digest();
+		md.update((solverKey + "\n" + logic + "\n" + options).getBytes(StandardCharsets.UTF_8));
+		md.update(QueryCache.copy(frames.get(frames.size()-1).digest).digest());
+		return QueryCache.hex(md.digest());
+	}
+
+	/** If the most recent check-sat was answered from the cache, performs it in the solver */
+	protected void synchronize() {
+		if (stale) {
+			stale = false;
+			solver.check_sat();
+		}
+	}
+
+	/** Called when a command changes the state */
+	protected void changed() {
+		stale = false;
+		cachedStatus = null;
+	}
+
+	@Override
+	public SMT.Configuration smt() {
+		return solver.smt();
+	}
+
+	@Override
+	public void rebind(SMT.Configuration smtConfig) {
+		solver.rebind(smtConfig);
+	}
+
+	@Override
+	public /*@Nullable*/ IResponse checkSatStatus() {
+		return cachedStatus != null ? cachedStatus : solver.checkSatStatus();
+	}
+
+	@Override
+	public IResponse start() {
+		return solver.start();
+	}
+
+	@Override
+	public IResponse exit() {
+		changed();
+		return solver.exit();
+	}
+
+	@Override
+	public IResponse reset() {
+		IResponse r = solver.reset();
+		if (!r.isError()) {
+			changed();
+			logic = null;
+			options = new StringBuilder();
+			frames.clear();
+			frames.add(new Frame(0,QueryCache.digest()));
+		}
+		return r;
+	}
+
+	@Override
+	public IResponse set_logic(String logicName, /*@Nullable*/ IPos pos) {
+		IResponse r = solver.set_logic(logicName,pos);
+		if (!r.isError()) {
+			changed();
+			logic = logicName;
+		}
+		return r;
+	}
+
+	@Override
+	public IResponse push(int number) {
+		IResponse r = solver.push(number);
+		if (!r.isError()) {
+			changed();
+			while (number-- > 0) {
+				Frame top = frames.get(frames.size()-1);
+				frames.add(new Frame(top.count,QueryCache.copy(top.digest)));
+			}
+		}
+		return r;
+	}
+
+	@Override
+	public IResponse pop(int number) {
+		IResponse r = solver.pop(number);
+		if (!r.isError()) {
+			changed();
+			while (number-- > 0 && frames.size() > 1) frames.remove(frames.size()-1);
+		}
+		return r;
+	}
+
+	@Override
+	public IResponse assertExpr(IExpr expr) {
+		IResponse r = solver.assertExpr(expr);
+		if (!r.isError()) {
+			changed();
+			record("(assert " + fingerprinter.text(expr) + ")");
+		}
+		return r;
+	}
+
+	@Override
+	public IResponse check_sat() {
+		IResponse.IFactory f = smt().responseFactory;
+		String key = fingerprint();
+		String result = cache.get(key);
+		if (result != null) {
+			IResponse r = result.equals("sat") ? f.sat() : result.equals("unsat") ? f.unsat() : f.unknown();
+			stale = true;
+			cachedStatus = r;
+			if (smt().verbose != 0) smt().log.logDiag("#check-sat answered from the query cache");
+			return r;
+		}
+		changed();
+		IResponse r = solver.check_sat();
+		if (r.equals(f.sat())) cache.put(key,"sat");
+		else if (r.equals(f.unsat())) cache.put(key,"unsat");
+		else if (r.equals(f.unknown())) cache.put(key,"unknown");
+		return r;
+	}
+
+	@Override
+	public IResponse declare_fun(Ideclare_fun cmd) {
+		IResponse r = solver.declare_fun(cmd);
+		if (!r.isError()) {
+			changed();
+			StringBuilder sb = new StringBuilder();
+			sb.append("(declare-fun ").append(declare(cmd.symbol(),"_f")).append(" (");
+			for (ISort s: cmd.argSorts()) sb.append(fingerprinter.text(s)).append(' ');
+			sb.append(") ").append(fingerprinter.text(cmd.resultSort())).append(')');
+			record(sb.toString());
+		}
+		return r;
+	}
+
+	@Override
+	public IResponse declare_sort(Ideclare_sort cmd) {
+		IResponse r = solver.declare_sort(cmd);
+		if (!r.isError()) {
+			changed();
+			record("(declare-sort " + declare(cmd.sortSymbol(),"_s") + " " + cmd.arity().intValue() + ")");
+		}
+		return r;
+	}
+
+	@Override
+	public IResponse define_fun(Idefine_fun cmd) {
+		IResponse r = solver.define_fun(cmd);
+		if (!r.isError()) {
+			changed();
+			StringBuilder sb = new StringBuilder();
+			sb.append("(define-fun ").append(declare(cmd.symbol(),"_f")).append(" (");
+			for (IDeclaration d: cmd.parameters()) {
+				fingerprinter.bind(d.parameter());
+				sb.append(fingerprinter.text(d)).append(' ');
+			}
+			sb.append(") ").append(fingerprinter.text(cmd.resultSort()));
+			sb.append(' ').append(fingerprinter.text(cmd.expression())).append(')');
+			fingerprinter.unbind(cmd.parameters().size());
+			record(sb.toString());
+		}
+		return r;
+	}
+
+	@Override
+	public IResponse define_sort(Idefine_sort cmd) {
+		IResponse r = solver.define_sort(cmd);
+		if (!r.isError()) {
+			changed();
+			StringBuilder sb = new StringBuilder();
+			sb.append("(define-sort ").append(declare(cmd.sortSymbol(),"_s")).append(" (");
+			for (ISort.IParameter p: cmd.parameters()) {
+				fingerprinter.bind(p.symbol());
+				sb.append(fingerprinter.text(p)).append(' ');
+			}
+			sb.append(") ").append(fingerprinter.text(cmd.expression())).append(')');
+			fingerprinter.unbind(cmd.parameters().size());
+			record(sb.toString());
+		}
+		return r;
+	}
+
+	@Override
+	public IResponse set_option(IKeyword option, IAttributeValue value) {
+		IResponse r = solver.set_option(option,value);
+		if (!r.isError()) {
+			changed();
+			options.append("(set-option ").append(option.value()).append(' ').append(fingerprinter.text(value)).append(")\n");
+		}
+		return r;
+	}
+
+	@Override
+	public IResponse set_info(IKeyword key, IAttributeValue value) {
+		return solver.set_info(key,value);
+	}
+
+	@Override
+	public IResponse get_assertions() {
+		return solver.get_assertions();
+	}
+
+	@Override
+	public IResponse get_model() {
+		synchronize();
+		return solver.get_model();
+	}
+
+	@Override
+	public IResponse get_proof() {
+		synchronize();
+		return solver.get_proof();
+	}
+
+	@Override
+	public IResponse get_unsat_core() {
+		synchronize();
+		return solver.get_unsat_core();
+	}
+
+	@Override
+	public IResponse get_value(IExpr... terms) {
+		synchronize();
+		return solver.get_value(terms);
+	}
+
+	@Override
+	public IResponse get_assignment() {
+		synchronize();
+		return solver.get_assignment();
+	}
+
+	@Override
+	public IResponse get_option(IKeyword option) {
+		return solver.get_option(option);
+	}
+
+	@Override
+	public IResponse get_info(IKeyword option) {
+		return solver.get_info(option);
+	}
+
+	@Override
+	public IResponse evalExpr(IExpr formula) {
+		synchronize();
+		return solver.evalExpr(formula);
+	}
+}
@@ -19,6 +19,10 @@ import java.nio.CharBuffer;
  * whether this will cause problems
  * in some uses of the CharSequenceReader is unknown.  The user should not use the value of length()
  * directly; it seems to work in the ways it is called from Pattern.matcher.
+ * <P>
+ * The characters before a given position may be released (see release()), when the user knows
+ * they will not be read again, so that the internal char array holds only the characters after
+ * that position; character positions are unchanged by releasing characters.
  * @author David R. Cok
  *
  */
@@ -50,11 +54,15 @@ public abstract class CharSequenceInfinite implements CharSequence {
 	public CharSequenceInfinite(int initialSize, int sizeIncrease, double sizeMultiple) {
 		this.sizeIncrease = sizeIncrease;
 		this.sizeMultiple = sizeMultiple;
+		this.initialSize = initialSize;
 		buf = new char[initialSize];
 		this.amountRead = 0;
 		this.length = Integer.MAX_VALUE;
 	}
 
+	/** The initial size of the internal char array */
+	final protected int initialSize;
+
 	/** The amount by which to increase the internal char array when needed */
 	//@ invariant sizeIncrease >= 0;
 	protected int sizeIncrease;
@@ -66,10 +74,18 @@ public abstract class CharSequenceInfinite implements CharSequence {
 	/** The internal char array that holds characters as they are read */
 	protected char /*@NonNull*/[] buf;
 
-	/** The number of characters read so far (and in the char array) */
+	/** The number of characters read so far and held in the char array (that is, not counting
+	 * any released characters) */
 	//@ invariant amountRead >= 0 && amountRead <= buf.length;
 	protected int amountRead;
 
+	/** The position of the character held in buf[0]; the characters before it have been released */
+	//@ invariant offset >= 0;
+	protected int offset = 0;
+
+	/** The number of line terminations in the released characters */
+	protected int linesReleased = 0;
+
 	/** The implicit length of the CharSequence; note that this length may change as characters are read */
 	//@ invariant length >= 0 && length >= amountRead;
 	protected int length;
@@ -82,13 +98,15 @@ public abstract class CharSequenceInfinite implements CharSequence {
 	
 	/** Returns the char at the given index; this may block while input is read if the char has
 	 * not been read before.  An IOException that occurs while reading input is converted to an
-	 * undeclared RuntimeException. 
+	 * undeclared RuntimeException.  A released character reads as a space.
 	 */
 	//@ requires index >= 0;
 	//@ assigns buf, buf[amountRead..], amountRead, length;
-	//@ ensures index < amountRead;
+	//@ ensures index < offset + amountRead;
 	@Override
 	public char charAt(int index) {
+		index -= offset;
+		if (index < 0) return ' ';
 		if (index >= amountRead) {
 			if (index >= buf.length) {
 				// We need +1 because one needs a buffer of at least size 2 to include index=1
@@ -100,7 +118,7 @@ public abstract class CharSequenceInfinite implements CharSequence {
 					if (!readChars()){
 						//SMT.out.println("END OF INPUT READ");
 						buf[amountRead++] = endChar;
-						length = amountRead;
+						length = offset + amountRead;
 						return endChar;
 					}
 				}
@@ -147,6 +165,51 @@ public abstract class CharSequenceInfinite implements CharSequence {
 		buf = nbuf;
 	}
 
+	/** Releases the characters before the beginning of the line containing the given position
+	 * (or containing the last character read, if that is earlier); the released characters may
+	 * not be read again (they read as spaces), but line numbers are still computed correctly.
+	 * @param pos a character position, at or before which all characters may be released
+	 */
+	public void release(int pos) {
+		int k = Math.min(pos - offset, amountRead);
+		// Find the beginning of the line, which must not be within a \r\n sequence
+		while (k > 0) {
+			char c = buf[k-1];
+			if (c == '\n' || (c == '\r' && k < amountRead && buf[k] != '\n')) break;
+			k--;
+		}
+		// Only move characters if at least as many are released as are kept, so the cost of
+		// copying is proportional to the number of characters released
+		if (k <= 0 || k < amountRead - k) return;
+		for (int i=0; i<k; i++) {
+			char c = buf[i];
+			if (c == '\n') linesReleased++;
+			else if (c == '\r') {
+				linesReleased++;
+				if (buf[i+1] == '\n') i++;
+			}
+		}
+		System.arraycopy(buf,k,buf,0,amountRead-k);
+		amountRead -= k;
+		offset += k;
+		if (buf.length > 4*Math.max(amountRead,initialSize)) {
+			// Give back the space of an array that was expanded for a large input
+			char[] nbuf = new char[Math.max(2*amountRead,initialSize)];
+			System.arraycopy(buf,0,nbuf,0,amountRead);
+			buf = nbuf;
+		}
+	}
+
+	/** The position of the first character that has not been released */
+	public int released() {
+		return offset;
+	}
+
+	/** The number of line terminations before the first character that has not been released */
+	public int linesReleased() {
+		return linesReleased;
+	}
+
 	/** Returns the length of the CharSequence; for this implementation, the return value is at
 	 * least as great as the unknown length of the CharSequence.  The value is correct once the
 	 * end of input has been reached.
@@ -168,7 +231,12 @@ public abstract class CharSequenceInfinite implements CharSequence {
 	@Override
 	public CharSequence subSequence(int start, int end) {
 		charAt(end-1); // Just to be sure it has been read
-		return CharBuffer.wrap(buf,start,end-start);
+		if (start < offset) {
+			StringBuilder sb = new StringBuilder(end-start);
+			for (int i=start; i<end; i++) sb.append(charAt(i));
+			return sb;
+		}
+		return CharBuffer.wrap(buf,start-offset,end-start);
 	}
 	
 }
@@ -0,0 +1,249 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ */
+package org.smtlib;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/** This class implements a CharSequence whose characters are those of a file, read through
+ * memory mappings of the file rather than copied into one large char array.  The file is decoded
+ * with the platform's default character set (as FileReader does), which must be one in which
+ * the ASCII characters are single bytes, such as UTF-8 or ISO-8859-1.
+ * <P>
+ * The file is divided, as it is read, into blocks of about BLOCK_SIZE bytes.  A block that
+ * contains only ASCII characters is used directly from the mapped bytes; other blocks are
+ * decoded into a char array.  Only the few most recently used blocks are held (mapped or
+ * decoded); any other block is mapped (and decoded) again if a character in it is needed once
+ * more, as happens when an error message quotes an earlier line.  Thus the memory used does not
+ * grow with the size of the file, yet every character position remains valid.
+ * <P>
+ * As for CharSequenceReader, length() is Integer.MAX_VALUE until the end of the file has been
+ * reached; the character following the content of the file is CharSequenceInfinite.endChar.
+ * @author David R. Cok
+ */
+public class CharSequenceMapped implements CharSequence {
+
+	/** The (approximate) number of bytes in a block */
+	final static public int BLOCK_SIZE = 1 << 20;
+
+	/** The number of blocks whose content is held at any one time */
+	final static public int BLOCKS_HELD = 4;
+
+	/** The file being read */
+	final protected File file;
+
+	/** The length of the file, in bytes */
+	final protected long fileLength;
+
+	/** The open channel to the file, or null if it is closed */
+	protected /*@Nullable*/ FileChannel channel;
+
+	/** One block of the file */
+	static protected class Block {
+		/** The position of the first character of the block */
+		final int charStart;
+		/** One past the position of the last character of the block */
+		final int charEnd;
+		/** The offset in the file of the first byte of the block */
+		final long byteStart;
+		/** The number of bytes in the block */
+		final int byteLength;
+		/** True if the block holds only ASCII characters, one per byte */
+		final boolean ascii;
+		/** The bytes of the block, if ascii and currently held */
+		/*@Nullable*/ ByteBuffer bytes;
+		/** The decoded characters of the block, if not ascii and currently held */
+		/*@Nullable*/ char[] chars;
+
+		Block(int charStart, int charEnd, long byteStart, int byteLength, boolean ascii) {
+			this.charStart = charStart;
+			this.charEnd = charEnd;
+			this.byteStart = byteStart;
+			this.byteLength = byteLength;
+			this.ascii = ascii;
+		}
+	}
+
+	/** The blocks read so far, in order */
+	final protected List<Block> blocks = new ArrayList<Block>();
+
+	/** The blocks whose content is held, most recently used first */
+	final private LinkedList<Block> held = new LinkedList<Block>();
+
+	/** The block most recently used */
+	private /*@Nullable*/ Block current = null;
+
+	/** The number of characters in the blocks read so far */
+	protected int amountRead = 0;
+
+	/** True once all the blocks have been read */
+	protected boolean atEnd = false;
+
+	/** The implicit length of the CharSequence; Integer.MAX_VALUE until the end of the file is reached */
+	protected int length = Integer.MAX_VALUE;
+
+	final private CharsetDecoder decoder = Charset.defaultCharset().newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+	/** Creates a CharSequence for the content of the given file
+	 * @throws IOException if the file cannot be opened, or is too large
+	 */
+	public CharSequenceMapped(File file) throws IOException {
+		this.file = file;
+		channel = new RandomAccessFile(file,"r").getChannel();
+		fileLength = channel.size();
+		if (fileLength >= Integer.MAX_VALUE) {
+			close();
+			throw new IOException("File is too large to be read: " + file);
+		}
+	}
+
+	/** Closes the file; the mappings already made remain usable, and the file is reopened if a
+	 * block must be read again */
+	public void close() {
+		try {
+			if (channel != null) channel.close();
+		} catch (IOException e) {
+			// Ignore
+		}
+		channel = null;
+	}
+
+	/** Maps the given bytes of the file */
+	protected MappedByteBuffer map(long start, int length) throws IOException {
+		if (channel == null) channel = new RandomAccessFile(file,"r").getChannel();
+		return channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+	}
+
+	/** Reads the next block of the file, returning false if the end of the file has been reached */
+	protected boolean readBlock() throws IOException {
+		long byteStart = blocks.isEmpty() ? 0 : blocks.get(blocks.size()-1).byteStart + blocks.get(blocks.size()-1).byteLength;
+		if (byteStart >= fileLength) return false;
+		int n = (int)Math.min(BLOCK_SIZE, fileLength - byteStart);
+		MappedByteBuffer bytes = map(byteStart, n);
+		if (byteStart + n < fileLength) {
+			// End the block at the beginning of a character, not within a (UTF-8) multi-byte sequence
+			int k = n;
+			while (k > 0 && (bytes.get(k-1) & 0xC0) == 0x80) k--;
+			if (k > 0 && (bytes.get(k-1) & 0x80) != 0) k--; // the lead byte of the incomplete sequence
+			if (k > 0) n = k;
+		}
+		boolean ascii = true;
+		for (int i=0; i<n; i++) {
+			if (bytes.get(i) < 0) { ascii = false; break; }
+		}
+		Block b;
+		if (ascii) {
+			b = new Block(amountRead, amountRead+n, byteStart, n, true);
+			b.bytes = bytes;
+		} else {
+			char[] chars = decode(bytes, n);
+			b = new Block(amountRead, amountRead+chars.length, byteStart, n, false);
+			b.chars = chars;
+		}
+		blocks.add(b);
+		amountRead = b.charEnd;
+		hold(b);
+		return true;
+	}
+
+	/** Decodes the first n bytes of the buffer */
+	private char[] decode(ByteBuffer bytes, int n) {
+		ByteBuffer in = bytes.duplicate();
+		in.limit(n);
+		decoder.reset();
+		CharBuffer out = CharBuffer.allocate(n);
+		decoder.decode(in, out, true);
+		decoder.flush(out);
+		char[] chars = new char[out.position()];
+		out.flip();
+		out.get(chars);
+		return chars;
+	}
+
+	/** Makes the block's content available, releasing the content of the least recently used block if need be */
+	private void hold(Block b) throws IOException {
+		if (b.bytes == null && b.chars == null) {
+			MappedByteBuffer bytes = map(b.byteStart, b.byteLength);
+			if (b.ascii) b.bytes = bytes;
+			else b.chars = decode(bytes, b.byteLength);
+		} else {
+			held.remove(b);
+		}
+		held.addFirst(b);
+		if (held.size() > BLOCKS_HELD) {
+			Block old = held.removeLast();
+			old.bytes = null; // The mapping is released when it is garbage collected
+			old.chars = null;
+		}
+	}
+
+	/** Returns the block containing the given position, reading blocks as needed; returns null
+	 * if the position is at or beyond the end of the file */
+	protected /*@Nullable*/ Block block(int index) throws IOException {
+		while (index >= amountRead) {
+			if (atEnd || !readBlock()) {
+				atEnd = true;
+				length = amountRead + 1;
+				return null;
+			}
+		}
+		// Binary search for the block containing index
+		int lo = 0;
+		int hi = blocks.size()-1;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (blocks.get(mid).charStart <= index) lo = mid; else hi = mid - 1;
+		}
+		Block b = blocks.get(lo);
+		hold(b);
+		return b;
+	}
+
+	/** Returns the char at the given index, reading (or re-reading) the file as needed.  An
+	 * IOException is converted to an undeclared RuntimeException. */
+	@Override
+	public char charAt(int index) {
+		Block b = current;
+		if (b == null || index < b.charStart || index >= b.charEnd || (b.bytes == null && b.chars == null)) {
+			try {
+				b = block(index);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			if (b == null) return CharSequenceInfinite.endChar;
+			current = b;
+		}
+		int i = index - b.charStart;
+		return b.ascii ? (char)b.bytes.get(i) : b.chars[i];
+	}
+
+	/** Returns the length of the CharSequence; this is Integer.MAX_VALUE until the end of the
+	 * file has been reached, and thereafter one more than the number of characters in the file. */
+	@Override
+	public int length() {
+		return length;
+	}
+
+	/** Returns a copy of the characters from start to end (exclusive) */
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		char[] chars = new char[end-start];
+		for (int i=start; i<end; i++) chars[i-start] = charAt(i);
+		return new String(chars);
+	}
+}
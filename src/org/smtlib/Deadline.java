@@ -0,0 +1,111 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ */
+package org.smtlib;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** This class holds the time limits of one session (see SMT.deadline): the time by which the
+ * command being executed must be done (set from SMT.Configuration.timeout) and the time by which
+ * the whole session must be done (set from SMT.Configuration.sessionTimeout).  A SolverProcess
+ * waiting for a response on a thread to which the deadline is bound (see bind) gives up when the
+ * earlier of the two passes, or when the session is cancelled (from any thread); it then stops the
+ * solver process, whose output can no longer be matched to the commands sent to it, and the
+ * session reports the command's response as timeout (or, if cancelled, as an error).
+ * <P>
+ * Times are values of System.nanoTime(); a limit of 0 means there is none.
+ * @author David R. Cok
+ */
+public class Deadline {
+
+	/** The deadline bound to each thread, if any */
+	final static private ThreadLocal<Deadline> current = new ThreadLocal<Deadline>();
+
+	/** The time by which the session must be done, or 0 */
+	protected volatile long session = 0;
+
+	/** The time by which the current command must be done, or 0 */
+	protected volatile long command = 0;
+
+	/** Set when the session is cancelled */
+	protected volatile boolean cancelled = false;
+
+	/** Set when a wait for a response was abandoned because a limit passed */
+	protected volatile boolean expired = false;
+
+	/** The pumps whose readers are waiting, under this deadline, for a response */
+	final protected Set<SolverProcess.Pump> waiting = ConcurrentHashMap.newKeySet();
+
+	/** Returns the deadline bound to the calling thread, or null if there is none */
+	static public /*@Nullable*/ Deadline current() {
+		return current.get();
+	}
+
+	/** Binds the given deadline (which may be null) to the calling thread, so that it applies to
+	 * the solver calls made by the thread; returns the deadline that was bound before.
+	 */
+	static public /*@Nullable*/ Deadline bind(/*@Nullable*/ Deadline deadline) {
+		Deadline previous = current.get();
+		if (deadline == null) current.remove(); else current.set(deadline);
+		return previous;
+	}
+
+	/** Starts a session that must be done within the given number of milliseconds (no limit if not positive) */
+	public void startSession(long millis) {
+		session = millis > 0 ? System.nanoTime() + millis*1000000L : 0;
+		command = 0;
+		cancelled = false;
+		expired = false;
+	}
+
+	/** Starts a command that must be done within the given number of milliseconds (no limit if not positive) */
+	public void startCommand(long millis) {
+		command = millis > 0 ? System.nanoTime() + millis*1000000L : 0;
+		expired = false;
+	}
+
+	/** Ends the current command */
+	public void endCommand() {
+		command = 0;
+	}
+
+	/** Returns the earlier of the session's and the current command's limits, or 0 if there is neither */
+	public long nanos() {
+		long s = session;
+		long c = command;
+		if (s == 0) return c;
+		if (c == 0) return s;
+		return c - s < 0 ? c : s;
+	}
+
+	/** Returns true if the session's time limit has passed */
+	public boolean sessionExpired() {
+		long s = session;
+		return s != 0 && System.nanoTime() - s >= 0;
+	}
+
+	/** Returns true if a wait for a response of the current command was abandoned because a limit passed */
+	public boolean expired() {
+		return expired;
+	}
+
+	/** Records that a wait for a response was abandoned because a limit passed */
+	public void expire() {
+		expired = true;
+	}
+
+	/** Returns true if the session has been cancelled */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/** Cancels the session: any wait for a response is abandoned (stopping the solver) and the
+	 * session ends after the current command; may be called from any thread.
+	 */
+	public void cancel() {
+		cancelled = true;
+		for (SolverProcess.Pump p: waiting) p.wake();
+	}
+}
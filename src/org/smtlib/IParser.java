@@ -63,6 +63,15 @@ public interface IParser {
 	 */
 	/*@Nullable*/ ICommand.IScript parseScript() throws IOException, ParserException;
 	
+	/** Parses a parenthesized list of commands (as in a command script), executing each command
+	 * with the given solver as soon as it is parsed, so that the commands (and the text they were
+	 * parsed from) need not all be held in memory at once.  Execution stops at the first error.
+	 * @return the response to the last command executed, which is an error if a command could not be
+	 * parsed or failed; or null if there were no commands
+	 * @throws ParserException if an unrecoverable error occurs in parsing tokens
+	 */
+	/*@Nullable*/ IResponse executeScript(ISolver solver) throws IOException, ParserException;
+	
 	/** Parses a term or formula; return null and log an error response if there is no term or formula */
 	/*@Nullable*/ IExpr parseExpr()  throws ParserException;
 	
@@ -51,6 +51,7 @@ public interface IResponse extends IAccept {
 		IResponse immediate_exit();
 		IResponse continued_execution();
 		IResponse memout();
+		IResponse timeout(); // Not strict SMT-LIB
 		IResponse incomplete();
 		/** Returns a constant response with the given canonical name */
 		IResponse constant(String id); // FIXME - use abstract keyword?
@@ -65,6 +66,7 @@ public interface IResponse extends IAccept {
 		IResponse.IAssignmentResponse get_assignment_response(List<IPair<IExpr.ISymbol,Boolean>> assignments); // FIXME - Boolean?
 		IResponse.IUnsatCoreResponse get_unsat_core_response(List<ISymbol> names);
 		IResponse.IAssertionsResponse get_assertions_response(List<IExpr> exprs);		
+		IResponse.IModel get_model_response(List<ICommand> definitions);
 	}
 	
 	static public interface IAttributeList extends IResponse {
@@ -79,6 +81,20 @@ public interface IResponse extends IAccept {
 		public List<IPair<IExpr,IExpr>> values();
 	}
 
+	/** The response to get-model: the declare-fun commands for the elements of uninterpreted sorts
+	 * and the define-fun commands giving the values of constants and the interpretations of functions */
+	static public interface IModel extends IResponse {
+		/** The declare-fun and define-fun commands of the model, in the order the solver gave them */
+		public List<ICommand> definitions();
+		
+		/** Returns the define-fun command for the given symbol, or null if the model does not define it */
+		public /*@Nullable*/ ICommand.Idefine_fun definition(ISymbol name);
+		
+		/** Returns the value of the given term, if it is a constant (a symbol defined without
+		 * parameters) whose value is given by the model, otherwise null */
+		public /*@Nullable*/ IExpr value(IExpr term);
+	}
+
 	static public interface IUnsatCoreResponse extends IResponse {
 		public List<IExpr.ISymbol> names();
 	}
@@ -25,6 +25,12 @@ public interface ISolver {
 	/** Returns the configuration object with which the solver is initialized */
 	SMT.Configuration smt();
 	
+	/** Makes the solver use the given configuration (in particular its log) from now on, as when a
+	 * pooled solver is handed to another session; the configuration must agree with the current one
+	 * in the settings that affect the solver process (such as the executable).
+	 */
+	void rebind(SMT.Configuration smtConfig);
+	
 	/** Current check-sat status */
 	/*@Nullable*/ IResponse checkSatStatus();
 	
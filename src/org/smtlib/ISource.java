@@ -43,6 +43,14 @@ public interface ISource {
 	//@ requires pos >= 0;
 	String textLine(int pos);
 	
+	/** Indicates that the characters before the line containing the given position will not be
+	 * needed again, so the source may discard them (if it holds them in memory); the positions of
+	 * later characters, and their line numbers, are unaffected.  The text of a discarded line
+	 * may be reported as empty.
+	 */
+	//@ requires pos >= 0;
+	void release(int pos);
+
 	/** Returns the number (beginning with 1) of the line containing the given character position (which begins at 0). */
 	//@ requires pos >= 0;
 	//@ ensures \result > 0;
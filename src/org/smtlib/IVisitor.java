@@ -9,6 +9,12 @@ package org.smtlib;
 // FIXME - figure out how to properly do Nullable for generic types
 // FIXME - do a review of all of the visit methods to be sure we have the structure correct
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+
 import org.smtlib.ICommand.IScript;
 import org.smtlib.IExpr.IAsIdentifier;
 import org.smtlib.IExpr.IAttribute;
@@ -31,6 +37,7 @@ import org.smtlib.IExpr.ISymbol;
 import org.smtlib.IResponse.IAssertionsResponse;
 import org.smtlib.IResponse.IAssignmentResponse;
 import org.smtlib.IResponse.IAttributeList;
+import org.smtlib.IResponse.IModel;
 import org.smtlib.IResponse.IProofResponse;
 import org.smtlib.IResponse.IUnsatCoreResponse;
 import org.smtlib.IResponse.IValueResponse;
@@ -85,6 +92,7 @@ public interface IVisitor</*@Nullable*/T extends /*@Nullable*/ Object> {
 	public /*@Nullable*/T visit(IResponse.IAssignmentResponse e) throws VisitorException;
 	public /*@Nullable*/T visit(IResponse.IProofResponse e) throws VisitorException;
 	public /*@Nullable*/T visit(IResponse.IValueResponse e) throws VisitorException;
+	public /*@Nullable*/T visit(IResponse.IModel e) throws VisitorException;
 	public /*@Nullable*/T visit(IResponse.IUnsatCoreResponse e) throws VisitorException;
 	public /*@Nullable*/T visit(IResponse.IAttributeList e) throws VisitorException;
 
@@ -266,6 +274,11 @@ public interface IVisitor</*@Nullable*/T extends /*@Nullable*/ Object> {
 			return null;
 		}
 
+		@Override
+		public T visit(IModel e) throws VisitorException {
+			return null;
+		}
+
 		@Override
 		public T visit(IUnsatCoreResponse e) throws VisitorException {
 			return null;
@@ -285,6 +298,28 @@ public interface IVisitor</*@Nullable*/T extends /*@Nullable*/ Object> {
 	 */
 	public class TreeVisitor</*@Nullable*/T> implements IVisitor</*@Nullable*/T> {
 
+		/** The nodes still to be visited by the traversal in progress, the next one last; null if
+		 * there is no traversal in progress */
+		private /*@Nullable*/ List<IAccept> pending = null;
+
+		/** Visits the given nodes in order.  If this is called during the visit of another node,
+		 * the nodes are visited after that visit returns (but before any of that node's later
+		 * siblings), so that the depth of the Java stack does not grow with the depth of the tree.
+		 * Overriding visit methods that call super.visit(e) therefore cannot rely on the
+		 * subexpressions having been visited when super.visit(e) returns. */
+		protected void visitAll(List<? extends IAccept> nodes) throws VisitorException {
+			boolean outermost = pending == null;
+			if (outermost) pending = new ArrayList<IAccept>();
+			ListIterator<? extends IAccept> iter = nodes.listIterator(nodes.size());
+			while (iter.hasPrevious()) pending.add(iter.previous());
+			if (!outermost) return;
+			try {
+				while (!pending.isEmpty()) pending.remove(pending.size()-1).accept(this);
+			} finally {
+				pending = null;
+			}
+		}
+
 		@Override
 		public /*@Nullable*/T visit(IAttribute<?> e) throws VisitorException {
 			e.keyword().accept(this);
@@ -301,8 +336,10 @@ public interface IVisitor</*@Nullable*/T extends /*@Nullable*/ Object> {
 
 		@Override
 		public /*@Nullable*/T visit(IAttributedExpr e) throws VisitorException {
-			e.expr().accept(this);
-			for (IAttribute<?> a: e.attributes()) a.accept(this);
+			List<IAccept> nodes = new ArrayList<IAccept>(e.attributes().size()+1);
+			nodes.add(e.expr());
+			nodes.addAll(e.attributes());
+			visitAll(nodes);
 			return null;
 		}
 
@@ -314,7 +351,7 @@ public interface IVisitor</*@Nullable*/T extends /*@Nullable*/ Object> {
 		@Override
 		public /*@Nullable*/T visit(IBinding e) throws VisitorException {
 			e.parameter().accept(this);
-			e.expr().accept(this);
+			visitAll(Collections.singletonList(e.expr()));
 			return null;
 		}
 
@@ -336,21 +373,21 @@ public interface IVisitor</*@Nullable*/T extends /*@Nullable*/ Object> {
 		@Override
 		public /*@Nullable*/T visit(IExists e) throws VisitorException {
 			for (IDeclaration d: e.parameters()) d.accept(this);
-			e.expr().accept(this);
+			visitAll(Collections.singletonList(e.expr()));
 			return null;
 		}
 
 		@Override
 		public /*@Nullable*/T visit(IFcnExpr e) throws VisitorException {
 			e.head().accept(this);
-			for (IExpr p: e.args()) p.accept(this);
+			visitAll(e.args());
 			return null;
 		}
 
 		@Override
 		public /*@Nullable*/T visit(IForall e) throws VisitorException {
 			for (IDeclaration d: e.parameters()) d.accept(this);
-			e.expr().accept(this);
+			visitAll(Collections.singletonList(e.expr()));
 			return null;
 		}
 
@@ -366,8 +403,10 @@ public interface IVisitor</*@Nullable*/T extends /*@Nullable*/ Object> {
 
 		@Override
 		public /*@Nullable*/T visit(ILet e) throws VisitorException {
-			for (IBinding d: e.bindings()) d.accept(this);
-			e.expr().accept(this);
+			List<IAccept> nodes = new ArrayList<IAccept>(e.bindings().size()+1);
+			nodes.addAll(e.bindings());
+			nodes.add(e.expr());
+			visitAll(nodes);
 			return null;
 		}
 
@@ -508,6 +547,14 @@ public interface IVisitor</*@Nullable*/T extends /*@Nullable*/ Object> {
 			return null;
 		}
 
+		@Override
+		public T visit(IModel e) throws VisitorException {
+			for (ICommand c: e.definitions()) {
+				c.accept(this);
+			}
+			return null;
+		}
+
 		@Override
 		public T visit(IUnsatCoreResponse e) throws VisitorException {
 			for (ISymbol s: e.names()) {
@@ -526,6 +573,91 @@ public interface IVisitor</*@Nullable*/T extends /*@Nullable*/ Object> {
 
 	}
 
+	/** This class traverses an expression in post-order using explicit stacks rather than
+	 * recursion, so that the depth of the expressions it can handle is limited by the heap rather
+	 * than by the Java stack (and it uses no more than a few frames of the Java stack).  It is the
+	 * basis for visitors of arbitrarily deep expressions: a visitor's visit methods for compound
+	 * expressions call traverse, and the traversal calls accept (through leaf) only for the
+	 * expressions it does not take apart.
+	 * <P>
+	 * For each expression reached, children(e) is called; it performs any action needed before
+	 * the sub-expressions of e are traversed and returns them, or returns null if e is to be
+	 * handled as a whole by leaf(e).  After the result of each child is obtained, next(e,i,result)
+	 * is called; it performs any action needed between children and may stop the traversal of
+	 * the remaining children.  Then finish(e,results) computes the result for e.
+	 * @param <T> the type of the result of each expression
+	 */
+	static abstract public class PostOrder</*@Nullable*/T> {
+		
+		/** The state of an expression whose children are being traversed */
+		static private class Frame {
+			final IExpr expr;
+			final Iterator<? extends IExpr> children;
+			/** The index of the next child */
+			int index = 0;
+			/** The number of results on the result stack below those of this expression's children */
+			final int base;
+			
+			Frame(IExpr expr, Iterator<? extends IExpr> children, int base) {
+				this.expr = expr;
+				this.children = children;
+				this.base = base;
+			}
+		}
+		
+		/** Returns the sub-expressions of e to be traversed (in order) before finish(e,...) is called,
+		 * having performed any action needed beforehand, or null if e is to be handled by leaf(e) */
+		abstract protected /*@Nullable*/ List<? extends IExpr> children(IExpr e) throws VisitorException;
+		
+		/** Returns the result for an expression for which children(e) returned null */
+		abstract protected /*@Nullable*/T leaf(IExpr e) throws VisitorException;
+		
+		/** Called with the result of child i of e; returns false if the remaining children
+		 * are not to be traversed.  By default, does nothing and returns true.
+		 */
+		protected boolean next(IExpr e, int i, /*@Nullable*/T result) throws VisitorException {
+			return true;
+		}
+		
+		/** Returns the result for e, given the results of the children that were traversed (the
+		 * list is valid only during the call) */
+		abstract protected /*@Nullable*/T finish(IExpr e, List</*@Nullable*/T> results) throws VisitorException;
+		
+		/** Traverses the given expression, returning its result */
+		public /*@Nullable*/T traverse(IExpr root) throws VisitorException {
+			List<? extends IExpr> kids = children(root);
+			if (kids == null) return leaf(root);
+			ArrayList<Frame> frames = new ArrayList<Frame>();
+			ArrayList</*@Nullable*/T> results = new ArrayList</*@Nullable*/T>();
+			frames.add(new Frame(root,kids.iterator(),0));
+			while (true) {
+				Frame f = frames.get(frames.size()-1);
+				/*@Nullable*/T value;
+				if (f.children.hasNext()) {
+					IExpr child = f.children.next();
+					kids = children(child);
+					if (kids != null) {
+						frames.add(new Frame(child,kids.iterator(),results.size()));
+						continue;
+					}
+					value = leaf(child);
+				} else {
+					List</*@Nullable*/T> rs = results.subList(f.base,results.size());
+					value = finish(f.expr,rs);
+					rs.clear();
+					frames.remove(frames.size()-1);
+					if (frames.isEmpty()) return value;
+					f = frames.get(frames.size()-1);
+				}
+				results.add(value);
+				if (!next(f.expr,f.index++,value)) {
+					f = new Frame(f.expr,Collections.<IExpr>emptyList().iterator(),f.base);
+					frames.set(frames.size()-1,f);
+				}
+			}
+		}
+	}
+
 	/** An Exception class to use if there is a problem during execution of an
 	 * IVisitor (e.g. in printing or translating formulae). 
 	 * @author David R. Cok
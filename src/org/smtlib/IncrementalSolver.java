@@ -0,0 +1,421 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ */
+package org.smtlib;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.smtlib.ICommand.Ideclare_fun;
+import org.smtlib.ICommand.Ideclare_sort;
+import org.smtlib.ICommand.Idefine_fun;
+import org.smtlib.ICommand.Idefine_sort;
+import org.smtlib.IExpr.IAttributeValue;
+import org.smtlib.IExpr.IKeyword;
+
+/** This class wraps a solver, so that popping and re-pushing the same assertions (as a client
+ * that repeatedly refines one query does) does not make the solver discard and re-process them.
+ * <P>
+ * The wrapper keeps two assertion stacks, each a list of frames holding the assertions,
+ * declarations and definitions made in that frame: the stack the client has requested and the
+ * stack the solver currently holds.  A pop only removes frames from the requested stack; the
+ * solver keeps them for now.  An assertion (or declaration or definition) that is the same
+ * as the next one the solver already holds, in the same position, is not sent again.  Only when
+ * the client's stack departs from the solver's, or a command such as check-sat needs the solver
+ * to hold exactly the requested stack, is the solver brought up to date: it pops back to the
+ * longest common prefix of the two stacks and is sent just what follows that prefix.
+ * <P>
+ * Commands are compared by their printed text, so re-parsed but identical assertions match.
+ * @author David R. Cok
+ */
+public class IncrementalSolver implements ISolver {
+
+	/** The wrapped solver */
+	final protected ISolver solver;
+
+	/** The assertion stack the client has requested, the background frame first */
+	protected List<List<Item>> requested = new ArrayList<List<Item>>();
+
+	/** The assertion stack the solver holds, the background frame first */
+	protected List<List<Item>> held = new ArrayList<List<Item>>();
+
+	/** True if the requested stack is a prefix of the held one: all frames below the top of the
+	 * requested stack are the same in both, and the top requested frame is a prefix of the held
+	 * frame at that level.  False if that is not known. */
+	protected boolean aligned = true;
+
+	/** Set once the logic is set; until then push and pop are passed to the solver, to report the error */
+	protected boolean logicSet = false;
+
+	/** True if the client has changed the assertion stack since the last check-sat */
+	protected boolean dirty = false;
+
+	/** True if the solver has been sent a command that changes its assertion stack since the last check-sat */
+	protected boolean touched = false;
+
+	/** A command that adds to an assertion stack frame: an assertion, declaration or definition */
+	static abstract protected class Item {
+		/** The printed text of the command, by which items are compared */
+		final protected String text;
+
+		protected Item(String text) {
+			this.text = text;
+		}
+
+		/** Sends the command to the given solver, returning its response */
+		abstract protected IResponse send(ISolver solver);
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Item && text.equals(((Item)o).text);
+		}
+
+		@Override
+		public int hashCode() {
+			return text.hashCode();
+		}
+	}
+
+	/** Creates an incremental wrapper around a (started) solver */
+	public IncrementalSolver(ISolver solver) {
+		this.solver = solver;
+		clear();
+	}
+
+	/** The wrapped solver */
+	public ISolver solver() {
+		return solver;
+	}
+
+	/** Empties both stacks, as is the case after set-logic or reset */
+	protected void clear() {
+		requested.clear();
+		held.clear();
+		requested.add(new ArrayList<Item>());
+		held.add(new ArrayList<Item>());
+		aligned = true;
+		dirty = false;
+		touched = false;
+	}
+
+	/** Brings the solver's assertion stack up to date with the requested one, popping the solver
+	 * back to their longest common prefix and sending what follows it; returns an error response
+	 * if the solver reports one, or null if the two stacks are then the same.
+	 */
+	protected /*@Nullable*/ IResponse sync() {
+		int n = Math.min(requested.size(), held.size());
+		int m = 0;
+		while (m < n && requested.get(m).equals(held.get(m))) m++;
+		if (m == requested.size() && m == held.size()) {
+			aligned = true;
+			return null;
+		}
+		aligned = false;
+		IResponse r;
+		if (m < n) {
+			// Frame m is the first that differs
+			List<Item> req = requested.get(m);
+			List<Item> h = held.get(m);
+			int from;
+			if (h.size() <= req.size() && req.subList(0,h.size()).equals(h)) {
+				// The solver's frame is a prefix of the requested one, so it is kept and extended
+				if ((r = popSolver(held.size()-1-m)) != null) return r;
+				from = h.size();
+			} else {
+				// The background frame is only ever added to, so it cannot differ in this way
+				if (m == 0) throw new SMT.InternalException("The solver holds background assertions that were not requested");
+				if ((r = popSolver(held.size()-m)) != null) return r;
+				if ((r = pushSolver()) != null) return r;
+				from = 0;
+			}
+			if ((r = sendFrame(m,from)) != null) return r;
+			m++;
+		} else if (m == requested.size()) {
+			// The requested frames are all held, and the solver holds more
+			if ((r = popSolver(held.size()-m)) != null) return r;
+		}
+		for (; m < requested.size(); m++) {
+			if ((r = pushSolver()) != null) return r;
+			if ((r = sendFrame(m,0)) != null) return r;
+		}
+		aligned = true;
+		return null;
+	}
+
+	/** Pops the given number of frames from the solver's stack */
+	private /*@Nullable*/ IResponse popSolver(int number) {
+		if (number == 0) return null;
+		touched = true;
+		IResponse r = solver.pop(number);
+		if (r.isError()) return r;
+		while (number-- > 0) held.remove(held.size()-1);
+		return null;
+	}
+
+	/** Pushes one empty frame onto the solver's stack */
+	private /*@Nullable*/ IResponse pushSolver() {
+		touched = true;
+		IResponse r = solver.push(1);
+		if (r.isError()) return r;
+		held.add(new ArrayList<Item>());
+		return null;
+	}
+
+	/** Sends the items of the given requested frame, from the given index on, to the solver, which
+	 * holds the same frame up to that index as its top frame */
+	private /*@Nullable*/ IResponse sendFrame(int frame, int from) {
+		List<Item> req = requested.get(frame);
+		List<Item> h = held.get(frame);
+		for (int i = from; i < req.size(); i++) {
+			touched = true;
+			IResponse r = req.get(i).send(solver);
+			if (r.isError()) return r;
+			h.add(req.get(i));
+		}
+		return null;
+	}
+
+	/** Adds an item to the top requested frame, sending it to the solver unless the solver
+	 * already holds it in the same position */
+	protected IResponse add(Item item) {
+		dirty = true;
+		int top = requested.size()-1;
+		List<Item> req = requested.get(top);
+		if (aligned) {
+			List<Item> h = held.get(top);
+			if (h.size() > req.size() && h.get(req.size()).equals(item)) {
+				req.add(h.get(req.size()));
+				return smt().responseFactory.success();
+			}
+		}
+		IResponse r = sync();
+		if (r != null) return r;
+		touched = true;
+		r = item.send(solver);
+		if (!r.isError()) {
+			req.add(item);
+			held.get(top).add(item);
+		}
+		return r;
+	}
+
+	/** Brings the solver up to date before a command that reports on the result of a check-sat;
+	 * if the client has changed the assertion stack since then without the solver's being sent
+	 * anything, the solver still holds the result, so an empty push and pop is sent to discard
+	 * it, as the client's changes would have.
+	 */
+	protected /*@Nullable*/ IResponse current() {
+		IResponse r = sync();
+		if (r != null) return r;
+		if (dirty && !touched && logicSet) {
+			touched = true;
+			r = solver.push(1);
+			if (r.isError()) return r;
+			r = solver.pop(1);
+			if (r.isError()) return r;
+		}
+		return null;
+	}
+
+	@Override
+	public SMT.Configuration smt() {
+		return solver.smt();
+	}
+
+	@Override
+	public void rebind(SMT.Configuration smtConfig) {
+		solver.rebind(smtConfig);
+	}
+
+	@Override
+	public /*@Nullable*/ IResponse checkSatStatus() {
+		return dirty ? null : solver.checkSatStatus();
+	}
+
+	@Override
+	public IResponse start() {
+		return solver.start();
+	}
+
+	@Override
+	public IResponse exit() {
+		return solver.exit();
+	}
+
+	@Override
+	public IResponse reset() {
+		IResponse r = solver.reset();
+		if (!r.isError()) {
+			clear();
+			logicSet = false;
+		}
+		return r;
+	}
+
+	@Override
+	public IResponse set_logic(String logicName, /*@Nullable*/ IPos pos) {
+		IResponse r = solver.set_logic(logicName,pos);
+		if (!r.isError()) {
+			clear();
+			logicSet = true;
+		}
+		return r;
+	}
+
+	@Override
+	public IResponse push(int number) {
+		if (!logicSet || number < 0) return solver.push(number);
+		if (number == 0) return smt().responseFactory.success();
+		dirty = true;
+		int top = requested.size()-1;
+		// The new frames stay a prefix of the held ones only if the top frame is held in full and
+		// the solver holds empty frames at the levels below the new top
+		boolean a = aligned && requested.get(top).size() == held.get(top).size() && held.size() > top + number;
+		for (int i = top+1; a && i < top + number; i++) a = held.get(i).isEmpty();
+		aligned = a;
+		while (number-- > 0) requested.add(new ArrayList<Item>());
+		return smt().responseFactory.success();
+	}
+
+	@Override
+	public IResponse pop(int number) {
+		if (!logicSet || number < 0 || number >= requested.size()) {
+			// The solver reports the error, in its own words, once it holds the requested stack
+			IResponse r = sync();
+			if (r != null) return r;
+			r = solver.pop(number);
+			if (!r.isError()) {
+				while (number-- > 0 && requested.size() > 1) {
+					requested.remove(requested.size()-1);
+					held.remove(held.size()-1);
+				}
+			}
+			return r;
+		}
+		if (number == 0) return smt().responseFactory.success();
+		dirty = true;
+		// If the stacks were aligned they still are, since the frames below the top were the same
+		while (number-- > 0) requested.remove(requested.size()-1);
+		return smt().responseFactory.success();
+	}
+
+	@Override
+	public IResponse assertExpr(final IExpr expr) {
+		return add(new Item("(assert " + smt().defaultPrinter.toString(expr) + ")") {
+			@Override
+			protected IResponse send(ISolver s) { return s.assertExpr(expr); }
+		});
+	}
+
+	@Override
+	public IResponse check_sat() {
+		IResponse r = sync();
+		if (r != null) return r;
+		r = solver.check_sat();
+		dirty = false;
+		touched = false;
+		return r;
+	}
+
+	@Override
+	public IResponse declare_fun(final Ideclare_fun cmd) {
+		return add(new Item(smt().defaultPrinter.toString(cmd)) {
+			@Override
+			protected IResponse send(ISolver s) { return s.declare_fun(cmd); }
+		});
+	}
+
+	@Override
+	public IResponse declare_sort(final Ideclare_sort cmd) {
+		return add(new Item(smt().defaultPrinter.toString(cmd)) {
+			@Override
+			protected IResponse send(ISolver s) { return s.declare_sort(cmd); }
+		});
+	}
+
+	@Override
+	public IResponse define_fun(final Idefine_fun cmd) {
+		return add(new Item(smt().defaultPrinter.toString(cmd)) {
+			@Override
+			protected IResponse send(ISolver s) { return s.define_fun(cmd); }
+		});
+	}
+
+	@Override
+	public IResponse define_sort(final Idefine_sort cmd) {
+		return add(new Item(smt().defaultPrinter.toString(cmd)) {
+			@Override
+			protected IResponse send(ISolver s) { return s.define_sort(cmd); }
+		});
+	}
+
+	@Override
+	public IResponse set_option(IKeyword option, IAttributeValue value) {
+		return solver.set_option(option,value);
+	}
+
+	@Override
+	public IResponse set_info(IKeyword key, IAttributeValue value) {
+		return solver.set_info(key,value);
+	}
+
+	@Override
+	public IResponse get_assertions() {
+		IResponse r = sync();
+		if (r != null) return r;
+		return solver.get_assertions();
+	}
+
+	@Override
+	public IResponse get_model() {
+		IResponse r = current();
+		if (r != null) return r;
+		return solver.get_model();
+	}
+
+	@Override
+	public IResponse get_proof() {
+		IResponse r = current();
+		if (r != null) return r;
+		return solver.get_proof();
+	}
+
+	@Override
+	public IResponse get_unsat_core() {
+		IResponse r = current();
+		if (r != null) return r;
+		return solver.get_unsat_core();
+	}
+
+	@Override
+	public IResponse get_value(IExpr... terms) {
+		IResponse r = current();
+		if (r != null) return r;
+		return solver.get_value(terms);
+	}
+
+	@Override
+	public IResponse get_assignment() {
+		IResponse r = current();
+		if (r != null) return r;
+		return solver.get_assignment();
+	}
+
+	@Override
+	public IResponse get_option(IKeyword option) {
+		return solver.get_option(option);
+	}
+
+	@Override
+	public IResponse get_info(IKeyword option) {
+		return solver.get_info(option);
+	}
+
+	@Override
+	public IResponse evalExpr(IExpr formula) {
+		IResponse r = current();
+		if (r != null) return r;
+		return solver.evalExpr(formula);
+	}
+}
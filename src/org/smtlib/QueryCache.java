@@ -0,0 +1,153 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ */
+package org.smtlib;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** This class holds the results (sat, unsat or unknown) of check-sat commands, keyed by a
+ * fingerprint of the solver state at the time of the check-sat (see CachingSolver); it is
+ * shared by all the sessions and files of a process and is safe to use from several threads.
+ * <P>
+ * The cache holds at most a given number of entries, discarding the least recently used
+ * entry when full.  It may be loaded from and saved to a file, so that results persist from
+ * one run to the next; the file has one line per entry, holding the fingerprint and the result
+ * separated by a space, least recently used first.
+ * @author David R. Cok
+ */
+public class QueryCache {
+
+	/** The maximum number of entries */
+	final protected int maxEntries;
+
+	/** The entries, from fingerprint to result, least recently used first */
+	final private LinkedHashMap<String,String> entries;
+
+	/** The number of lookups that found a result */
+	private long hits = 0;
+
+	/** The number of lookups that did not find a result */
+	private long misses = 0;
+
+	/** Creates an empty cache holding at most the given (positive) number of entries */
+	public QueryCache(final int maxEntries) {
+		this.maxEntries = maxEntries;
+		entries = new LinkedHashMap<String,String>(16,0.75f,true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String,String> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/** Returns a new SHA-256 digest, of the kind from which fingerprints are made */
+	static public MessageDigest digest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-256
+			throw new RuntimeException(e);
+		}
+	}
+
+	/** Returns a copy of the given digest, which continues from the same state */
+	static public MessageDigest copy(MessageDigest md) {
+		try {
+			return (MessageDigest)md.clone();
+		} catch (CloneNotSupportedException e) {
+			// The SHA-256 digests of the standard providers can be copied
+			throw new RuntimeException(e);
+		}
+	}
+
+	/** Returns the given digest value in hexadecimal */
+	static public String hex(byte[] digest) {
+		StringBuilder sb = new StringBuilder(2*digest.length);
+		for (byte b: digest) {
+			sb.append(Character.forDigit((b >> 4) & 0xf,16));
+			sb.append(Character.forDigit(b & 0xf,16));
+		}
+		return sb.toString();
+	}
+
+	/** Returns the result recorded for the fingerprint, or null if there is none */
+	synchronized public /*@Nullable*/ String get(String fingerprint) {
+		String result = entries.get(fingerprint);
+		if (result == null) misses++; else hits++;
+		return result;
+	}
+
+	/** Records the result for the fingerprint */
+	synchronized public void put(String fingerprint, String result) {
+		entries.put(fingerprint,result);
+	}
+
+	/** Removes all entries (the hit and miss counts are unchanged) */
+	synchronized public void clear() {
+		entries.clear();
+	}
+
+	/** The number of entries */
+	synchronized public int size() {
+		return entries.size();
+	}
+
+	/** The number of lookups that found a result */
+	synchronized public long hits() {
+		return hits;
+	}
+
+	/** The number of lookups that did not find a result */
+	synchronized public long misses() {
+		return misses;
+	}
+
+	/** Adds the entries in the given file, if it exists, to the cache */
+	public void load(File file) throws IOException {
+		if (!file.exists()) return;
+		BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(file),StandardCharsets.UTF_8));
+		try {
+			String line;
+			while ((line = r.readLine()) != null) {
+				int k = line.indexOf(' ');
+				if (k > 0) put(line.substring(0,k),line.substring(k+1).trim());
+			}
+		} finally {
+			r.close();
+		}
+	}
+
+	/** Writes all the entries to the given file, replacing its content */
+	synchronized public void save(File file) throws IOException {
+		PrintWriter w = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file),StandardCharsets.UTF_8));
+		try {
+			for (Map.Entry<String,String> e: entries.entrySet()) {
+				w.print(e.getKey());
+				w.print(' ');
+				w.println(e.getValue());
+			}
+		} finally {
+			w.close();
+		}
+		if (w.checkError()) throw new IOException("Failed to write " + file);
+	}
+
+	@Override
+	synchronized public String toString() {
+		return "Query cache: " + entries.size() + " entries, " + hits + " hits, " + misses + " misses";
+	}
+}
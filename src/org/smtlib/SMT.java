@@ -144,6 +144,46 @@ public class SMT {
 		 * ignored if the text option is set. */
 		public int port = -1;
 		
+		/** If positive, the port is served by a SessionServer that runs up to this many concurrent
+		 * client sessions, each with its own configuration and solver; otherwise one client is
+		 * served at a time, all clients sharing this configuration. */
+		public int sessions = 0;
+		
+		/** If greater than one, and several files are given, the files are processed concurrently by
+		 * this many threads (see BatchRunner), each file with its own configuration and solver;
+		 * otherwise the files are processed one after another, sharing this configuration. */
+		public int jobs = 0;
+		
+		/** If positive, the number of milliseconds within which a solver must respond to a command;
+		 * if it does not, the solver is stopped, the command's response is timeout and the rest of
+		 * the input is skipped (see Deadline). */
+		public int timeout = 0;
+		
+		/** If positive, the number of milliseconds within which all the commands of an input (a file,
+		 * or a session) must be done; once that time passes, the command in progress and the rest of
+		 * the input are treated as for timeout. */
+		public int sessionTimeout = 0;
+		
+		/** If positive, solvers (other than the test solver) are taken from and returned to 
+		 * SMT.solverPool, which keeps up to this many started, idle solvers for each adapter and
+		 * executable; if zero, a new solver process is started for each input. */
+		public int poolSize = 0;
+		
+		/** If positive, check-sat results are cached (in SMT.queryCache, which holds up to this many
+		 * results), so that a query equivalent to one already answered is not sent to the solver. */
+		public int cacheSize = 0;
+		
+		/** If non-null (and cacheSize is positive), the file from which the query cache is loaded
+		 * at startup and to which it is saved at the end */
+		public /*@Nullable*/ String cacheFile = null;
+		
+		/** If non-null, the object that collects the counts and latencies of commands and of the
+		 * communication with solvers (see Statistics); they are reported by get-info :all-statistics */
+		public /*@Nullable*/ Statistics statistics = null;
+		
+		/** If non-null (and statistics is), the object to which the statistics are reported at the end of a run */
+		public /*@Nullable*/ Statistics.IExporter statisticsExporter = null;
+		
 		/** The log to use for regular, error, and diagnostic output */ 
 		public /*@NonNull*/ Log log = new Log(this);
 		
@@ -155,6 +195,52 @@ public class SMT {
 		 */
 		public boolean relax = false;
 		
+		/** When true, solver adapters that support it write commands whose only response is 'success'
+		 * without waiting for that response; the responses are read and checked (in order) when a
+		 * command that needs a result, such as check-sat or get-value, is executed.  The yices and cvc
+		 * adapters go further, buffering such commands and sending them all in one write at that point.
+		 */
+		public boolean pipeline = false;
+		
+		/** When true, input is tokenized by the original regular-expression based scanner rather
+		 * than the table-driven one; the two should produce identical tokens.
+		 */
+		public boolean regexLexer = false;
+		
+		/** When true, the expression factory is a HashConsingFactory, so that structurally equal
+		 * terms share a single node (this is set from the command-line and acted on by processCommandLine).
+		 */
+		public boolean hashCons = false;
+		
+		/** When true (the default), parsed logic and theory definitions, and the symbol table 
+		 * contents they produce, are cached (per logic name and logic path) and shared by all
+		 * sessions in this process, so a set-logic need not re-read and re-parse the definition files.
+		 */
+		public boolean cacheLogics = true;
+		
+		/** When true (the default), input files are read through memory mappings (see MappedSource)
+		 * rather than being read into memory in their entirety.
+		 */
+		public boolean mapFiles = true;
+		
+		/** When true, the input read for each command is released once the command has been
+		 * executed, and the commands of a script file (see the exec command) are executed as they are
+		 * read, so that memory use does not grow with the length of the input.  The text of lines
+		 * released is then not available for error messages about earlier commands.
+		 */
+		public boolean streaming = false;
+		
+		/** When true, subterms that occur more than once in an expression sent to a solver are
+		 * sent just once, bound by a let (see org.smtlib.impl.DagSharing); this is most effective
+		 * along with hashCons, which makes structurally equal subterms one node.
+		 */
+		public boolean shareTerms = false;
+		
+		/** When true, the solver is wrapped in an IncrementalSolver, so that assertions that are popped
+		 * and then re-asserted unchanged are not discarded by, and re-sent to, the solver.
+		 */
+		public boolean incremental = false;
+		
 		/** An array of fully-qualified class name prefixes; a command name (with hyphen
 		 * replaced by underscore) is appended to the prefix to obtain a fully-qualified class name that
 		 * implements the command.
@@ -341,6 +427,16 @@ public class SMT {
 		if (ret == -1) return 0; // help or version
 		if (ret != 0) return ret;
 		ret = exec();
+		releaseSolver();
+		if (smtConfig.poolSize > 0) solverPool.close();
+		if (smtConfig.cacheSize > 0) saveQueryCache(smtConfig);
+		if (smtConfig.statistics != null && smtConfig.statisticsExporter != null) {
+			try {
+				smtConfig.statisticsExporter.export(smtConfig.statistics);
+			} catch (IOException e) {
+				error("Failed to export statistics: " + e);
+			}
+		}
 		return ret;
 	}
 	
@@ -372,6 +468,10 @@ public class SMT {
 			// so that the prompt is sent back on the socket and the client knows that the communication
 			// has been received and responded to.
 			smtConfig.interactive = false;
+			if (smtConfig.sessions > 0) {
+				// Each client gets a session of its own
+				return new SessionServer(this,smtConfig.sessions).serve();
+			}
 			ServerSocket serverSocket;
 			try {
 				serverSocket = new ServerSocket(smtConfig.port);
@@ -401,20 +501,46 @@ public class SMT {
 		} else {
 			// Otherwise, iterate over all the files
 			smtConfig.interactive = false;
+			if (smtConfig.jobs > 1 && smtConfig.files.size() > 1) {
+				// Independent files are processed concurrently
+				return new BatchRunner(this,smtConfig.jobs).run(smtConfig.files);
+			}
 			for (String file: smtConfig.files) {
+				int e = execFile(file);
+				if (e != 0) retcode = e;
+			}
+			return retcode;
+		}
+	}
+	
+	/** Processes the commands in the given file, returning a non-zero code if execution failed */
+	public int execFile(String file) {
+		ISource src = null;
+		Reader rdr = null;
+		try {
+			if (smtConfig.mapFiles) {
+				src = smtConfig.smtFactory.createSource(smtConfig, new File(file));
+			} else {
+				rdr = new BufferedReader(new FileReader(file));
+				CharSequenceReader csr = new CharSequenceReader(rdr,100000,0,2);
+				src = smtConfig.smtFactory.createSource(csr, file);
+			}
+			IParser p = smtConfig.smtFactory.createParser(smtConfig,src);
+			if (smtConfig.verbose != 0) smtConfig.log.logDiag("Starting file " + file);
+			return doParser(p);
+		} catch (FileNotFoundException e) {
+			smtConfig.log.logError("Could not find file: " + file + " Exception: " + e);
+			return 0;
+		} finally {
+			// Also when processing the file fails, so that (under --jobs) no files are left open
+			if (smtConfig.mapFiles && src != null) src.close();
+			if (rdr != null) {
 				try {
-					Reader rdr = new BufferedReader(new FileReader(file));
-					CharSequenceReader csr = new CharSequenceReader(rdr,100000,0,2);
-					src = smtConfig.smtFactory.createSource(csr, file);
-					p = smtConfig.smtFactory.createParser(smtConfig,src);
-					if (smtConfig.verbose != 0) smtConfig.log.logDiag("Starting file " + file);
-					int e = doParser(p);
-					if (e != 0) retcode = e;
-				} catch (FileNotFoundException e) {
-					smtConfig.log.logError("Could not find file: " + file + " Exception: " + e);
+					rdr.close();
+				} catch (IOException e) {
+					// Ignore
 				}
 			}
-			return retcode;
 		}
 	}
 	
@@ -432,13 +558,80 @@ public class SMT {
 	
 	protected /*@Nullable*/ ISolver solver = null;
 	
+	/** The time limits of the commands executed by doParser (see Configuration.timeout and sessionTimeout) */
+	final public Deadline deadline = new Deadline();
+	
+	/** Cancels the processing of the current input, which may be waiting for a solver: the solver
+	 * is stopped, the command in progress fails and the rest of the input is skipped; may be called
+	 * from any thread. */
+	public void cancel() {
+		deadline.cancel();
+	}
+	
 	public IResponse lastResponse = null; // FIXME - quick hack to export the result of an interactive command
 	
+	/** Returns the current solver, if any and if it has not been exited, to the solver pool
+	 * (if pooling is enabled); in any case, the current solver is cleared. */
+	protected void releaseSolver() {
+		ISolver s = solver;
+		solver = null;
+		if (s instanceof CachingSolver) s = ((CachingSolver)s).solver();
+		if (s instanceof IncrementalSolver) s = ((IncrementalSolver)s).solver();
+		if (s == null || smtConfig.poolSize <= 0) return;
+		if (lastResponse == smtConfig.responseFactory.success_exit()) return;
+		solverPool.checkin(s);
+	}
+	
+	/** Stops the current solver without returning it to the pool, as when it has been stopped
+	 * (or must be) because a time limit passed or the input was cancelled; the current solver is cleared. */
+	protected void discardSolver() {
+		ISolver s = solver;
+		solver = null;
+		if (s instanceof CachingSolver) s = ((CachingSolver)s).solver();
+		if (s instanceof IncrementalSolver) s = ((IncrementalSolver)s).solver();
+		if (s == null) return;
+		if (smtConfig.poolSize > 0) {
+			solverPool.discard(s);
+			return;
+		}
+		try {
+			s.exit();
+		} catch (RuntimeException e) {
+			// The solver process has already been stopped - nothing more to do
+		}
+	}
+	
+	/** Ends the processing of the input because its time limit passed or it was cancelled (see
+	 * Deadline): stops the solver, and logs and returns the response to the command that was
+	 * interrupted (at the given position, if any) - timeout, or an error if the input was cancelled.
+	 */
+	protected IResponse interrupted(/*@Nullable*/ IPos pos) {
+		discardSolver();
+		if (deadline.isCancelled() && !deadline.expired()) {
+			IResponse.IError e = smtConfig.responseFactory.error("The input was cancelled",pos);
+			smtConfig.log.logError(e);
+			return e;
+		}
+		IResponse r = smtConfig.responseFactory.timeout();
+		smtConfig.log.logOut(r);
+		if (smtConfig.verbose != 0) smtConfig.log.logDiag("Skipping the rest of the input after a timeout");
+		return r;
+	}
+	
 	protected int doParser(IParser p, boolean restart) { 
 		boolean checkMode = Utils.TEST_SOLVER.equals(smtConfig.solvername);
 		boolean abortMode = smtConfig.abort && !checkMode;
 
-		if (restart || solver == null) solver = startSolver(smtConfig, smtConfig.solvername, smtConfig.executable);
+		if (restart || solver == null) {
+			releaseSolver();
+			solver = startSolver(smtConfig, smtConfig.solvername, smtConfig.executable);
+			if (solver != null && smtConfig.incremental) {
+				solver = new IncrementalSolver(solver);
+			}
+			if (solver != null && smtConfig.cacheSize > 0) {
+				solver = new CachingSolver(solver, queryCache(smtConfig), smtConfig.solvername + " " + smtConfig.executable);
+			}
+		}
 		if (solver == null) return 1;
 		IKeyword printSuccessKW = smtConfig.exprFactory.keyword(Utils.PRINT_SUCCESS);
 		if (smtConfig.nosuccess) {
@@ -447,12 +640,22 @@ public class SMT {
 		if (smtConfig.logic != null) solver.set_logic(smtConfig.logic,null);
 		// FIXME: if (smtConfig.verboseSolver) 
 		int retcode = 0;
+		Statistics stats = smtConfig.statistics;
+		deadline.startSession(smtConfig.sessionTimeout);
+		Deadline previous = Deadline.bind(deadline);
 		try {
 			IResponse result = null;
 			IResponse exit = smtConfig.responseFactory.success_exit();
 			while (result != exit && !p.isEOD()) {
+				if (deadline.sessionExpired() || deadline.isCancelled()) {
+					lastResponse = interrupted(null);
+					retcode = 1;
+					break;
+				}
 				try {
+					long time = stats == null ? 0 : System.nanoTime();
 					ICommand command = p.parseCommand();
+					if (stats != null) stats.parse.record(System.nanoTime() - time);
 					if (command == null) {
 						retcode = 1;
 						if (abortMode) {
@@ -470,7 +673,23 @@ public class SMT {
 						smtConfig.log.logDiag(smtConfig.defaultPrinter.toString(command));
 					}
 					else if (smtConfig.verbose != 0) smtConfig.log.logDiag("Command to execute: " +  command);
-					result = command.execute(solver);
+					if (stats != null) time = System.nanoTime();
+					deadline.startCommand(smtConfig.timeout);
+					try {
+						result = command.execute(solver);
+					} finally {
+						deadline.endCommand();
+					}
+					if (stats != null) {
+						stats.command(command instanceof org.smtlib.impl.Command ? ((org.smtlib.impl.Command)command).commandName()
+								: command.getClass().getSimpleName(), System.nanoTime() - time);
+					}
+					if (deadline.expired() || deadline.isCancelled()) {
+						// The solver has been stopped, so the rest of the input cannot be executed
+						lastResponse = interrupted(((org.smtlib.impl.Command)command).pos());
+						retcode = 1;
+						break;
+					}
 					if (result.isError()) {
 						IResponse.IError eresult = (IResponse.IError)result;
 						if (eresult.pos() == null) {
@@ -492,6 +711,10 @@ public class SMT {
 						smtConfig.log.logOut(result);
 					}
 					lastResponse = result;
+					if (smtConfig.streaming) {
+						IPos cpos = ((org.smtlib.impl.Command)command).pos();
+						if (cpos != null && cpos.source() != null) cpos.source().release(cpos.charEnd());
+					}
 				} catch (AbortParseException e) {
 					smtConfig.topLevel = true;
 					if (abortMode) {
@@ -503,7 +726,7 @@ public class SMT {
 					}
 				}
 			}
-			checkSatStatus = solver.checkSatStatus();
+			if (solver != null) checkSatStatus = solver.checkSatStatus();
 		} catch (IOException e) {
 			error("IOException reading input: " + e);
 			retcode = 2;
@@ -516,6 +739,8 @@ public class SMT {
 		} catch (OutOfMemoryError e) {
 			error("Out of memory while processing input");
 			retcode = 2;
+		} finally {
+			Deadline.bind(previous);
 		}
 		if (smtConfig.verbose != 0) smtConfig.log.logDiag("Exiting program");
 		return retcode;
@@ -577,6 +802,71 @@ public class SMT {
 				}
 				options.port = Integer.valueOf(args[i++]).intValue();
 
+			} else if ("--sessions".equals(s)) {
+				if (i >= args.length) {
+					error("The --sessions option expects an argument");
+					usage();
+					return 1;
+				}
+				options.sessions = Integer.valueOf(args[i++]).intValue();
+
+			} else if ("--jobs".equals(s) || "-j".equals(s)) {
+				if (i >= args.length) {
+					error("The --jobs option expects an argument");
+					usage();
+					return 1;
+				}
+				options.jobs = Integer.valueOf(args[i++]).intValue();
+
+			} else if ("--timeout".equals(s)) {
+				if (i >= args.length) {
+					error("The --timeout option expects an argument");
+					usage();
+					return 1;
+				}
+				options.timeout = Integer.valueOf(args[i++]).intValue();
+
+			} else if ("--sessiontimeout".equals(s)) {
+				if (i >= args.length) {
+					error("The --sessiontimeout option expects an argument");
+					usage();
+					return 1;
+				}
+				options.sessionTimeout = Integer.valueOf(args[i++]).intValue();
+
+			} else if ("--pool".equals(s)) {
+				if (i >= args.length) {
+					error("The --pool option expects an argument");
+					usage();
+					return 1;
+				}
+				options.poolSize = Integer.valueOf(args[i++]).intValue();
+
+			} else if ("--cache".equals(s)) {
+				if (i >= args.length) {
+					error("The --cache option expects an argument");
+					usage();
+					return 1;
+				}
+				options.cacheSize = Integer.valueOf(args[i++]).intValue();
+
+			} else if ("--cachefile".equals(s)) {
+				if (i >= args.length) {
+					error("The --cachefile option expects an argument");
+					usage();
+					return 1;
+				}
+				options.cacheFile = args[i++];
+
+			} else if ("--statsfile".equals(s)) {
+				if (i >= args.length) {
+					error("The --statsfile option expects an argument");
+					usage();
+					return 1;
+				}
+				if (options.statistics == null) options.statistics = new Statistics();
+				options.statisticsExporter = new Statistics.FileExporter(args[i++]);
+
 			} else if ("--text".equals(s)) {
 				if (i >= args.length) {
 					error("The --text option expects an argument");
@@ -620,6 +910,24 @@ public class SMT {
 				options.relax = true;
 			} else if ("--noshow".equals(s)) {
 				options.noshow = true;
+			} else if ("--pipeline".equals(s)) {
+				options.pipeline = true;
+			} else if ("--regexlexer".equals(s)) {
+				options.regexLexer = true;
+			} else if ("--hashcons".equals(s)) {
+				options.hashCons = true;
+			} else if ("--nologiccache".equals(s)) {
+				options.cacheLogics = false;
+			} else if ("--nomap".equals(s)) {
+				options.mapFiles = false;
+			} else if ("--stream".equals(s)) {
+				options.streaming = true;
+			} else if ("--share".equals(s)) {
+				options.shareTerms = true;
+			} else if ("--incremental".equals(s)) {
+				options.incremental = true;
+			} else if ("--stats".equals(s)) {
+				if (options.statistics == null) options.statistics = new Statistics();
 			} else if (s.startsWith("-")) {
 				error("Unknown option: " + s);
 				usage();
@@ -630,6 +938,10 @@ public class SMT {
 			}
 		}
 		
+		if (options.hashCons && !(options.exprFactory instanceof org.smtlib.impl.HashConsingFactory)) {
+			options.exprFactory = new org.smtlib.impl.HashConsingFactory();
+		}
+		
 		props = readProperties();
 
 		if (options.logicPath == null) options.logicPath = props.getProperty(Utils.PROPS_LOGIC_PATH);
@@ -735,21 +1047,41 @@ public class SMT {
 			adapterClass = org.smtlib.solvers.Solver_test.class;
 		}
 		
+		String poolKey = null;
+		if (smtConfig.poolSize > 0 && adapterClass != org.smtlib.solvers.Solver_test.class) {
+			poolKey = adapterClass.getName() + " " + (command == null ? executable : Arrays.toString(command));
+			ISolver pooled = solverPool.checkout(poolKey,smtConfig);
+			if (pooled != null) return pooled;
+		}
+		
 		try {
-			Constructor<?> constructor;
+			final Constructor<?> constructor;
+			final Object arg = command == null ? executable : command;
 			if (command == null) {
 				constructor = adapterClass.getConstructor(SMT.Configuration.class,String.class);
-				solver = (ISolver)(constructor.newInstance(smtConfig,executable));
 			} else {
 				constructor = adapterClass.getConstructor(SMT.Configuration.class,command.getClass());
-				solver = (ISolver)(constructor.newInstance(smtConfig,command));
 			}
+			solver = (ISolver)(constructor.newInstance(smtConfig,arg));
 			IResponse res = solver.start();
 			if (res.isError()) {
 				smtConfig.log.logError((IResponse.IError)res);
 				error("ISolver failed to start: " + solvername);
 				return null;
 			}
+			if (poolKey != null) {
+				final SMT.Configuration config = smtConfig;
+				final String name = solvername;
+				solverPool.add(solver, poolKey, new java.util.concurrent.Callable<ISolver>() {
+					@Override
+					public ISolver call() throws Exception {
+						ISolver s = (ISolver)(constructor.newInstance(config,arg));
+						IResponse r = s.start();
+						if (r.isError()) throw new Exception("ISolver failed to start: " + name);
+						return s;
+					}
+				}, smtConfig.poolSize);
+			}
 		} catch (NoSuchMethodException e) {
 			error("Could not find an appropriate constructor in " + adapterClassName + ": " + e);
 			usage();
@@ -791,12 +1123,29 @@ public class SMT {
 		System.out.println("       --out         <filename or 'stdout' or 'stderr'>");
 		System.out.println("       --diag        <filename or 'stdout' or 'stderr'>");
 		System.out.println("       --port        <int>");
+		System.out.println("       --sessions    <int>");
+		System.out.println("       --jobs   [-j] <int>");
+		System.out.println("       --timeout     <int>");
+		System.out.println("       --sessiontimeout <int>");
+		System.out.println("       --pool        <int>");
+		System.out.println("       --cache       <int>");
+		System.out.println("       --cachefile   <filename>");
+		System.out.println("       --statsfile   <filename>");
 		System.out.println("       --text        <string>");
 		System.out.println("       --echo   [-e]");
 		System.out.println("       --abort");
 		System.out.println("       --noshow");
 		System.out.println("       --nosuccess   [-q]");
 		System.out.println("       --relax  [-r]");
+		System.out.println("       --pipeline");
+		System.out.println("       --regexlexer");
+		System.out.println("       --hashcons");
+		System.out.println("       --nologiccache");
+		System.out.println("       --nomap");
+		System.out.println("       --stream");
+		System.out.println("       --share");
+		System.out.println("       --incremental");
+		System.out.println("       --stats");
 
 	}
 	
@@ -828,12 +1177,41 @@ public class SMT {
 		System.out.println("        --out <filename or 'stdout' or 'stderr'>: where to send normal and error output");
 		System.out.println("        --diag <filename or 'stdout' or 'stderr'>: where to send verbose (diagnostic) output");
 		System.out.println("        --port <number>: which port to use for client-server communication");
+		System.out.println("        --sessions <number>: with --port, serve up to this many clients at once,");
+		System.out.println("              each in an independent session (default is one client at a time)");
+		System.out.println("    -j, --jobs <number>: process the listed files concurrently, this many at a time, each");
+		System.out.println("              with its own solver; each file's output is printed, in order, when it is done");
+		System.out.println("        --timeout <number>: stop a solver that takes more than this many milliseconds over a");
+		System.out.println("              command, respond timeout and skip the rest of the input");
+		System.out.println("        --sessiontimeout <number>: respond timeout and skip the rest of an input (each file,");
+		System.out.println("              with several files) once it has taken this many milliseconds");
+		System.out.println("        --pool <number>: keep up to this many started solvers of each kind ready,");
+		System.out.println("              and reuse (after a reset) solvers from earlier inputs or sessions");
+		System.out.println("        --cache <number>: remember the results of up to this many check-sats, and answer");
+		System.out.println("              equivalent queries (up to renaming) without using the solver");
+		System.out.println("        --cachefile <filename>: load the check-sat cache from, and save it to, this file");
+		System.out.println("        --statsfile <filename>: collect statistics (as --stats) and write them to this file at the end");
 		System.out.println("        --text: text to process (ignoring file and port input)");
 		System.out.println("        --echo: if enabled, commands are echoed to diagnostic output when successfully parsed");
 		System.out.println("        --abort: if enabled, an error causes immediate exit");
 		System.out.println("        --noshow: if enabled, error location information is not shown");
 		System.out.println("    -q, --nosuccess: if enabled, 'success' responses are suppressed");
 		System.out.println("        --relax: if enabled, extensions to strict SMT-LIB are permitted");
+		System.out.println("        --pipeline: if enabled, commands are sent to the solver without waiting for");
+		System.out.println("              each 'success'; errors are reported at the next command that needs a result");
+		System.out.println("        --regexlexer: if enabled, input is scanned with the (slower) regular-expression lexer");
+		System.out.println("        --hashcons: if enabled, structurally equal terms share one node (error messages");
+		System.out.println("              then give no position for such terms)");
+		System.out.println("        --nologiccache: if enabled, logic and theory files are re-read at each set-logic");
+		System.out.println("              rather than being cached");
+		System.out.println("        --nomap: if enabled, input files are read into memory rather than memory-mapped");
+		System.out.println("        --stream: if enabled, input is discarded as soon as each command has been executed");
+		System.out.println("        --share: if enabled, subterms used more than once in an expression are sent to the");
+		System.out.println("              solver just once, bound by a let (best used with --hashcons)");
+		System.out.println("        --incremental: if enabled, assertions popped and then re-asserted unchanged are kept by");
+		System.out.println("              the solver rather than being discarded and sent again");
+		System.out.println("        --stats: if enabled, command counts and latencies, and the traffic with and time");
+		System.out.println("              waiting for solvers, are collected and reported by get-info :all-statistics");
 		System.out.println("This software is Copyright 2010 by David R. Cok. The accompanying LICENSE ");
 		System.out.println("    file describes the conditions under which it may be used.");
 	}
@@ -878,6 +1256,39 @@ public class SMT {
 		/*@Mutable*/ InputStream find(Configuration smtConfig, String logicName, /*@Nullable*/IPos pos) throws IOException, Utils.SMTLIBException;
 	}
 	
+	/** The pool of started solvers, used if the configuration's poolSize is positive */
+	public static SolverPool solverPool = new SolverPool();
+	
+	/** The cache of check-sat results, created when first needed if the configuration's cacheSize is positive */
+	public static /*@Nullable*/ QueryCache queryCache = null;
+	
+	/** Returns SMT.queryCache, creating it (and loading it from the configuration's cacheFile, if any) if need be */
+	synchronized public static QueryCache queryCache(SMT.Configuration smtConfig) {
+		if (queryCache == null) {
+			queryCache = new QueryCache(smtConfig.cacheSize);
+			if (smtConfig.cacheFile != null) {
+				try {
+					queryCache.load(new File(smtConfig.cacheFile));
+				} catch (IOException e) {
+					smtConfig.log.logError("Could not read the query cache file " + smtConfig.cacheFile + ": " + e);
+				}
+			}
+		}
+		return queryCache;
+	}
+	
+	/** Saves SMT.queryCache, if it exists, to the configuration's cacheFile, if any */
+	synchronized public static void saveQueryCache(SMT.Configuration smtConfig) {
+		if (queryCache == null) return;
+		if (smtConfig.verbose != 0) smtConfig.log.logDiag(queryCache.toString());
+		if (smtConfig.cacheFile == null) return;
+		try {
+			queryCache.save(new File(smtConfig.cacheFile));
+		} catch (IOException e) {
+			smtConfig.log.logError("Could not write the query cache file " + smtConfig.cacheFile + ": " + e);
+		}
+	}
+	
 	/** An instance of a logic finder that looks in the configuration's logicPath, or (if there is no such path) as a file on the system CLASSPATH */
 	public static ILogicFinder logicFinder = new ILogicFinder() {
 		@Override
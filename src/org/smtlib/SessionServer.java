@@ -0,0 +1,378 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ */
+package org.smtlib;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** This class implements a server that accepts many concurrent client connections on a port,
+ * running an independent SMT session - with its own configuration, log, parser and solver -
+ * for each connection.  (In contrast, the plain --port mode serves one client at a time, all
+ * of them sharing one configuration and solver.)
+ * <P>
+ * All socket I/O is done by one thread, using a Selector; each session's commands are parsed
+ * and executed on a thread of its own.  The bytes passed between the two in each direction
+ * are held in fixed-size buffers: when a session's input buffer is full, the server stops
+ * reading from that client (so TCP flow control pushes back on the client) until the session
+ * has consumed some input; when a session's output buffer is full, the session waits until
+ * the server has written some of it to the client.  When the maximum number of sessions is
+ * active, further connections wait (in the listen backlog) until a session ends.
+ * <P>
+ * As with the single-client mode, a session ends when the client closes its end of the
+ * connection, sends a 0 character, or executes an exit command.
+ * @author David R. Cok
+ */
+public class SessionServer {
+
+	/** The size of the input and output buffer of each session, in bytes */
+	final static public int BUFFER_SIZE = 1 << 16;
+
+	/** The SMT instance whose configuration (and properties) are the template for each session */
+	final protected SMT smt;
+
+	/** The maximum number of concurrent sessions */
+	final protected int maxSessions;
+
+	/** The number of sessions currently active */
+	final protected AtomicInteger activeSessions = new AtomicInteger();
+
+	/** The threads that run sessions */
+	final protected ExecutorService workers;
+
+	/** The selector that handles all socket I/O */
+	protected /*@Nullable*/ Selector selector;
+
+	/** The selection key of the listening channel */
+	protected /*@Nullable*/ SelectionKey acceptKey;
+
+	/** Set to stop the server */
+	protected volatile boolean stopped = false;
+
+	/** Creates a server (which is not started until serve() is called)
+	 * @param smt the SMT instance whose configuration (including the port) is used for each session
+	 * @param maxSessions the maximum number of concurrent sessions
+	 */
+	public SessionServer(SMT smt, int maxSessions) {
+		this.smt = smt;
+		this.maxSessions = maxSessions;
+		final AtomicInteger count = new AtomicInteger();
+		workers = Executors.newFixedThreadPool(maxSessions, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r,"smt-session-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/** Listens on the configured port and serves clients until stop() is called;
+	 * returns the exit code for the application */
+	public int serve() {
+		SMT.Configuration smtConfig = smt.smtConfig;
+		ServerSocketChannel serverChannel = null;
+		try {
+			selector = Selector.open();
+			serverChannel = ServerSocketChannel.open();
+			serverChannel.bind(new InetSocketAddress(smtConfig.port));
+			serverChannel.configureBlocking(false);
+			acceptKey = serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			System.out.println("Could not listen on port: " + smtConfig.port);
+			return 1;
+		}
+		if (smtConfig.verbose != 0) smtConfig.log.logDiag("Serving up to " + maxSessions + " sessions on port " + smtConfig.port);
+		try {
+			while (!stopped) {
+				selector.select();
+				Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+				while (iter.hasNext()) {
+					SelectionKey key = iter.next();
+					iter.remove();
+					if (!key.isValid()) continue;
+					if (key.isAcceptable()) {
+						accept(serverChannel);
+						continue;
+					}
+					Session session = (Session)key.attachment();
+					if (key.isReadable()) session.input.fill();
+					if (key.isValid() && key.isWritable()) session.output.drain();
+				}
+			}
+			return 0;
+		} catch (IOException e) {
+			smtConfig.log.logError("IOException in server: " + e);
+			return 2;
+		} finally {
+			workers.shutdownNow();
+			try {
+				serverChannel.close();
+				selector.close();
+			} catch (IOException e) {
+				// Ignore
+			}
+		}
+	}
+
+	/** Stops the server; sessions in progress are interrupted */
+	public void stop() {
+		stopped = true;
+		Selector s = selector;
+		if (s != null) s.wakeup();
+	}
+
+	/** Accepts a pending connection, if any, and starts a session for it */
+	protected void accept(ServerSocketChannel serverChannel) throws IOException {
+		SocketChannel channel = serverChannel.accept();
+		if (channel == null) return;
+		channel.configureBlocking(false);
+		Session session = new Session(channel);
+		session.key = channel.register(selector, SelectionKey.OP_READ, session);
+		if (activeSessions.incrementAndGet() >= maxSessions) {
+			// Leave further connections in the backlog until a session ends
+			acceptKey.interestOpsAnd(~SelectionKey.OP_ACCEPT);
+		}
+		workers.execute(session);
+	}
+
+	/** Changes the interest set of a key (from any thread), waking the selector so that the change takes effect */
+	protected void interest(SelectionKey key, int ops, boolean on) {
+		try {
+			if (on) key.interestOpsOr(ops); else key.interestOpsAnd(~ops);
+			selector.wakeup();
+		} catch (java.nio.channels.CancelledKeyException e) {
+			// The connection has been closed - nothing to do
+		}
+	}
+
+	/** Creates the configuration for a new session: a copy of the server's configuration,
+	 * with its own log (whose output goes to the client) and utilities */
+	protected SMT.Configuration sessionConfig(PrintStream out) throws CloneNotSupportedException {
+		SMT.Configuration template = smt.smtConfig;
+		SMT.Configuration config = template.clone();
+		config.interactive = false;
+		config.log = new Log(config);
+		config.log.out = out;
+		config.log.diag = template.log.diag;
+		config.utils = new org.smtlib.sexpr.Utils(config);
+		return config;
+	}
+
+	/** The state of one client connection */
+	protected class Session implements Runnable {
+		/** The client connection */
+		final protected SocketChannel channel;
+
+		/** The selection key for the client connection */
+		protected /*@LazyNonNull*/ SelectionKey key;
+
+		/** The characters read from the client */
+		final protected Input input = new Input();
+
+		/** The bytes to be written to the client */
+		final protected Output output = new Output();
+
+		Session(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		/** Runs the session to completion and then closes the connection */
+		@Override
+		public void run() {
+			String location = String.valueOf(channel.socket().getRemoteSocketAddress());
+			try {
+				SMT session = new SMT();
+				session.props = smt.props;
+				session.smtConfig = sessionConfig(new PrintStream(output,true,"UTF-8"));
+				if (session.smtConfig.verbose != 0) session.smtConfig.log.logDiag("Start session for " + location);
+				ISource src = session.smtConfig.smtFactory.createSource(input, location);
+				IParser p = session.smtConfig.smtFactory.createParser(session.smtConfig,src);
+				session.doParser(p);
+				if (session.smtConfig.poolSize > 0) {
+					session.releaseSolver();
+				} else if (session.solver != null && session.lastResponse != session.smtConfig.responseFactory.success_exit()) {
+					session.solver.exit(); // The client did not exit the solver itself
+				}
+				output.waitUntilEmpty();
+			} catch (Exception e) {
+				smt.smtConfig.log.logDiag("Session for " + location + " failed: " + e);
+			} finally {
+				try {
+					channel.close();
+				} catch (IOException e) {
+					// Ignore
+				}
+				activeSessions.decrementAndGet();
+				interest(acceptKey,SelectionKey.OP_ACCEPT,true);
+			}
+		}
+
+		/** The input of a session: the server reads bytes from the client into a bounded buffer,
+		 * from which the session's parser decodes characters as it needs them. */
+		protected class Input extends CharSequenceInfinite {
+			/** Bytes read from the client but not yet decoded (in write mode) */
+			final private ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+
+			final private CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+			/** True once the client has closed its end of the connection */
+			private boolean eof = false;
+
+			/** True once a 0 character has been read */
+			private boolean ended = false;
+
+			/** True when reading from the client is suspended because the buffer is full */
+			private boolean suspended = false;
+
+			Input() {
+				super(100000,0,2);
+			}
+
+			/** Called by the server thread when the client has sent data */
+			synchronized void fill() {
+				try {
+					if (channel.read(bytes) < 0) eof = true;
+				} catch (IOException e) {
+					eof = true;
+				}
+				if (eof) {
+					interest(key,SelectionKey.OP_READ,false);
+				} else if (!bytes.hasRemaining()) {
+					suspended = true;
+					interest(key,SelectionKey.OP_READ,false);
+				}
+				notifyAll();
+			}
+
+			@Override
+			synchronized protected boolean readChars() throws IOException {
+				while (!ended) {
+					bytes.flip();
+					CharBuffer chars = CharBuffer.wrap(buf,amountRead,buf.length-amountRead);
+					decoder.decode(bytes,chars,eof);
+					bytes.compact();
+					if (suspended && bytes.hasRemaining()) {
+						suspended = false;
+						interest(key,SelectionKey.OP_READ,true);
+					}
+					int end = chars.position();
+					if (end > amountRead) {
+						for (int i = amountRead; i < end; i++) {
+							if (buf[i] == 0) {
+								// A 0 character ends the session, as for CharSequenceSocket
+								ended = true;
+								end = i;
+								break;
+							}
+						}
+						if (end > amountRead) {
+							amountRead = end;
+							return true;
+						}
+					} else if (eof) {
+						ended = true;
+					} else {
+						try {
+							wait();
+						} catch (InterruptedException e) {
+							throw new java.io.InterruptedIOException();
+						}
+					}
+				}
+				return false;
+			}
+		}
+
+		/** The output of a session: the session writes into a bounded buffer, which the
+		 * server writes to the client whenever the client can accept data. */
+		protected class Output extends OutputStream {
+			/** Bytes written by the session but not yet sent (in write mode) */
+			final private ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+
+			/** True while the server has been asked to write the buffer to the client */
+			private boolean writeRequested = false;
+
+			/** True once writing to the client has failed; subsequent output is discarded */
+			private boolean closed = false;
+
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[]{ (byte)b },0,1);
+			}
+
+			@Override
+			synchronized public void write(byte[] b, int off, int len) throws IOException {
+				while (len > 0 && !closed) {
+					int n = Math.min(len,bytes.remaining());
+					if (n == 0) {
+						// The buffer is full - wait for the server to send some of it
+						requestWrite();
+						try {
+							wait();
+						} catch (InterruptedException e) {
+							throw new java.io.InterruptedIOException();
+						}
+						continue;
+					}
+					bytes.put(b,off,n);
+					off += n;
+					len -= n;
+				}
+				requestWrite();
+			}
+
+			/** Asks the server to write the buffer to the client */
+			private void requestWrite() {
+				if (!writeRequested && bytes.position() > 0) {
+					writeRequested = true;
+					interest(key,SelectionKey.OP_WRITE,true);
+				}
+			}
+
+			/** Called by the server thread when the client can accept data */
+			synchronized void drain() {
+				bytes.flip();
+				try {
+					channel.write(bytes);
+				} catch (ClosedChannelException e) {
+					closed = true;
+				} catch (IOException e) {
+					closed = true;
+				}
+				bytes.compact();
+				if (closed) bytes.clear();
+				if (bytes.position() == 0) {
+					writeRequested = false;
+					interest(key,SelectionKey.OP_WRITE,false);
+				}
+				notifyAll();
+			}
+
+			/** Waits until everything written has been sent to the client (or the connection is lost) */
+			synchronized void waitUntilEmpty() throws InterruptedException {
+				while (bytes.position() > 0 && !closed) wait();
+			}
+		}
+	}
+}
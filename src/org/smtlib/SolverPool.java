@@ -0,0 +1,255 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ */
+package org.smtlib;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/** This class holds a pool of started solver instances, so that a new session (or a new
+ * input file) can use a solver that is already running instead of starting a new solver
+ * process.  Instances are grouped by a key that identifies the adapter class and the
+ * executable or command, and are created (and started) by a Callable supplied when the first
+ * instance for a key is added to the pool.
+ * <P>
+ * A solver is reset (using ISolver.reset()) when it is checked in, so that it is ready for the
+ * next checkout; one whose reset fails - because the solver process has died or because the
+ * adapter does not implement reset - is exited and discarded rather than kept idle, as is one
+ * that has been idle for more than maxIdleMillis or that has been checked out maxUses times.
+ * Thus for an adapter without reset the pool only keeps freshly started solvers ready.  After an
+ * instance for a key is checked out or created, new instances are started in the background, so
+ * that at least the target number of idle, started instances are kept ready for that key; solvers
+ * that are checked in are kept (for reuse) as long as there are fewer than twice the target number
+ * idle.
+ * <P>
+ * A solver that is checked out is first rebound (using ISolver.rebind) to the configuration of
+ * the session that borrows it, so that what the adapter logs goes to that session's output; one
+ * that cannot be rebound is discarded.  The settings that affect the solver process itself are
+ * part of the key, but solvers should still only be shared among configurations that agree in
+ * the other settings that the adapters use (e.g. verbosity and pipelining).
+ * @author David R. Cok
+ */
+public class SolverPool {
+
+	/** The maximum time in milliseconds that a solver may be idle before it is discarded */
+	public long maxIdleMillis = 60000;
+
+	/** The maximum number of times a solver is checked out before it is discarded */
+	public int maxUses = 100;
+
+	/** The bookkeeping information for a solver that belongs to the pool */
+	static protected class Pooled {
+		/** The pool key of the solver */
+		final String key;
+		/** The number of times the solver has been handed out */
+		int uses = 0;
+		/** The time (from System.currentTimeMillis) the solver last became idle */
+		long idleSince;
+		/** True if the solver has not been used since it was started or reset */
+		boolean fresh = true;
+
+		Pooled(String key) {
+			this.key = key;
+		}
+	}
+
+	/** The bookkeeping information for each key */
+	static protected class Group {
+		/** The creator of new solvers for this key */
+		final Callable<ISolver> creator;
+		/** The number of idle solvers to keep ready */
+		final int target;
+		/** The idle solvers, least recently used first */
+		final LinkedList<ISolver> idle = new LinkedList<ISolver>();
+		/** The number of solvers currently being started in the background */
+		int starting = 0;
+
+		Group(Callable<ISolver> creator, int target) {
+			this.creator = creator;
+			this.target = target;
+		}
+	}
+
+	/** The groups of solvers, by key */
+	final private Map<String,Group> groups = new HashMap<String,Group>();
+
+	/** All solvers that belong to the pool, whether idle or checked out */
+	final private Map<ISolver,Pooled> members = new IdentityHashMap<ISolver,Pooled>();
+
+	/** Returns a reset, idle solver for the given key, bound to the given configuration, or null if
+	 * there is none; the solver is owned by the caller until it is returned with checkin. */
+	public /*@Nullable*/ ISolver checkout(String key, SMT.Configuration smtConfig) {
+		expire();
+		while (true) {
+			ISolver solver;
+			Pooled p;
+			synchronized (this) {
+				Group g = groups.get(key);
+				if (g == null || g.idle.isEmpty()) return null;
+				solver = g.idle.removeFirst();
+				p = members.get(solver);
+			}
+			if (rebind(solver,smtConfig) && p.fresh) {
+				synchronized (this) {
+					p.fresh = false;
+					p.uses++;
+				}
+				warm(key);
+				return solver;
+			}
+			discard(solver);
+		}
+	}
+
+	/** Adds a solver that was just created and started by the caller, and which the caller
+	 * is about to use, to the pool; also starts idle instances for the key in the background.
+	 * @param solver the solver, which is considered to be checked out
+	 * @param key the key identifying the kind of solver
+	 * @param creator creates and starts another solver for the same key, throwing an exception if that fails
+	 * @param target the number of idle solvers to keep ready for this key
+	 */
+	public void add(ISolver solver, String key, Callable<ISolver> creator, int target) {
+		synchronized (this) {
+			if (!groups.containsKey(key)) groups.put(key, new Group(creator,target));
+			Pooled p = new Pooled(key);
+			p.fresh = false;
+			p.uses = 1;
+			members.put(solver,p);
+		}
+		warm(key);
+	}
+
+	/** Returns a solver obtained from checkout (or registered with add) to the pool;
+	 * returns false (and does nothing) if the solver does not belong to the pool */
+	public boolean checkin(ISolver solver) {
+		Pooled p;
+		Group g;
+		synchronized (this) {
+			p = members.get(solver);
+			if (p == null) return false;
+			g = groups.get(p.key);
+			if (p.uses >= maxUses || g.idle.size() >= 2*g.target) p = null;
+		}
+		// The reset is done before the solver is made idle, so that one that cannot be reset is
+		// not handed out (and discarded) by the next checkout
+		if (p == null || !reset(solver)) {
+			discard(solver);
+			return true;
+		}
+		synchronized (this) {
+			p.fresh = true;
+			p.idleSince = System.currentTimeMillis();
+			g.idle.addLast(solver);
+		}
+		return true;
+	}
+
+	/** Exits and discards all idle solvers */
+	public void close() {
+		List<ISolver> all = new LinkedList<ISolver>();
+		synchronized (this) {
+			for (Group g: groups.values()) {
+				all.addAll(g.idle);
+				g.idle.clear();
+			}
+		}
+		for (ISolver s: all) discard(s);
+	}
+
+	/** Returns the number of idle solvers for the given key */
+	synchronized public int numberIdle(String key) {
+		Group g = groups.get(key);
+		return g == null ? 0 : g.idle.size();
+	}
+
+	/** Rebinds a solver to the given configuration, returning true if that succeeded */
+	protected boolean rebind(ISolver solver, SMT.Configuration smtConfig) {
+		try {
+			solver.rebind(smtConfig);
+			return true;
+		} catch (RuntimeException e) {
+			// Includes UnsupportedOperationException for adapters that cannot be rebound
+			return false;
+		}
+	}
+
+	/** Resets a solver, returning true if that succeeded */
+	protected boolean reset(ISolver solver) {
+		try {
+			return solver.reset().isOK();
+		} catch (RuntimeException e) {
+			// Includes UnsupportedOperationException for adapters without reset
+			return false;
+		}
+	}
+
+	/** Removes the solver from the pool and exits it */
+	protected void discard(ISolver solver) {
+		synchronized (this) {
+			members.remove(solver);
+		}
+		try {
+			solver.exit();
+		} catch (RuntimeException e) {
+			// The solver may already be dead - nothing more to do
+		}
+	}
+
+	/** Discards solvers that have been idle for too long */
+	protected void expire() {
+		List<ISolver> expired = new LinkedList<ISolver>();
+		long now = System.currentTimeMillis();
+		synchronized (this) {
+			for (Group g: groups.values()) {
+				Iterator<ISolver> iter = g.idle.iterator();
+				while (iter.hasNext()) {
+					ISolver s = iter.next();
+					if (now - members.get(s).idleSince > maxIdleMillis) {
+						iter.remove();
+						expired.add(s);
+					}
+				}
+			}
+		}
+		for (ISolver s: expired) discard(s);
+	}
+
+	/** Starts new solvers for the key in the background, so that the target number are idle */
+	protected void warm(final String key) {
+		final Group g;
+		synchronized (this) {
+			g = groups.get(key);
+			if (g == null || g.idle.size() + g.starting >= g.target) return;
+			g.starting++;
+		}
+		Thread t = new Thread("smt-pool-" + key) {
+			@Override
+			public void run() {
+				ISolver solver = null;
+				try {
+					solver = g.creator.call();
+				} catch (Exception e) {
+					// The failure will be reported when a solver is next started in the foreground
+				}
+				synchronized (SolverPool.this) {
+					g.starting--;
+					if (solver != null) {
+						Pooled p = new Pooled(key);
+						p.idleSince = System.currentTimeMillis();
+						members.put(solver,p);
+						g.idle.addLast(solver);
+					}
+				}
+				if (solver != null) warm(key);
+			}
+		};
+		t.setDaemon(true);
+		t.start();
+	}
+}
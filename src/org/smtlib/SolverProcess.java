@@ -14,15 +14,28 @@ import java.io.BufferedReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /** This class implements launching, writing to, and reading responses from a 
  * launched process (in particular, solver processes).
+ * <P>
+ * A wait for a response is subject to the Deadline bound to the waiting thread, if any: if the
+ * deadline passes, or its session is cancelled, before the response is complete, the wait is
+ * abandoned with an InterruptedIOException (a TimeoutException, if the deadline passed) and the
+ * process is killed, since its later output could not be matched to the commands sent to it.
+ * The same is done if the waiting thread is interrupted.  Waits hold no monitor, so the calling
+ * thread may be a virtual thread.
  * @author David Cok
  */
 public class SolverProcess {
@@ -36,6 +49,13 @@ public class SolverProcess {
 		public ProverException(String s) { super(s); }
 	}
 	
+	/** Thrown when a wait for a response is abandoned because the deadline passed */
+	public static class TimeoutException extends InterruptedIOException {
+		private static final long serialVersionUID = 1L;
+
+		public TimeoutException(String s) { super(s); }
+	}
+	
 	/** The command-line arguments that launch a new process */
 	protected String[] app;
 
@@ -46,7 +66,7 @@ public class SolverProcess {
 	protected Process process;
 	
 	/** The Writer object that writes to the spawned process (initialized by start() )*/
-	protected Writer toProcess;
+	protected ProcessWriter toProcess;
 	
 	/** The Reader process that reads from the standard output of the spawned process (initialized by start() )*/
 	protected Reader fromProcess;
@@ -54,9 +74,24 @@ public class SolverProcess {
 	/** The Reader process that reads from the standard error stream of the spawned process (initialized by start() )*/
 	protected Reader errors;
 	
+	/** The thread that continuously drains the standard output of the spawned process (initialized by start() )*/
+	protected /*@Nullable*/Pump outPump;
+	
+	/** The thread that continuously drains the standard error of the spawned process (initialized by start() )*/
+	protected /*@Nullable*/Pump errPump;
+	
+	/** Commands written in pipelined mode whose responses have not yet been read, oldest first */
+	protected LinkedList<PendingResponse> pending = new LinkedList<PendingResponse>();
+	
+	/** Guards pending, and is held while the responses of pipelined commands are read */
+	final protected ReentrantLock pendingLock = new ReentrantLock();
+	
 	/** A place (e.g., log file), if non-null, to write all outbound communications for diagnostic purposes */
 	public /*@Nullable*/Writer log;
 	
+	/** If non-null, where the text sent and received and the time spent waiting for responses are recorded */
+	public /*@Nullable*/Statistics.Channel statistics = null;
+	
 	/** Constructs a SolverProcess object, without actually starting the process as yet.
 	 * @param cmd the command-line that will launch the desired process
 	 * @param endMarker text that marks the end of text returned from the process, e.g. the end of the 
@@ -82,9 +117,13 @@ public class SolverProcess {
     public void start(boolean listen) throws ProverException {
     	try {
     		process = Runtime.getRuntime().exec(app);
-    		toProcess = new OutputStreamWriter(process.getOutputStream());
+    		toProcess = new ProcessWriter(new OutputStreamWriter(process.getOutputStream()));
     		fromProcess = new BufferedReader(new InputStreamReader(process.getInputStream()));
     		errors = new InputStreamReader(process.getErrorStream());
+    		outPump = new Pump(fromProcess,"stdout");
+    		errPump = new Pump(errors,"stderr");
+    		outPump.start();
+    		errPump.start();
     		if (listen) listen();
     	} catch (IOException e) {
     		throw new ProverException(e.getMessage());
@@ -93,15 +132,33 @@ public class SolverProcess {
     	}
     }
 
-    /** Listens to the process's standard output until the designated endMarker is read 
-     * and to the error output. If there is error output, it is returned;
-     * otherwise the standard output is returned.
+    /** Listens to the process's standard output until a complete response is read
+     * and collects whatever error output has arrived. If there is error output, it is returned;
+     * otherwise the standard output is returned.  Both streams are drained continuously by
+     * the pump threads, so a solver that fills one pipe cannot stall the other; this method
+     * only waits for the framing condition on standard output (see Pump.take).
      */
 	public String listen() throws IOException {
-		// FIXME - need to put the two reads in parallel, otherwise one might block on a full buffer, preventing the other from completing
-		String err = listenThru(errors,null);
-		String out = listenThru(fromProcess,endMarker);
-		err = err + listenThru(errors,null);
+		resolvePending(null);
+		return readResponse();
+	}
+	
+	/** Reads one complete response, without regard to any pipelined commands still awaiting theirs */
+	protected String readResponse() throws IOException {
+		if (outPump == null || errPump == null) throw new ProverException("The solver has not been started");
+		long time = statistics == null ? 0 : System.nanoTime();
+		String out;
+		try {
+			out = outPump.take(endMarker, endMarker.trim().isEmpty(), Deadline.current());
+		} catch (InterruptedIOException e) {
+			kill();
+			throw e;
+		}
+		String err = errPump.take(null, false, null);
+		if (statistics != null) {
+			statistics.wait.record(System.nanoTime() - time);
+			statistics.received(out.length() + err.length());
+		}
 		
 		if (log != null) {
 			if (!out.isEmpty()) { log.write("OUT: "); log.write(out); log.write(eol); } // input usually ends with a prompt and no line terminator
@@ -110,10 +167,156 @@ public class SolverProcess {
 		return err.isEmpty() ? out : err;
 	}
 	
-	/** Aborts the process */
+	/** Returns a Reader over the next response on standard output, so that a long response (such as a
+	 * model) can be parsed as it arrives rather than first being collected into a String; the Reader
+	 * ends where listen() would end the response.  The response is logged as it is read, and closing
+	 * the Reader reads (and discards) whatever of the response has not been read.  Error output is
+	 * not read; it is returned with the response to the next command that listens.
+	 */
+	public Reader listenReader() throws IOException {
+		resolvePending(null);
+		if (outPump == null) throw new ProverException("The solver has not been started");
+		return new ResponseReader(outPump, new Framing(endMarker, endMarker.trim().isEmpty()), Deadline.current());
+	}
+	
+	/** The Reader returned by listenReader() */
+	protected class ResponseReader extends Reader {
+		/** The pump supplying the characters */
+		final private Pump pump;
+		
+		/** Where the response ends */
+		final private Framing framing;
+		
+		/** The deadline for the response, if any */
+		final private /*@Nullable*/ Deadline deadline;
+		
+		/** Set once some of the response has been logged */
+		private boolean logged = false;
+		
+		/** The time spent so far waiting for the response */
+		private long waited = 0;
+		
+		/** Set once the time spent waiting for the response has been recorded */
+		private boolean recorded = false;
+		
+		public ResponseReader(Pump pump, Framing framing, /*@Nullable*/ Deadline deadline) {
+			this.pump = pump;
+			this.framing = framing;
+			this.deadline = deadline;
+		}
+		
+		@Override
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			long time = statistics == null ? 0 : System.nanoTime();
+			int n;
+			try {
+				n = pump.read(cbuf,off,len,framing,deadline);
+			} catch (InterruptedIOException e) {
+				kill();
+				throw e;
+			}
+			if (statistics != null) {
+				waited += System.nanoTime() - time;
+				if (n > 0) statistics.received(n);
+				else if (!recorded) { statistics.wait.record(waited); recorded = true; }
+			}
+			if (log != null) {
+				if (n > 0) {
+					if (!logged) log.write("OUT: ");
+					logged = true;
+					log.write(cbuf,off,n);
+				} else if (logged) {
+					log.write(eol);
+					logged = false;
+				}
+			}
+			return n;
+		}
+
+		@Override
+		public boolean ready() {
+			return pump.ready(framing);
+		}
+		
+		/** Reads through the end of the response */
+		@Override
+		public void close() throws IOException {
+			char[] cbuf = new char[4096];
+			while (read(cbuf,0,cbuf.length) != -1) {}
+		}
+	}
+	
+	/** Recognizes the end of a response, as the characters of the response are given to it one by one:
+	 * the response ends with the end marker, at a point where (if balanced is true) parentheses outside
+	 * of string literals and quoted symbols are balanced.  Within a string literal a backslash escapes
+	 * the character after it (as in the \" that solvers write in error messages).
+	 */
+	static protected class Framing {
+		/** The text that ends a response */
+		final private String end;
+		
+		/** Whether the end marker only ends a response when parentheses are balanced */
+		final private boolean balanced;
+		
+		/** The last few characters given, as a ring buffer the length of the end marker */
+		final private char[] recent;
+		
+		/** The number of characters given so far */
+		private int seen = 0;
+		
+		private int depth = 0;
+		private boolean inString = false;
+		private boolean escaped = false;
+		private boolean inBars = false;
+		
+		/** Set once the end of the response has been given */
+		private boolean complete = false;
+		
+		public Framing(String end, boolean balanced) {
+			this.end = end;
+			this.balanced = balanced;
+			this.recent = new char[end.length()];
+		}
+		
+		/** Accounts for the next character of the response, returning true if it completes the response */
+		public boolean accept(char c) {
+			if (inString) {
+				if (escaped) escaped = false;
+				else if (c == '\\') escaped = true;
+				else if (c == '"') inString = false;
+			} else if (inBars) { if (c == '|') inBars = false; }
+			else if (c == '"') inString = true;
+			else if (c == '|') inBars = true;
+			else if (c == '(') depth++;
+			else if (c == ')') depth--;
+			int len = recent.length;
+			if (len > 0) recent[seen % len] = c;
+			seen++;
+			if (seen < len || (balanced && (depth > 0 || inString || inBars))) return false;
+			// Compare by hand to avoid creating a new String
+			for (int j=0; j<len; j++) {
+				if (end.charAt(j) != recent[(seen - len + j) % len]) return false;
+			}
+			return complete = true;
+		}
+	}
+	
+	/** Aborts the process; does nothing if it has already been stopped */
 	public void exit() {
+		if (process == null) return;
 		process.destroy();
 		process = null;
+		pendingLock.lock();
+		try {
+			pending.clear();
+		} finally {
+			pendingLock.unlock();
+		}
+		if (outPump != null) outPump.interrupt();
+		if (errPump != null) errPump.interrupt();
+		outPump = null;
+		errPump = null;
+		if (toProcess != null) toProcess.release();
 		toProcess = null;
 		if (log != null) {
 			try {
@@ -127,14 +330,43 @@ public class SolverProcess {
 		}
 	}
 	
+	/** Stops the process (and any processes it has started, as a wrapper script may) at once,
+	 * without giving it the chance to exit cleanly; used when a wait for one of its responses has
+	 * been abandoned */
+	public void kill() {
+		if (process != null) {
+			java.util.Iterator<ProcessHandle> children = process.descendants().iterator();
+			while (children.hasNext()) children.next().destroyForcibly();
+			process.destroyForcibly();
+		}
+		exit();
+	}
+	
+	/** Returns the Writer that writes to the process, so that a command may be written
+	 * piecemeal (e.g. by a translator writing an expression) rather than first being made into
+	 * a String; the text is buffered until the command is completed by one of the send methods
+	 * (or until the buffer is full), and is logged as it is written.
+	 */
+	public Writer writer() {
+		if (toProcess == null) throw new ProverException("The solver has not been started");
+		return toProcess;
+	}
+
+	/** Discards the text written by writer() since the last command was sent, returning false if
+	 * some of it could not be discarded because it has already been written to the process (in which
+	 * case the process has been sent an incomplete command).
+	 */
+	public boolean discard() {
+		if (toProcess == null) return true;
+		return toProcess.discard();
+	}
+
 	/** Sends all the given text arguments, then (if listen is true) listens for the designated end marker text */
 	public /*@Nullable*/ String send(boolean listen, String ... args) throws IOException {
 		if (toProcess == null) throw new ProverException("The solver has not been started");
 		for (String arg: args) {
-			if (log != null) log.write(arg);
 			toProcess.write(arg);
 		}
-		if (log != null) log.flush();
 		toProcess.flush();
 		if (listen) return listen();
 		return null;
@@ -152,7 +384,220 @@ public class SolverProcess {
 
 // TODO - combine listen and noListen versions of send?
 	
-	/** A pool of buffers used by listenThru. The listenThru method needs a buffer, which may need to be big.
+	/** Sends all the given text arguments (which should form exactly one command that produces exactly
+	 * one response) without waiting for the response; the response is read, in order, when the returned
+	 * Future is asked for its value or when any later command listens for its own response.
+	 */
+	public Future<String> sendPipelined(String ... args) throws IOException {
+		send(false,args);
+		PendingResponse r = new PendingResponse();
+		pendingLock.lock();
+		try {
+			pending.add(r);
+		} finally {
+			pendingLock.unlock();
+		}
+		return r;
+	}
+	
+	/** Reads the responses of pipelined commands, in order, through the given one (or through all
+	 * of them, if the argument is null).
+	 */
+	protected void resolvePending(/*@Nullable*/PendingResponse last) throws IOException {
+		pendingLock.lock();
+		try {
+			if (last != null && !pending.contains(last)) return;
+			while (!pending.isEmpty()) {
+				PendingResponse r = pending.removeFirst();
+				r.value = readResponse();
+				r.done = true;
+				if (r == last) break;
+			}
+		} finally {
+			pendingLock.unlock();
+		}
+	}
+	
+	/** Reads the responses of all outstanding pipelined commands */
+	public void sync() throws IOException {
+		resolvePending(null);
+	}
+	
+	/** The number of pipelined commands whose responses have not yet been read */
+	public int numberPending() {
+		pendingLock.lock();
+		try {
+			return pending.size();
+		} finally {
+			pendingLock.unlock();
+		}
+	}
+	
+	/** The not-yet-read response to a pipelined command */
+	protected class PendingResponse implements Future<String> {
+		/** The text of the response, once read */
+		protected /*@Nullable*/String value = null;
+		
+		/** Set once the response has been read */
+		protected volatile boolean done = false;
+		
+		/** Pipelined commands have already been sent, so they cannot be cancelled */
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) { return false; }
+		
+		@Override
+		public boolean isCancelled() { return false; }
+		
+		@Override
+		public boolean isDone() { return done; }
+		
+		/** Returns the response, reading it (and those of earlier pipelined commands) if necessary */
+		@Override
+		public String get() throws ExecutionException {
+			if (!done) {
+				try {
+					resolvePending(this);
+				} catch (IOException e) {
+					throw new ExecutionException(e);
+				}
+			}
+			return value;
+		}
+		
+		/** Returns the response, waiting at most the given time for it (and those of earlier
+		 * pipelined commands) to arrive; on a timeout nothing has been read, so a later get can
+		 * still return the response */
+		@Override
+		public String get(long timeout, TimeUnit unit) throws ExecutionException, InterruptedException, java.util.concurrent.TimeoutException {
+			if (done) return value;
+			long nanos = unit.toNanos(timeout);
+			long limit = System.nanoTime() + nanos;
+			if (!pendingLock.tryLock(nanos, TimeUnit.NANOSECONDS)) throw new java.util.concurrent.TimeoutException();
+			try {
+				int k = pending.indexOf(this);
+				Pump pump = outPump;
+				if (k >= 0 && pump != null
+						&& !pump.awaitResponses(k+1, endMarker, endMarker.trim().isEmpty(), limit - System.nanoTime())) {
+					throw new java.util.concurrent.TimeoutException();
+				}
+				return get();
+			} finally {
+				pendingLock.unlock();
+			}
+		}
+	}
+	
+	/** The Writer that writes to the process: text is collected in a buffer taken from the pool
+	 * of buffers (see getBuffer) and written to the process in chunks of the size of the buffer,
+	 * so that a large command does not have to be assembled in memory before it is sent; text is
+	 * also written to the log (if any) as it is written.
+	 */
+	protected class ProcessWriter extends Writer {
+		/** The Writer to the process's standard input */
+		final private Writer out;
+
+		/** The buffer of text not yet written to the process, or null once released */
+		private /*@Nullable*/ char[] buf = getBuffer();
+
+		/** The number of characters in buf */
+		private int count = 0;
+
+		/** Whether text has been written to the process since the last flush */
+		private boolean partial = false;
+
+		public ProcessWriter(Writer out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			if (log != null) log.write(cbuf,off,len);
+			if (statistics != null) statistics.sent(len);
+			while (len > 0) {
+				if (count == buf.length) {
+					out.write(buf,0,count);
+					count = 0;
+					partial = true;
+				}
+				int n = Math.min(len, buf.length - count);
+				System.arraycopy(cbuf,off,buf,count,n);
+				count += n;
+				off += n;
+				len -= n;
+			}
+		}
+
+		@Override
+		public void write(String str, int off, int len) throws IOException {
+			if (log != null) log.write(str,off,len);
+			if (statistics != null) statistics.sent(len);
+			while (len > 0) {
+				if (count == buf.length) {
+					out.write(buf,0,count);
+					count = 0;
+					partial = true;
+				}
+				int n = Math.min(len, buf.length - count);
+				str.getChars(off,off+n,buf,count);
+				count += n;
+				off += n;
+				len -= n;
+			}
+		}
+
+		@Override
+		public void write(int c) throws IOException {
+			if (log != null) log.write(c);
+			if (statistics != null) statistics.sent(1);
+			if (count == buf.length) {
+				out.write(buf,0,count);
+				count = 0;
+				partial = true;
+			}
+			buf[count++] = (char)c;
+		}
+
+		/** Writes all buffered text to the process */
+		@Override
+		public void flush() throws IOException {
+			if (count > 0) out.write(buf,0,count);
+			count = 0;
+			partial = false;
+			out.flush();
+			if (log != null) log.flush();
+		}
+
+		/** Discards the buffered text, returning false if text has been written to the process
+		 * since the last flush */
+		public boolean discard() {
+			count = 0;
+			boolean ok = !partial;
+			partial = false;
+			if (log != null) {
+				try {
+					log.write(eol + "DISCARDED" + eol);
+				} catch (IOException e) {
+					// Ignore
+				}
+			}
+			return ok;
+		}
+
+		/** Returns the buffer to the pool; the writer may not be used thereafter */
+		public void release() {
+			if (buf != null) putBuffer(buf);
+			buf = null;
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+			release();
+			out.close();
+		}
+	}
+
+	/** A pool of buffers used by listenThru and ProcessWriter. The listenThru method needs a buffer, which may need to be big.
 	 *  However, the method is called often and we do not want to be continually allocating big buffers that
 	 *  have to wait around to be garbage collected.  Especially since, unless there are multiple SMT processes
 	 *  working simultaneously, we will never need more than one of these.  But in order to be thread-safe we 
@@ -226,4 +671,265 @@ public class SolverProcess {
 			putBuffer(buf);
 		}
 	}
+	
+	/** A daemon thread that continuously drains a Reader into a growable ring buffer, from which
+	 * complete responses are taken by the thread talking to the solver.  All access to the
+	 * buffer is guarded by the Pump's lock; a reader waits on its condition, which (unlike a
+	 * monitor) does not pin a virtual thread.
+	 */
+	static protected class Pump extends Thread {
+		/** The stream being drained */
+		final private Reader reader;
+		
+		/** Guards the buffer and the state of the stream */
+		final private ReentrantLock lock = new ReentrantLock();
+		
+		/** Signalled when characters are added, when the stream ends, and by wake() */
+		final private Condition more = lock.newCondition();
+		
+		/** The ring buffer of characters read but not yet taken */
+		private char[] buf = new char[10000];
+		
+		/** The index in buf of the first character not yet taken */
+		private int head = 0;
+		
+		/** The number of characters in buf not yet taken */
+		private int count = 0;
+		
+		/** The number of characters taken so far */
+		private long taken = 0;
+		
+		/** Set when the stream has reached end of input (or failed) */
+		private boolean closed = false;
+		
+		/** The exception, if any, that terminated the reading of the stream */
+		private /*@Nullable*/IOException failure = null;
+		
+		/** Creates (but does not start) a pump for the given stream */
+		public Pump(Reader reader, String name) {
+			super("SolverProcess-" + name);
+			this.reader = reader;
+			setDaemon(true);
+		}
+		
+		@Override
+		public void run() {
+			char[] cbuf = new char[4096];
+			try {
+				while (true) {
+					int n = reader.read(cbuf,0,cbuf.length);
+					if (n == -1) break;
+					append(cbuf,n);
+				}
+			} catch (IOException e) {
+				lock.lock();
+				try {
+					failure = e;
+				} finally {
+					lock.unlock();
+				}
+			} finally {
+				lock.lock();
+				try {
+					closed = true;
+					more.signalAll();
+				} finally {
+					lock.unlock();
+				}
+			}
+		}
+		
+		/** Adds n characters from cbuf to the ring, expanding it if necessary, and wakes any waiting reader */
+		private void append(char[] cbuf, int n) {
+			lock.lock();
+			try {
+				if (count + n > buf.length) {
+					int len = buf.length;
+					while (count + n > len) len *= 2;
+					char[] nbuf = new char[len];
+					copyOut(nbuf,count);
+					buf = nbuf;
+					head = 0;
+				}
+				int tail = (head + count) % buf.length;
+				int first = Math.min(n, buf.length - tail);
+				System.arraycopy(cbuf,0,buf,tail,first);
+				System.arraycopy(cbuf,first,buf,0,n-first);
+				count += n;
+				more.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		/** Wakes any reader, so that it notices that its session has been cancelled */
+		public void wake() {
+			lock.lock();
+			try {
+				more.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		/** Waits, with the lock held, until more input may be available; throws an exception if the
+		 * deadline (if not null) has passed or its session has been cancelled, or if the thread is
+		 * interrupted.
+		 */
+		private void await(/*@Nullable*/Deadline deadline) throws InterruptedIOException {
+			try {
+				if (deadline == null) {
+					more.await();
+					return;
+				}
+				deadline.waiting.add(this);
+				try {
+					if (deadline.isCancelled()) throw new InterruptedIOException("The session was cancelled while waiting for the solver");
+					long d = deadline.nanos();
+					if (d == 0) {
+						more.await();
+						return;
+					}
+					long remaining = d - System.nanoTime();
+					if (remaining <= 0) {
+						deadline.expire();
+						throw new TimeoutException("The solver did not respond in time");
+					}
+					more.awaitNanos(remaining);
+				} finally {
+					deadline.waiting.remove(this);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for the solver");
+			}
+		}
+		
+		/** Copies the first n untaken characters into dest (starting at index 0) */
+		private void copyOut(char[] dest, int n) {
+			int first = Math.min(n, buf.length - head);
+			System.arraycopy(buf,head,dest,0,first);
+			System.arraycopy(buf,0,dest,first,n-first);
+		}
+		
+		/** Removes and returns the first n untaken characters */
+		private String remove(int n) {
+			char[] result = new char[n];
+			copyOut(result,n);
+			head = (head + n) % buf.length;
+			count -= n;
+			taken += n;
+			return new String(result);
+		}
+		
+		/** Returns a complete response from the stream, removing it from the buffer.  If end is null, 
+		 * whatever has been read so far is returned without waiting.  Otherwise this waits until 
+		 * the buffered text contains the end marker (at a point where, if balanced is true, 
+		 * parentheses outside of string literals and quoted symbols are balanced), and returns the
+		 * text through that marker; if the stream ends first, whatever was read is returned.
+		 * The wait is subject to the given deadline, if not null (see await).
+		 */
+		public String take(/*@Nullable*/String end, boolean balanced, /*@Nullable*/Deadline deadline) throws IOException {
+			lock.lock();
+			try {
+				if (end == null) return remove(count);
+				Framing framing = new Framing(end,balanced);
+				int scanned = 0; // number of characters already examined
+				while (true) {
+					while (scanned < count) {
+						char c = buf[(head + scanned) % buf.length];
+						scanned++;
+						if (framing.accept(c)) return remove(scanned);
+					}
+					if (closed) {
+						if (count == 0 && failure != null) throw failure;
+						return remove(count);
+					}
+					await(deadline);
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		/** Waits until the buffered text holds the given number of complete responses (as take would
+		 * recognize them with the given end marker) or the stream has ended, returning true, or until
+		 * the given number of nanoseconds have passed, returning false; nothing is taken.
+		 */
+		public boolean awaitResponses(int n, String end, boolean balanced, long nanos) throws InterruptedException {
+			long limit = System.nanoTime() + nanos;
+			lock.lock();
+			try {
+				Framing framing = null;
+				int found = 0;
+				int scanned = 0; // number of characters already examined
+				long start = -1; // the value of taken when the scan began
+				while (true) {
+					if (start != taken) {
+						// Text has been taken by another reader, so the scan starts again
+						framing = new Framing(end,balanced);
+						found = 0;
+						scanned = 0;
+						start = taken;
+					}
+					while (found < n && scanned < count) {
+						char c = buf[(head + scanned) % buf.length];
+						scanned++;
+						if (framing.accept(c)) {
+							found++;
+							framing = new Framing(end,balanced);
+						}
+					}
+					if (found >= n || closed) return true;
+					long remaining = limit - System.nanoTime();
+					if (remaining <= 0) return false;
+					more.awaitNanos(remaining);
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		/** Removes up to len characters of a response from the stream into cbuf, waiting until at
+		 * least one is available, and stopping at the end of the response as recognized by the given
+		 * framing; returns -1 once the response (or the stream) has ended.  The wait is subject to
+		 * the given deadline, if not null (see await).
+		 */
+		public int read(char[] cbuf, int off, int len, Framing framing, /*@Nullable*/Deadline deadline) throws IOException {
+			lock.lock();
+			try {
+				if (framing.complete) return -1;
+				while (count == 0) {
+					if (closed) {
+						framing.complete = true;
+						if (framing.seen == 0 && failure != null) throw failure;
+						return -1;
+					}
+					await(deadline);
+				}
+				int n = 0;
+				while (n < len && count > 0) {
+					char c = buf[head];
+					head = (head + 1) % buf.length;
+					count--;
+					taken++;
+					cbuf[off + n++] = c;
+					if (framing.accept(c)) break;
+				}
+				return n;
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		/** Returns true if some of the given response can be read without waiting */
+		public boolean ready(Framing framing) {
+			lock.lock();
+			try {
+				return !framing.complete && count > 0;
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
 }
@@ -0,0 +1,272 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ */
+package org.smtlib;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.smtlib.IExpr.IAttribute;
+import org.smtlib.IExpr.IAttributeValue;
+
+/** This class collects performance measurements of a run of the application: the number and
+ * latency of the commands executed (per command name), the time spent parsing and type-checking,
+ * and, for each kind of solver, the text sent to and received from solver processes and the time
+ * spent waiting for responses.  It is enabled by setting SMT.Configuration.statistics (the
+ * --stats option); the measurements are reported by get-info :all-statistics and, at the end of
+ * a run, to the configuration's statisticsExporter, if any.  An instance may be shared by the
+ * sessions of a process and is safe to use from several threads.
+ * <P>
+ * Times are recorded in nanoseconds and reported in milliseconds.
+ * @author David R. Cok
+ */
+public class Statistics {
+
+	/** The time at which the measurements started */
+	final protected long start = System.nanoTime();
+
+	/** Latencies of executed commands, by command name */
+	final protected Map<String,Histogram> commands = new TreeMap<String,Histogram>();
+
+	/** Times to parse a command */
+	final public Histogram parse = new Histogram();
+
+	/** Times to type-check an expression */
+	final public Histogram typecheck = new Histogram();
+
+	/** Measurements of communication with solver processes, by solver name */
+	final protected Map<String,Channel> solvers = new TreeMap<String,Channel>();
+
+	/** Records the execution of one command with the given name, which took the given time */
+	public void command(String name, long nanos) {
+		Histogram h;
+		synchronized (commands) {
+			h = commands.get(name);
+			if (h == null) commands.put(name, h = new Histogram());
+		}
+		h.record(nanos);
+	}
+
+	/** Returns the measurements for the solvers with the given name, creating them if need be */
+	public Channel channel(String name) {
+		synchronized (solvers) {
+			Channel c = solvers.get(name);
+			if (c == null) solvers.put(name, c = new Channel());
+			return c;
+		}
+	}
+
+	/** Returns a copy of the command latencies, by command name */
+	public Map<String,Histogram> commands() {
+		synchronized (commands) {
+			return new TreeMap<String,Histogram>(commands);
+		}
+	}
+
+	/** Returns a copy of the solver measurements, by solver name */
+	public Map<String,Channel> solvers() {
+		synchronized (solvers) {
+			return new TreeMap<String,Channel>(solvers);
+		}
+	}
+
+	/** Returns all the measurements as (name, value) pairs, in a stable order; the names are
+	 * valid SMT-LIB keywords without the leading colon and the values are numerals or decimals.
+	 * <UL>
+	 * <LI>time: milliseconds since the measurements started
+	 * <LI>commands, throughput: the number of commands executed and the number per second
+	 * <LI>N-count, N-mean, N-p50, N-p90, N-p99, N-max: the latency of command N, of parse and of typecheck
+	 * <LI>S-sent, S-received: the characters sent to and received from solver S
+	 * <LI>S-wait-count, S-wait-mean, ...: the time spent waiting for responses from solver S
+	 * </UL>
+	 */
+	public Map<String,String> summary() {
+		Map<String,String> result = new LinkedHashMap<String,String>();
+		long elapsed = System.nanoTime() - start;
+		long count = 0;
+		Map<String,Histogram> cmds = commands();
+		for (Histogram h: cmds.values()) count += h.count();
+		result.put("time", millis(elapsed));
+		result.put("commands", Long.toString(count));
+		result.put("throughput", elapsed == 0 ? "0.0" : new BigDecimal(count * 1e9 / elapsed).setScale(1,RoundingMode.HALF_UP).toPlainString());
+		summarize(result,"parse",parse);
+		summarize(result,"typecheck",typecheck);
+		for (Map.Entry<String,Histogram> e: cmds.entrySet()) {
+			summarize(result,e.getKey(),e.getValue());
+		}
+		for (Map.Entry<String,Channel> e: solvers().entrySet()) {
+			Channel c = e.getValue();
+			result.put(e.getKey() + "-sent", Long.toString(c.sent()));
+			result.put(e.getKey() + "-received", Long.toString(c.received()));
+			summarize(result,e.getKey() + "-wait",c.wait);
+		}
+		return result;
+	}
+
+	/** Adds the entries describing the given histogram to the summary */
+	private void summarize(Map<String,String> result, String name, Histogram h) {
+		result.put(name + "-count", Long.toString(h.count()));
+		result.put(name + "-mean", millis(h.mean()));
+		result.put(name + "-p50", millis(h.percentile(50)));
+		result.put(name + "-p90", millis(h.percentile(90)));
+		result.put(name + "-p99", millis(h.percentile(99)));
+		result.put(name + "-max", millis(h.max()));
+	}
+
+	/** Writes the given number of nanoseconds as milliseconds, to the microsecond */
+	static private String millis(long nanos) {
+		return BigDecimal.valueOf(nanos/1000,3).toPlainString();
+	}
+
+	/** Returns the response to get-info :all-statistics: the summary, as a list of attributes;
+	 * the response is unsupported if statistics are not being collected.
+	 */
+	static public IResponse response(SMT.Configuration smtConfig) {
+		Statistics stats = smtConfig.statistics;
+		if (stats == null) return smtConfig.responseFactory.unsupported();
+		List<IAttribute<?>> attributes = new ArrayList<IAttribute<?>>();
+		for (Map.Entry<String,String> e: stats.summary().entrySet()) {
+			String v = e.getValue();
+			IAttributeValue value = v.indexOf('.') < 0 ? smtConfig.exprFactory.numeral(v) : smtConfig.exprFactory.decimal(v);
+			attributes.add(smtConfig.exprFactory.attribute(smtConfig.exprFactory.keyword(":" + e.getKey()), value));
+		}
+		return smtConfig.responseFactory.get_info_response(attributes);
+	}
+
+	/** A histogram of non-negative values (here, times in nanoseconds) in the manner of HdrHistogram:
+	 * values below 64 are counted exactly and larger values in buckets whose width is at most 1/32 of
+	 * the values they hold, so that percentiles are accurate to about 3%, in a fixed space of 1920
+	 * counts whatever the range of values recorded.
+	 */
+	static public class Histogram {
+		/** The log (base 2) of the number of buckets for each power of two */
+		final static private int SUB_BITS = 5;
+
+		/** The number of buckets for each power of two */
+		final static private int SUB = 1 << SUB_BITS;
+
+		/** The counts of the values in each bucket */
+		final private long[] counts = new long[SUB * (65 - SUB_BITS)];
+
+		/** The number of values recorded */
+		private long count = 0;
+
+		/** The sum of the values recorded */
+		private long sum = 0;
+
+		/** The largest value recorded */
+		private long max = 0;
+
+		/** Returns the index of the bucket that holds the given value */
+		static private int index(long value) {
+			if (value < 2*SUB) return (int)value;
+			int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+			return SUB*shift + (int)(value >>> shift);
+		}
+
+		/** Returns the largest value held by the bucket with the given index */
+		static private long highest(int index) {
+			if (index < 2*SUB) return index;
+			int shift = index/SUB - 1;
+			return ((long)(index - SUB*shift + 1) << shift) - 1;
+		}
+
+		/** Records one value; negative values are recorded as zero */
+		synchronized public void record(long value) {
+			if (value < 0) value = 0;
+			counts[index(value)]++;
+			count++;
+			sum += value;
+			if (value > max) max = value;
+		}
+
+		/** The number of values recorded */
+		synchronized public long count() { return count; }
+
+		/** The sum of the values recorded */
+		synchronized public long sum() { return sum; }
+
+		/** The largest value recorded (0 if there are none) */
+		synchronized public long max() { return max; }
+
+		/** The mean of the values recorded (0 if there are none) */
+		synchronized public long mean() { return count == 0 ? 0 : sum / count; }
+
+		/** Returns (an upper bound, within the precision of the histogram, of) the value below which
+		 * the given percentage of the recorded values lie; 0 if there are none.
+		 */
+		synchronized public long percentile(double percent) {
+			if (count == 0) return 0;
+			long rank = (long)Math.ceil(percent / 100.0 * count);
+			if (rank < 1) rank = 1;
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank) return Math.min(highest(i), max);
+			}
+			return max;
+		}
+	}
+
+	/** The measurements of communication with solver processes of one kind (see SolverProcess) */
+	static public class Channel {
+		/** The number of characters sent */
+		private long sent = 0;
+
+		/** The number of characters received */
+		private long received = 0;
+
+		/** The time spent waiting for each response */
+		final public Histogram wait = new Histogram();
+
+		/** Records that the given number of characters were sent */
+		synchronized public void sent(long n) { sent += n; }
+
+		/** Records that the given number of characters were received */
+		synchronized public void received(long n) { received += n; }
+
+		/** The number of characters sent */
+		synchronized public long sent() { return sent; }
+
+		/** The number of characters received */
+		synchronized public long received() { return received; }
+	}
+
+	/** An object that reports the statistics somewhere at the end of a run (see SMT.Configuration.statisticsExporter) */
+	static public interface IExporter {
+		void export(Statistics statistics) throws IOException;
+	}
+
+	/** An exporter that writes the summary to a file, one 'name value' pair per line */
+	static public class FileExporter implements IExporter {
+		/** The name of the file to write */
+		final protected String filename;
+
+		public FileExporter(String filename) {
+			this.filename = filename;
+		}
+
+		@Override
+		public void export(Statistics statistics) throws IOException {
+			PrintWriter w = new PrintWriter(new OutputStreamWriter(new FileOutputStream(filename),StandardCharsets.UTF_8));
+			try {
+				for (Map.Entry<String,String> e: statistics.summary().entrySet()) {
+					w.println(e.getKey() + " " + e.getValue());
+				}
+			} finally {
+				w.close();
+			}
+		}
+	}
+}
@@ -5,8 +5,11 @@
  */
 package org.smtlib;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -45,23 +48,189 @@ public class SymbolTable {
 	/** A reference to the Configuration for this instance of SMT. */
 	public SMT.Configuration smtConfig;
 	
-	/* The tops of the stack are at the beginning of the lists.  The table 
-	 * manages a stack of scopes, each stack element holds a scope.  
-	 * Within a scope, a symbol can be defined with various different arities 
-	 * (and multiple mappings for a given arity) and different sort arguments. 
+	/* The table manages a stack of scopes; the bottom-most (depth 0) is the
+	 * background scope.  Within a scope, a symbol can be defined with various 
+	 * different arities (and multiple mappings for a given arity) and different 
+	 * sort arguments.
+	 * 
+	 * Each scope is an immutable Scope object that holds, in persistent hash tries, 
+	 * the bindings visible in that scope - for each name, the binding from the top-most 
+	 * scope that declares it.  Changing the table replaces the top Scope by a new one 
+	 * that shares almost all of its structure with the old one; push and pop just 
+	 * add or drop a Scope, and lookups cost the same no matter how many scopes 
+	 * there are.
 	 */
 	
-	//@ private invariant sorts = sortStack.get(0);
-	/** The stack of Sort declaration scopes */
-	private List<Map<IIdentifier,ISort.IDefinition>> sortStack;
-	/** The top-most Sort scope */
-	private Map<IIdentifier,ISort.IDefinition> sorts;
+	/** The top-most scope */
+	private Scope top;
+	
+	/** An immutable scope of the symbol table, along with the scopes beneath it */
+	static final private class Scope {
+		/** The scope beneath this one; null for the background scope */
+		final /*@Nullable*/ Scope outer;
+		/** The number of scopes beneath this one */
+		final int depth;
+		/** Maps each visible symbol to its binding in the top-most scope that declares it */
+		final Node<Binding> symbols;
+		/** Maps each visible sort to its definition in the top-most scope that declares it */
+		final Node<SortBinding> sorts;
+		/** The entries added in this scope, most recent first */
+		final /*@Nullable*/ Cell<Entry> entries;
+		/** The sort definitions added in this scope, most recent first */
+		final /*@Nullable*/ Cell<SortBinding> sortDecls;
+		
+		Scope(/*@Nullable*/ Scope outer, int depth, Node<Binding> symbols, Node<SortBinding> sorts,
+				/*@Nullable*/ Cell<Entry> entries, /*@Nullable*/ Cell<SortBinding> sortDecls) {
+			this.outer = outer;
+			this.depth = depth;
+			this.symbols = symbols;
+			this.sorts = sorts;
+			this.entries = entries;
+			this.sortDecls = sortDecls;
+		}
+	}
+	
+	/** A node of a persistent list */
+	static final private class Cell<T> {
+		final T head;
+		final /*@Nullable*/ Cell<T> tail;
+		Cell(T head, /*@Nullable*/ Cell<T> tail) { this.head = head; this.tail = tail; }
+	}
+	
+	/** The entries for one symbol declared in one scope, by arity; the maps and lists
+	 * are never changed once the binding is created */
+	static final private class Binding {
+		final int depth;
+		final Map<Integer,List<Entry>> arities;
+		Binding(int depth, Map<Integer,List<Entry>> arities) {
+			this.depth = depth;
+			this.arities = arities;
+		}
+	}
+	
+	/** A sort definition, along with the scope in which it was declared */
+	static final private class SortBinding {
+		final int depth;
+		final IIdentifier name;
+		final ISort.IDefinition definition;
+		SortBinding(int depth, IIdentifier name, ISort.IDefinition definition) {
+			this.depth = depth;
+			this.name = name;
+			this.definition = definition;
+		}
+	}
 	
-	//@ private invariant names == symStack.get(0);
-	/** The stack of Symbol scopes */
-	private List<Map<IIdentifier,Map<Integer,List<Entry>>>> symStack;
-	/** The top-most Symbol scope */
-	private Map<IIdentifier,Map<Integer,List<Entry>>> names;
+	/** A key-value pair stored in the trie; pairs whose keys have the same hash code 
+	 * are chained together */
+	static final private class Leaf<V> {
+		final int hash;
+		final Object key;
+		final V value;
+		final /*@Nullable*/ Leaf<V> next;
+		Leaf(int hash, Object key, V value, /*@Nullable*/ Leaf<V> next) {
+			this.hash = hash;
+			this.key = key;
+			this.value = value;
+			this.next = next;
+		}
+	}
+	
+	/** A node of a persistent hash array mapped trie.  Each level of the trie 
+	 * consumes 5 bits of the hash code of a key; the bitmap tells which of the 32
+	 * possible children are present, and the slots array holds just those children
+	 * (each a Node or a Leaf) in order.  Nodes are never modified: put returns a new
+	 * trie that shares all but the path to the changed leaf with the old one.
+	 */
+	static final private class Node<V> {
+		final int bitmap;
+		final Object[] slots;
+		
+		Node(int bitmap, Object[] slots) {
+			this.bitmap = bitmap;
+			this.slots = slots;
+		}
+		
+		/** Returns an empty trie */
+		static <V> Node<V> empty() {
+			return new Node<V>(0,new Object[0]);
+		}
+		
+		/** Spreads the bits of a key's hash code */
+		static int hash(Object key) {
+			int h = key.hashCode();
+			return h ^ (h >>> 16);
+		}
+		
+		/** Returns the value for the given key, or null if none */
+		@SuppressWarnings("unchecked")
+		/*@Nullable*/ V get(Object key) {
+			int h = hash(key);
+			Node<V> n = this;
+			for (int shift = 0; ; shift += 5) {
+				int bit = 1 << ((h >>> shift) & 31);
+				if ((n.bitmap & bit) == 0) return null;
+				Object o = n.slots[Integer.bitCount(n.bitmap & (bit-1))];
+				if (o instanceof Node) {
+					n = (Node<V>)o;
+					continue;
+				}
+				for (Leaf<V> leaf = (Leaf<V>)o; leaf != null; leaf = leaf.next) {
+					if (leaf.hash == h && leaf.key.equals(key)) return leaf.value;
+				}
+				return null;
+			}
+		}
+		
+		/** Returns a trie that is this one with the given key mapped to the given value */
+		Node<V> put(Object key, V value) {
+			int h = hash(key);
+			return put(new Leaf<V>(h,key,value,null),0);
+		}
+		
+		@SuppressWarnings("unchecked")
+		private Node<V> put(Leaf<V> nleaf, int shift) {
+			int bit = 1 << ((nleaf.hash >>> shift) & 31);
+			int i = Integer.bitCount(bitmap & (bit-1));
+			if ((bitmap & bit) == 0) {
+				Object[] nslots = new Object[slots.length+1];
+				System.arraycopy(slots,0,nslots,0,i);
+				nslots[i] = nleaf;
+				System.arraycopy(slots,i,nslots,i+1,slots.length-i);
+				return new Node<V>(bitmap|bit,nslots);
+			}
+			Object o = slots[i];
+			Object replacement;
+			if (o instanceof Node) {
+				replacement = ((Node<V>)o).put(nleaf,shift+5);
+			} else {
+				Leaf<V> leaf = (Leaf<V>)o;
+				if (leaf.hash == nleaf.hash) {
+					replacement = replace(leaf,nleaf);
+				} else {
+					replacement = split(leaf,nleaf,shift+5);
+				}
+			}
+			Object[] nslots = slots.clone();
+			nslots[i] = replacement;
+			return new Node<V>(bitmap,nslots);
+		}
+		
+		/** Returns the chain of leaves (all with the same hash) with the new leaf
+		 * replacing the one with the same key, or added if there is none */
+		private static <V> Leaf<V> replace(/*@Nullable*/ Leaf<V> chain, Leaf<V> nleaf) {
+			if (chain == null) return nleaf;
+			if (chain.key.equals(nleaf.key)) return new Leaf<V>(nleaf.hash,nleaf.key,nleaf.value,chain.next);
+			return new Leaf<V>(chain.hash,chain.key,chain.value,replace(chain.next,nleaf));
+		}
+		
+		/** Returns a node holding two leaves with different hash codes */
+		private static <V> Node<V> split(Leaf<V> a, Leaf<V> b, int shift) {
+			int ia = (a.hash >>> shift) & 31;
+			int ib = (b.hash >>> shift) & 31;
+			if (ia == ib) return new Node<V>(1 << ia, new Object[]{ split(a,b,shift+5) });
+			return new Node<V>((1 << ia) | (1 << ib), ia < ib ? new Object[]{a,b} : new Object[]{b,a});
+		}
+	}
 	
 	/** An object that holds all the information about the defined symbol (or aliased definition). */
 	public static class Entry {
@@ -85,32 +254,25 @@ public class SymbolTable {
 	}
 	
 	/** An iterator over all of the Symbols in the symbol scope stack from the top-most scope
-	 * on down.
+	 * on down; within a scope, the most recently added entries come first.
 	 * @author David R. Cok
 	 */
 	public static class Iterator implements java.util.Iterator<Entry> {
-		private java.util.Iterator<Map<IIdentifier,Map<Integer,List<Entry>>>> stackIter;
-		private /*@Nullable*/ java.util.Iterator<Map<Integer,List<Entry>>> arityIter = null;
-		private /*@Nullable*/ java.util.Iterator<List<Entry>> symIter = null;
-		private /*@Nullable*/ java.util.Iterator<Entry> entryIter = null;
+		private /*@Nullable*/ Scope scope;
+		private /*@Nullable*/ Cell<Entry> cell;
 		
 		/** Constructs a new iterator, initialized at the beginning */
 		public Iterator(SymbolTable sym) {
-			stackIter = sym.symStack.iterator();
+			scope = sym.top;
+			cell = scope.entries;
 		}
 		
-		/*@AssertNonNullIfTrue({"symIter"})*/
+		/*@AssertNonNullIfTrue({"cell"})*/
 		@Override
 		public boolean hasNext() {
-			while (entryIter == null || !entryIter.hasNext()) {
-				while (symIter == null || !symIter.hasNext()) {
-					while (arityIter == null || !arityIter.hasNext()) {
-						if (!stackIter.hasNext()) return false;
-						arityIter = stackIter.next().values().iterator();
-					}
-					symIter = arityIter.next().values().iterator();
-				}
-				entryIter = symIter.next().iterator();
+			while (cell == null) {
+				if (scope == null || (scope = scope.outer) == null) return false;
+				cell = scope.entries;
 			}
 			return true;
 		}
@@ -118,7 +280,9 @@ public class SymbolTable {
 		@Override
 		public Entry next() {
 			if (!hasNext()) throw new NoSuchElementException();
-			return entryIter.next();
+			Entry e = cell.head;
+			cell = cell.tail;
+			return e;
 		}
 		
 		@Override
@@ -127,22 +291,84 @@ public class SymbolTable {
 		}
 	}
 	
+	/** The sorts of expressions already type-checked against this table, by identity; only
+	 * expressions whose sort does not depend on bound variables are recorded.  Since the sort
+	 * may depend on the declarations in scope, this is emptied whenever a scope is popped
+	 * or the contents of the table are replaced.
+	 */
+	final private Map<IExpr,ISort> checked = new IdentityHashMap<IExpr,ISort>();
+
+	/** Returns the recorded sort of an expression already type-checked, or null if there is none */
+	public /*@Nullable*/ ISort checkedSort(IExpr e) {
+		return checked.get(e);
+	}
+
+	/** Records the sort of a type-checked expression whose sort does not depend on bound variables */
+	public void addChecked(IExpr e, ISort s) {
+		checked.put(e,s);
+	}
+
+	/** Forgets the sorts of all type-checked expressions */
+	public void clearChecked() {
+		checked.clear();
+	}
+
 	/** Constructs an empty symbol table */
 	public SymbolTable(SMT.Configuration smtConfig) {
 		this.smtConfig = smtConfig;
 		clear();
 	}
 	
-	/** Makes a copy of the symbol table */
+	/** Makes a copy of the symbol table; since scopes are immutable, the copy 
+	 * shares them with the original, but changes to either table do not affect the other */
 	public SymbolTable(SymbolTable s) {
-		clear();
 		this.smtConfig = s.smtConfig;
-		sortStack = new LinkedList<Map<IIdentifier,ISort.IDefinition>>();
-		symStack = new LinkedList<Map<IIdentifier,Map<Integer,List<Entry>>>>();
-		sortStack.addAll(s.sortStack);
-		symStack.addAll(s.symStack);
-		names = symStack.get(0);
-		sorts = sortStack.get(0);
+		this.top = s.top;
+	}
+	
+	/** An immutable record of the contents of a symbol table (including the logic
+	 * in use and the theory flags), from which any number of tables may be 
+	 * initialized.
+	 */
+	public static final class Snapshot {
+		final private Scope top;
+		final private boolean arrayTheorySet;
+		final private boolean bitVectorTheorySet;
+		final private boolean realsIntsTheorySet;
+		final private /*@Nullable*/ ILogic logicInUse;
+		
+		private Snapshot(SymbolTable s) {
+			top = s.top;
+			arrayTheorySet = s.arrayTheorySet;
+			bitVectorTheorySet = s.bitVectorTheorySet;
+			realsIntsTheorySet = s.realsIntsTheorySet;
+			logicInUse = s.logicInUse;
+		}
+	}
+	
+	/** Returns a snapshot of the current contents of the table; this takes constant time */
+	public Snapshot snapshot() {
+		return new Snapshot(this);
+	}
+	
+	/** Replaces the contents of the table by those recorded in the snapshot; this takes 
+	 * constant time, and later changes to the table do not affect the snapshot */
+	public void restore(Snapshot s) {
+		checked.clear();
+		top = s.top;
+		arrayTheorySet = s.arrayTheorySet;
+		bitVectorTheorySet = s.bitVectorTheorySet;
+		realsIntsTheorySet = s.realsIntsTheorySet;
+		logicInUse = s.logicInUse;
+	}
+	
+	/** Returns true if the table is as left by clear(): an empty primary scope above
+	 * an empty background scope, with no logic set */
+	public boolean isEmpty() {
+		Scope b = top.outer;
+		return logicInUse == null && !arrayTheorySet && !bitVectorTheorySet && !realsIntsTheorySet
+				&& top.entries == null && top.sortDecls == null
+				&& b != null && b.outer == null && b.entries == null && b.sortDecls == null;
 	}
 	
 	/** Returns a fresh iterator over the symbol table's contents */
@@ -152,33 +378,40 @@ public class SymbolTable {
 	
 	/** Initializes the symbol table with an empty background frame and one empty frame. */
 	public void clear() {
-		sortStack = new LinkedList<Map<IIdentifier,ISort.IDefinition>>();
-		symStack = new LinkedList<Map<IIdentifier,Map<Integer,List<Entry>>>>();
-		push(); // an empty background frame
+		checked.clear();
+		top = new Scope(null,0,Node.<Binding>empty(),Node.<SortBinding>empty(),null,null); // an empty background frame
 		push(); // an empty primary frame
 	}
 
 	/** Adds a new empty frame on the top of the symbol table stack. */
 	public void push() {
-		sortStack.add(0,sorts=new HashMap<IIdentifier,ISort.IDefinition>());
-		symStack.add(0,names=new HashMap<IIdentifier,Map<Integer,List<Entry>>>());
+		top = new Scope(top,top.depth+1,top.symbols,top.sorts,null,null);
 	}
 	
 	/** Combines the top two symbol scopes, removing the current top scope; presumes that there
 	 * is no shadowing of symbols; the top sort scope is discarded.
 	 */ // TODO - say more about why this is used/needed; also review this
 	public void merge() {
-		Map<IIdentifier,Map<Integer,List<SymbolTable.Entry>>> oldnames = names;
-		pop();
-		// Put everything in oldnames into the current top
-		for (Map<Integer,List<SymbolTable.Entry>> e: oldnames.values()) {
-			for (List<SymbolTable.Entry> ee: e.values()) {
-				for (SymbolTable.Entry entry: ee) {
-					// We have already checked that there is no shadowing
-					add(entry);
-				}
-			}
-		}
+		Cell<Entry> oldentries = top.entries;
+		popScope(); // the sorts checked in the top scope remain valid
+		// Put everything in the old top scope into the current top, in the order added;
+		// we have already checked that there is no shadowing
+		addAll(oldentries);
+	}
+	
+	/** Adds the entries in the list to the top scope, last one first */
+	private void addAll(/*@Nullable*/ Cell<Entry> entries) {
+		// A loop rather than recursion, since a scope may hold very many entries
+		List<Entry> list = new ArrayList<Entry>();
+		for (Cell<Entry> c = entries; c != null; c = c.tail) list.add(c.head);
+		for (int i = list.size()-1; i >= 0; i--) add(list.get(i));
+	}
+	
+	/** Adds the sort bindings in the list to the top scope, last one first */
+	private void addAllSorts(/*@Nullable*/ Cell<SortBinding> decls) {
+		List<SortBinding> list = new ArrayList<SortBinding>();
+		for (Cell<SortBinding> c = decls; c != null; c = c.tail) list.add(c.head);
+		for (int i = list.size()-1; i >= 0; i--) putSort(list.get(i).name,list.get(i).definition);
 	}
 	
 	/** Removes the top frame from the symbol table stack. 
@@ -186,27 +419,50 @@ public class SymbolTable {
 	 * InternalException will be thrown.
 	 */
 	public void pop() {
-		// The comparison is <= 1 since there is always also the background scope
-		if (symStack.size() <= 1) {
+		popScope();
+		checked.clear();
+	}
+
+	/** Removes the top scope */
+	private void popScope() {
+		// The background scope is never popped
+		if (top.outer == null) {
 			// We throw an InternalException (that is, a bug), since pop should not be called if
 			// there are no scopes to pop.
 			throw new SMT.InternalException("Invalid pop - no more symbol table scopes to pop");
 		}
-		sortStack.remove(0);
-		symStack.remove(0);
-		sorts = sortStack.get(0);
-		names = symStack.get(0);
+		top = top.outer;
 	}
 	
 	/** Removes the previous background frame, then removes the top frame and 
 	 * inserts it as the bottom (background) frame. */
 	public void moveToBackground() {
-		sortStack.remove(sortStack.size()-1);
-		symStack.remove(symStack.size()-1);
-		sortStack.add(sortStack.remove(0));
-		symStack.add(symStack.remove(0));
-		names = symStack.get(0);
-		sorts = sortStack.get(0);
+		checked.clear();
+		// This reorders the scopes, so the tries are rebuilt from the 
+		// declarations recorded in each scope; it is only done when a logic is set.
+		List<Scope> scopes = new LinkedList<Scope>(); // bottom-most first
+		for (Scope s = top.outer; s != null && s.outer != null; s = s.outer) scopes.add(0,s);
+		scopes.add(0,top);
+		top = null;
+		for (Scope s: scopes) {
+			if (top == null) top = new Scope(null,0,Node.<Binding>empty(),Node.<SortBinding>empty(),null,null);
+			else push();
+			addAllSorts(s.sortDecls);
+			addAll(s.entries);
+		}
+	}
+	
+	/** Binds a sort name in the top scope */
+	private void putSort(IIdentifier name, ISort.IDefinition def) {
+		SortBinding b = new SortBinding(top.depth,name,def);
+		top = new Scope(top.outer,top.depth,top.symbols,top.sorts.put(name,b),
+				top.entries,new Cell<SortBinding>(b,top.sortDecls));
+	}
+	
+	/** Returns the sort definition with the given name in the top scope, or null if none */
+	private /*@Nullable*/ ISort.IDefinition topSort(IIdentifier name) {
+		SortBinding b = top.sorts.get(name);
+		return b != null && b.depth == top.depth ? b.definition : null;
 	}
 	
 	/** Adds the given symbol as a sort to the top scope of the sort table; 
@@ -216,10 +472,9 @@ public class SymbolTable {
 	 * @return true if successfully added, false if already present
 	 */
 	public boolean addSortParameter(ISymbol symbol) {
-		ISort.IDefinition previous = sorts.put(symbol, smtConfig.sortFactory.createSortParameter(symbol));
-		if (previous == null) return true;
-		sorts.put(symbol, previous);
-		return false;
+		if (topSort(symbol) != null) return false;
+		putSort(symbol, smtConfig.sortFactory.createSortParameter(symbol));
+		return true;
 	}
 	
 	/** Adds a new sort declaration to the top frame
@@ -235,7 +490,7 @@ public class SymbolTable {
 		if (s != null) return false;
 		
 		ISort.IDefinition def = smtConfig.sortFactory.createSortFamily(identifier,arity);
-		sorts.put(identifier, def);
+		putSort(identifier, def);
 		return true;
 	}
 	
@@ -248,9 +503,9 @@ public class SymbolTable {
 	 * this name in the top scope
 	 */ // FIXME - why is this only the top scope and the previous call is any scope?
 	public boolean addSortDefinition(IIdentifier identifier, List<IParameter> parameters, ISort definition) {
-		ISort.IDefinition s = sorts.get(identifier);
+		ISort.IDefinition s = topSort(identifier);
 		if (s != null) return false;
-		sorts.put(identifier, smtConfig.sortFactory.createSortAbbreviation(identifier,parameters,definition));
+		putSort(identifier, smtConfig.sortFactory.createSortAbbreviation(identifier,parameters,definition));
 		return true;
 	}
 	
@@ -261,10 +516,8 @@ public class SymbolTable {
 	 */
 	/*@Nullable*/
 	public ISort.IDefinition lookupSort(IIdentifier name) {
-		for (Map<IIdentifier,ISort.IDefinition> set: sortStack) {
-			ISort.IDefinition s = set.get(name);
-			if (s != null) return s;
-		}
+		SortBinding b = top.sorts.get(name);
+		if (b != null) return b.definition;
 		
 		// FIXME _ improve so this is not hard coded
 		if (name instanceof IParameterizedIdentifier) {
@@ -279,7 +532,7 @@ public class SymbolTable {
 					return new ISort.ErrorDefinition(name,"A bit-vector sort must have a length of at least 1",pf.numerals().get(0).pos());
 				}
 				ISort.IDefinition def = smtConfig.sortFactory.createSortFamily(name,smtConfig.exprFactory.numeral(0));
-				sorts.put(name, def);
+				putSort(name, def);
 				return def;
 			}
 		}
@@ -294,12 +547,15 @@ public class SymbolTable {
 	 */
 	/*@Nullable*/
 	public IFcnSort lookup(int arity, IIdentifier name) {
-		for (Map<IIdentifier,Map<Integer,List<Entry>>> set: symStack) {
-			Map<Integer,List<Entry>> arityMap = set.get(name);
-			if (arityMap != null) {
-				List<Entry> entrylist = arityMap.get(arity);
-				if (entrylist != null && entrylist.size() > 0) return entrylist.get(0).sort;
-			}
+		// If the top-most scope that declares the name has no entry of the given arity, the
+		// scopes beneath it are consulted in turn
+		Scope s = top;
+		while (s != null) {
+			Binding b = s.symbols.get(name);
+			if (b == null) return null;
+			List<Entry> entrylist = b.arities.get(arity);
+			if (entrylist != null && entrylist.size() > 0) return entrylist.get(0).sort;
+			while (s != null && s.depth >= b.depth) s = s.outer;
 		}
 		return null;
 	}
@@ -310,11 +566,8 @@ public class SymbolTable {
 	 * top-most scope in which the identifier is found
 	 */
 	public /*@Nullable*/ Map<Integer,List<Entry>> lookup(IIdentifier name) {
-		for (Map<IIdentifier,Map<Integer,List<Entry>>> set: symStack) {
-			Map<Integer,List<Entry>> arityMap = set.get(name);
-			if (arityMap != null) return arityMap;
-		}
-		return null;
+		Binding b = top.symbols.get(name);
+		return b == null ? null : b.arities;
 	}
 	
 	// FIXME - review
@@ -331,87 +584,86 @@ public class SymbolTable {
 		Entry found = null;
 		boolean foundMatchButNotOnResult = false;
 		int arity = argSorts.size();
-		for (Map<IIdentifier,Map<Integer,List<Entry>>> set: symStack) {
-			Map<Integer,List<Entry>> arityMap = set.get(name);
-			if (arityMap != null) {
-				// We have a name match
-				// First check for an exact match on arity
-				List<Entry> entrylist = arityMap.get(arity);
-				if (entrylist != null) for (Entry entry: entrylist) {
-					java.util.Iterator<ISort> actuals = argSorts.iterator();
-					java.util.Iterator<ISort> defs = Arrays.asList(entry.sort.argSorts()).iterator();
-					while (actuals.hasNext() && defs.hasNext()) {
-						if (!defs.next().equals(actuals.next())) { entry = null; break; }
-					}
-					// Cases to consider
-					//   resultSort != null & just one argument sort match -> error - not supposed to use a qualifier
-					//   resultSort != null & multiple argument sort matches -> pick the one that matches on result sort
-					//   resultSort == null & and just one argument sort match -> return it
-					//   resultSort == null & multiple argument sort matches -> ambiguous
-						
-					if (entry != null) {
-						// Have a match on the arguments, so check for a match on the result
-						if (resultSort != null) {
-							if (resultSort.equals(entry.sort.resultSort())) {
-								if (found != null) {
-									// FIXME - there appear to be two entries that match on all arguments and the result
-									return null;
-								} else {
-									found = entry;
-								}
-							} else {
-								foundMatchButNotOnResult = true;
-							}
-						} else {
-							// No result sort specified - there should not be any overloading
+		Binding b = top.symbols.get(name);
+		if (b != null) {
+			Map<Integer,List<Entry>> arityMap = b.arities;
+			// We have a name match
+			// First check for an exact match on arity
+			List<Entry> entrylist = arityMap.get(arity);
+			if (entrylist != null) for (Entry entry: entrylist) {
+				java.util.Iterator<ISort> actuals = argSorts.iterator();
+				java.util.Iterator<ISort> defs = Arrays.asList(entry.sort.argSorts()).iterator();
+				while (actuals.hasNext() && defs.hasNext()) {
+					if (!defs.next().equals(actuals.next())) { entry = null; break; }
+				}
+				// Cases to consider
+				//   resultSort != null & just one argument sort match -> error - not supposed to use a qualifier
+				//   resultSort != null & multiple argument sort matches -> pick the one that matches on result sort
+				//   resultSort == null & and just one argument sort match -> return it
+				//   resultSort == null & multiple argument sort matches -> ambiguous
+					
+				if (entry != null) {
+					// Have a match on the arguments, so check for a match on the result
+					if (resultSort != null) {
+						if (resultSort.equals(entry.sort.resultSort())) {
 							if (found != null) {
-								// Found something previously and now have this match - so ambiguous
-								// FIXME - no place to give an error message that the result sort is ambiguous
+								// FIXME - there appear to be two entries that match on all arguments and the result
 								return null;
+							} else {
+								found = entry;
 							}
-							found = entry;
-							// Otherwise have just one match - keep checking the rest of the list
+						} else {
+							foundMatchButNotOnResult = true;
 						}
+					} else {
+						// No result sort specified - there should not be any overloading
+						if (found != null) {
+							// Found something previously and now have this match - so ambiguous
+							// FIXME - no place to give an error message that the result sort is ambiguous
+							return null;
+						}
+						found = entry;
+						// Otherwise have just one match - keep checking the rest of the list
 					}
 				}
-				if (resultSort != null && found != null && !foundMatchButNotOnResult) {
-					// FIXME - should report unneeded disambiguation
-					return null;
-				}
-				if (found != null) return found;
-				
-					// Check for left-assoc etc.
-				if (argSorts.size() <= 2) return null;
-				entrylist = arityMap.get(2);
-				if (entrylist != null) outer: for (Entry entry: entrylist) {
-					ISort left = entry.sort.argSorts()[0];
-					ISort right = entry.sort.argSorts()[1];
-					java.util.Iterator<ISort> actuals = argSorts.iterator();
-					if (hasAttribute(entry,":left-assoc")) {
-						if (!actuals.next().equals(left)) continue;
-						while (actuals.hasNext()) {
-							if (!actuals.next().equals(right)) continue outer;
-						}
-					} else if (hasAttribute(entry,":right-assoc")) {
+			}
+			if (resultSort != null && found != null && !foundMatchButNotOnResult) {
+				// FIXME - should report unneeded disambiguation
+				return null;
+			}
+			if (found != null) return found;
+			
+				// Check for left-assoc etc.
+			if (argSorts.size() <= 2) return null;
+			entrylist = arityMap.get(2);
+			if (entrylist != null) outer: for (Entry entry: entrylist) {
+				ISort left = entry.sort.argSorts()[0];
+				ISort right = entry.sort.argSorts()[1];
+				java.util.Iterator<ISort> actuals = argSorts.iterator();
+				if (hasAttribute(entry,":left-assoc")) {
+					if (!actuals.next().equals(left)) continue;
+					while (actuals.hasNext()) {
+						if (!actuals.next().equals(right)) continue outer;
+					}
+				} else if (hasAttribute(entry,":right-assoc")) {
+					ISort sort = actuals.next();
+					while (actuals.hasNext()) {
+						if (!sort.equals(left)) continue outer;
+						sort = actuals.next();
+					}
+					if (!sort.equals(right)) continue;
+				} else if (hasAttribute(entry,":chainable") || hasAttribute(entry,":pairwise")) {
+					while (actuals.hasNext()) {
 						ISort sort = actuals.next();
-						while (actuals.hasNext()) {
-							if (!sort.equals(left)) continue outer;
-							sort = actuals.next();
-						}
-						if (!sort.equals(right)) continue;
-					} else if (hasAttribute(entry,":chainable") || hasAttribute(entry,":pairwise")) {
-						while (actuals.hasNext()) {
-							ISort sort = actuals.next();
-							if (!sort.equals(left)) continue outer;
-						}
-					} else {
-						// None of the attributes apply
-						continue;
+						if (!sort.equals(left)) continue outer;
 					}
-					return entry;
+				} else {
+					// None of the attributes apply
+					continue;
 				}
-				return null;
+				return entry;
 			}
+			return null;
 		}
 		return null;
 	}
@@ -429,17 +681,20 @@ public class SymbolTable {
 	 */
 	public void add(Entry entry) {
 
-		Map<Integer,List<Entry>> arityMap = names.get(entry.name);
-		if (arityMap == null) {
-			arityMap = new HashMap<Integer,List<Entry>>();
-			names.put(entry.name,arityMap);
-		}
-		List<Entry> entrylist = arityMap.get(entry.sort.argSorts().length);
-		if (entrylist == null) {
-				entrylist = new LinkedList<Entry>();
-				arityMap.put(entry.sort.argSorts().length,entrylist);
-		}
+		// The binding in the top scope is copied rather than changed, since 
+		// other (earlier or copied) tables may share it
+		int arity = entry.sort.argSorts().length;
+		Binding b = top.symbols.get(entry.name);
+		Map<Integer,List<Entry>> arityMap = new HashMap<Integer,List<Entry>>();
+		if (b != null && b.depth == top.depth) arityMap.putAll(b.arities);
+		List<Entry> entrylist = new ArrayList<Entry>();
+		List<Entry> old = arityMap.get(arity);
+		if (old != null) entrylist.addAll(old);
 		entrylist.add(entry);
+		arityMap.put(arity,Collections.unmodifiableList(entrylist));
+		b = new Binding(top.depth,Collections.unmodifiableMap(arityMap));
+		top = new Scope(top.outer,top.depth,top.symbols.put(entry.name,b),top.sorts,
+				new Cell<Entry>(entry,top.entries),top.sortDecls);
 	}
 	
 	/** Adds the given entry to the symbol table; if overload is false and the 
@@ -454,10 +709,8 @@ public class SymbolTable {
 		// Check if the entry is already present in any scope;
 		// return false if it is.  Allow overloading if the second argument is true.
 		if (!overload) {
-			for (Map<IIdentifier,Map<Integer,List<Entry>>> set: symStack) {
-				if (set.get(entry.name) != null) {
-					return false;
-				}
+			if (top.symbols.get(entry.name) != null) {
+				return false;
 			}
 		}
 		// Symbol is not present or overloading is allowed, so add it
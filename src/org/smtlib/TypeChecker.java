@@ -7,6 +7,8 @@ package org.smtlib;
 // FIXME- NEEDS REVIEW; use an interface?
 
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -32,6 +34,13 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 	
 	private ISymbol isClosed = null;
 
+	/** The number of references to bound variables, and of attributed expressions, checked so
+	 * far; an expression during whose checking this does not change has a sort that depends only
+	 * on the symbol table, and so is recorded there (cf. SymbolTable.checkedSort).  Sorts are
+	 * recorded only if the expression factory hash-conses terms, since otherwise the parser
+	 * does not produce expressions that share subterms. */
+	private int scoped = 0;
+
 	/** Constructs a formula typechecker from the current
 	 * symbol table and type map
 	 */
@@ -160,6 +169,7 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 
 	/** The main entry point for type-checking an IExpr (expected to be a Bool)*/
 	public static List<IResponse> check(SymbolTable symTable, IExpr expr) {
+		long time = System.nanoTime();
 		TypeChecker f = new TypeChecker(symTable,null);
 		try {
 			ISort topsort = expr.accept(f);
@@ -176,11 +186,13 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 		} catch (Exception e) {
 			f.error("INTERNAL ERROR: Exception while checking sort abbreviation: " + e.getMessage(),expr.pos());
 		}
+		recordTime(symTable,time);
 		return f.result;
 	}
 	
 	/** The main entry point for type-checking an IExpr (expected to be a Bool)*/
 	public static List<IResponse> check(SymbolTable symTable, IExpr expr, Map<IExpr,ISort> typemap) {
+		long time = System.nanoTime();
 		TypeChecker f = new TypeChecker(symTable,typemap);
 		symTable.push();
 		try {
@@ -201,10 +213,12 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 		} finally {
 			if (!f.result.isEmpty()) symTable.pop();
 		}
+		recordTime(symTable,time);
 		return f.result;
 	}
 
 	public static List<IResponse> check(SymbolTable symTable, IExpr expr, Map<IExpr,ISort> typemap, List<IExpr.IDeclaration> decls) {
+		long time = System.nanoTime();
 		TypeChecker f = new TypeChecker(symTable,typemap);
 		try {
 			for (IExpr.IDeclaration d: decls) {
@@ -224,9 +238,16 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 		} catch (Exception e) {
 			f.error("INTERNAL ERROR: Exception while checking sort abbreviation: " + e.getMessage(),expr.pos());
 		}
+		recordTime(symTable,time);
 		return f.result;
 	}
 
+	/** Records the time taken by a type-check that started at the given time, if statistics are being collected */
+	static private void recordTime(SymbolTable symTable, long time) {
+		Statistics stats = symTable.smtConfig.statistics;
+		if (stats != null) stats.typecheck.record(System.nanoTime() - time);
+	}
+
 	public /*@Nullable*/ ISort save(/*@NonNull*/IExpr e, /*@Nullable*/ISort s) {
 		if (typemap != null) typemap.put(e,s);
 		return s;
@@ -241,26 +262,13 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 
 	@Override
 	public /*@Nullable*/ ISort visit(IFcnExpr e) throws IVisitor.VisitorException {
-		if (e.args().size() == 0) {
-			// Error message already given on parsing
-			// but we'll defensively program
-			error("Unexpected function with no arguments: " + pr(e.head()),e.pos());
-			return null; 
-		}
-
-		// Type check all the arguments
-		boolean anyErrors = false;
-		List<ISort> argSorts = new LinkedList<ISort>();
-		java.util.Iterator<IExpr> iter = e.args().iterator();
-		while (iter.hasNext()) {
-			IExpr sx = iter.next();
-			ISort argSort = sx.accept(this);
-			anyErrors = anyErrors || (argSort == null);
-			if (argSort != null) argSorts.add(argSort); 
-		}
-		if (anyErrors) return null;
+		return check(e);
+	}
 
-		// Now lookup the head in the context of these arguments
+	/** Returns the sort of a function application whose arguments have the given sorts (which
+	 * have been checked without errors), or null if there are errors */
+	protected /*@Nullable*/ ISort fcnSort(IFcnExpr e, List<ISort> argSorts) throws IVisitor.VisitorException {
+		// Lookup the head in the context of these arguments
 		IQualifiedIdentifier qhead = e.head();
 		IIdentifier head;
 		ISort resultSort = null;
@@ -635,6 +643,7 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 		} else {
 			Variable v = currentScope.get(e);
 			if (v != null) {
+				scoped++;
 				if (isClosed == null && v.expression == null) isClosed = e; // FIXME - need to check if v.expression is closed or not
 				return save(e,v.sort);
 			}
@@ -733,36 +742,7 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 
 	@Override
 	public /*@Nullable*/ ISort visit(IAttributedExpr e) throws IVisitor.VisitorException {
-		ISymbol savedIsClosed = isClosed;
-		isClosed = null;
-		boolean errors = false;
-		ISort resultSort = null;
-		try {
-			resultSort = save(e,e.expr().accept(this));
-			for (IAttribute<?> a: e.attributes()) {
-				if (a.keyword().value().equals(":named")) { // FIXME - use a canonical representation
-					IAttributeValue v = a.attrValue();
-					if (!(v instanceof ISymbol)) {
-						result.add(smtConfig.responseFactory.error("Expected a symbol after :named",v==null?a.keyword().pos():v.pos()));
-						errors = true;
-					}
-					ISort.IFcnSort fcnSort = smtConfig.sortFactory.createFcnSort(new ISort[0],resultSort);
-					SymbolTable.Entry entry = new SymbolTable.Entry((ISymbol)v,fcnSort,null);
-					if (!symTable.add(entry,false)) { 
-						result.add(smtConfig.responseFactory.error("Symbol " + v.toString() + " is already defined",v.pos())); // FIXME - encode name
-						errors = true;
-					}
-					if (isClosed != null) {
-						result.add(smtConfig.responseFactory.error("The expression being named is not closed - this symbol is a variable: " + smtConfig.defaultPrinter.toString(isClosed),isClosed.pos()));
-						errors = true;
-					}
-				}
-			}
-		} finally {
-			isClosed = isClosed == null ? savedIsClosed : isClosed;
-		}
-		if (errors) return null;
-		return resultSort;
+		return check(e);
 	}
 
 	protected Map<ISymbol,Variable> currentScope = new HashMap<ISymbol,Variable>();
@@ -770,67 +750,212 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 
 	@Override
 	public /*@Nullable*/ ISort visit(IForall e) throws IVisitor.VisitorException {
-		Map<ISymbol,Variable> saved = new HashMap<ISymbol,Variable>();
-		saved.putAll(currentScope);
-		parameters.add(0,saved);
-		boolean errors = false;
-		for (IExpr.IDeclaration decl : e.parameters()) {
-			ISort res = decl.sort().accept(this);
-			if (res == null) errors = true;
-			else currentScope.put(decl.parameter(),new Variable(decl.parameter(),decl.sort(),null));
-		}
-		try {
-			if (errors) return null;
-			ISort s = e.expr().accept(this);
-			return save(e,s);
-		} finally {
-			currentScope = parameters.remove(0);
-		}
+		return check(e);
 	}
 
 	@Override
 	public /*@Nullable*/ ISort visit(IExists e) throws IVisitor.VisitorException {
-		Map<ISymbol,Variable> saved = new HashMap<ISymbol,Variable>();
-		saved.putAll(currentScope);
-		parameters.add(0,saved);
-		boolean errors = false;
-		for (IExpr.IDeclaration decl : e.parameters()) {
-			ISort res = decl.sort().accept(this);
-			if (res == null) errors = true;
-			else currentScope.put(decl.parameter(),new Variable(decl.parameter(),decl.sort(),null));
-		}
-		try {
-			if (errors) return null;
-			ISort s = e.expr().accept(this);
-			return save(e,s);
-		} finally {
-			currentScope = parameters.remove(0);
-		}
+		return check(e);
 	}
 
 	@Override
 	public /*@Nullable*/ ISort visit(ILet e) throws IVisitor.VisitorException {
-		Map<ISymbol,Variable> newdecls = new HashMap<ISymbol,Variable>();
-		Map<ISymbol,Variable> saved = new HashMap<ISymbol,Variable>();
-		saved.putAll(currentScope);
-		parameters.add(0,saved);
+		return check(e);
+	}
+
+	/** Type checks a compound expression (function application, binder or attributed
+	 * expression), using an explicit stack for its compound sub-expressions so that
+	 * arbitrarily deep expressions can be checked; if an exception is thrown, the scope
+	 * is restored to that in effect before the call.
+	 */
+	protected /*@Nullable*/ ISort check(IExpr e) throws IVisitor.VisitorException {
+		ISort checked = checkedSort(e);
+		if (checked != null) return checked;
+		int depth = parameters.size();
+		Map<ISymbol,Variable> scope = currentScope;
+		ISymbol savedIsClosed = isClosed;
+		boolean done = false;
 		try {
-			boolean anyErrors = false;
-			for (IExpr.IBinding decl : e.bindings()) {
-				IExpr expr = decl.expr();
-				ISort s = expr.accept(this);
-				if (s == null) anyErrors = true;
-				else {
-					newdecls.put(decl.parameter(),new Variable(decl.parameter(),s,expr));
+			ISort s = new Checker().traverse(e);
+			done = true;
+			return s;
+		} finally {
+			if (!done) {
+				while (parameters.size() > depth) parameters.remove(0);
+				currentScope = scope;
+				isClosed = isClosed == null ? savedIsClosed : isClosed;
+			}
+		}
+	}
+
+	/** Returns the sort recorded in the symbol table for an expression already checked, or null if
+	 * it must be checked (as it must if it is not in the type map being filled in) */
+	protected /*@Nullable*/ ISort checkedSort(IExpr e) {
+		if (!(e instanceof IFcnExpr)) return null;
+		ISort s = symTable.checkedSort(e);
+		if (s != null && typemap != null && !typemap.containsKey(e)) return null;
+		return s;
+	}
+
+	/** The variables bound by a let whose bindings are being checked */
+	static private class LetScope {
+		final java.util.Iterator<IBinding> bindings;
+		final Map<ISymbol,Variable> newdecls = new HashMap<ISymbol,Variable>();
+		boolean anyErrors = false;
+
+		LetScope(ILet e) {
+			bindings = e.bindings().iterator();
+		}
+	}
+
+	/** The traversal used by check(IExpr); children() does the work of a compound expression
+	 * that precedes checking its sub-expressions, next() handles the bindings of a let, and
+	 * finish() combines the results. */
+	protected class Checker extends IVisitor.PostOrder</*@Nullable*/ ISort> {
+
+		/** The lets whose bindings or body are being checked, innermost last */
+		final private List<LetScope> lets = new ArrayList<LetScope>();
+
+		/** The values of isClosed outside the attributed expressions being checked, innermost last */
+		final private List<ISymbol> closed = new ArrayList<ISymbol>();
+
+		/** The values of 'scoped' before the compound expressions being checked, innermost last */
+		final private List<Integer> marks = new ArrayList<Integer>();
+
+		@Override
+		protected /*@Nullable*/ List<? extends IExpr> children(IExpr e) throws IVisitor.VisitorException {
+			List<? extends IExpr> list = start(e);
+			if (list != null) marks.add(scoped);
+			if (e instanceof IAttributedExpr) scoped++; // its :named attributes are checked every time
+			return list;
+		}
+
+		/** Does the work of a compound expression that precedes checking its sub-expressions */
+		private /*@Nullable*/ List<? extends IExpr> start(IExpr e) throws IVisitor.VisitorException {
+			if (e instanceof IFcnExpr) {
+				if (checkedSort(e) != null) return null;
+				return ((IFcnExpr)e).args();
+			} else if (e instanceof IForall || e instanceof IExists) {
+				List<IDeclaration> decls = e instanceof IForall ? ((IForall)e).parameters() : ((IExists)e).parameters();
+				Map<ISymbol,Variable> saved = new HashMap<ISymbol,Variable>();
+				saved.putAll(currentScope);
+				parameters.add(0,saved);
+				boolean errors = false;
+				for (IExpr.IDeclaration decl : decls) {
+					ISort res = decl.sort().accept(TypeChecker.this);
+					if (res == null) errors = true;
+					else currentScope.put(decl.parameter(),new Variable(decl.parameter(),decl.sort(),null));
 				}
+				if (errors) return Collections.<IExpr>emptyList();
+				return Collections.singletonList(e instanceof IForall ? ((IForall)e).expr() : ((IExists)e).expr());
+			} else if (e instanceof ILet) {
+				ILet let = (ILet)e;
+				Map<ISymbol,Variable> saved = new HashMap<ISymbol,Variable>();
+				saved.putAll(currentScope);
+				parameters.add(0,saved);
+				lets.add(new LetScope(let));
+				List<IExpr> list = new ArrayList<IExpr>(let.bindings().size()+1);
+				for (IBinding b: let.bindings()) list.add(b.expr());
+				list.add(let.expr());
+				return list;
+			} else if (e instanceof IAttributedExpr) {
+				closed.add(isClosed);
+				isClosed = null;
+				return Collections.singletonList(((IAttributedExpr)e).expr());
 			}
-			if (anyErrors) return null;
-			currentScope.putAll(newdecls);
-			ISort s = e.expr().accept(this);
-			return save(e,s);
-		} finally {
-			currentScope = parameters.remove(0);
+			return null;
+		}
+
+		@Override
+		protected /*@Nullable*/ ISort leaf(IExpr e) throws IVisitor.VisitorException {
+			ISort checked = checkedSort(e);
+			if (checked != null) return checked;
+			return e.accept(TypeChecker.this);
+		}
+
+		@Override
+		protected boolean next(IExpr e, int i, /*@Nullable*/ ISort s) throws IVisitor.VisitorException {
+			if (!(e instanceof ILet)) return true;
+			int n = ((ILet)e).bindings().size();
+			if (i >= n) return true;
+			LetScope let = lets.get(lets.size()-1);
+			IBinding decl = let.bindings.next();
+			if (s == null) let.anyErrors = true;
+			else let.newdecls.put(decl.parameter(),new Variable(decl.parameter(),s,decl.expr()));
+			if (i < n-1) return true;
+			if (let.anyErrors) return false;
+			currentScope.putAll(let.newdecls);
+			return true;
+		}
+
+		@Override
+		protected /*@Nullable*/ ISort finish(IExpr e, List</*@Nullable*/ ISort> results) throws IVisitor.VisitorException {
+			int mark = marks.remove(marks.size()-1);
+			ISort s = end(e,results);
+			if (s != null && mark == scoped && e instanceof IFcnExpr && smtConfig.hashCons) symTable.addChecked(e,s);
+			return s;
 		}
+
+		/** Returns the sort of a compound expression, given the sorts of its sub-expressions */
+		private /*@Nullable*/ ISort end(IExpr e, List</*@Nullable*/ ISort> results) throws IVisitor.VisitorException {
+			if (e instanceof IFcnExpr) {
+				if (results.isEmpty()) {
+					// Error message already given on parsing
+					// but we'll defensively program
+					error("Unexpected function with no arguments: " + pr(((IFcnExpr)e).head()),e.pos());
+					return null;
+				}
+				List<ISort> argSorts = new LinkedList<ISort>();
+				for (ISort argSort: results) {
+					if (argSort == null) return null;
+					argSorts.add(argSort);
+				}
+				return fcnSort((IFcnExpr)e,argSorts);
+			} else if (e instanceof IForall || e instanceof IExists) {
+				currentScope = parameters.remove(0);
+				if (results.isEmpty()) return null;
+				return save(e,results.get(0));
+			} else if (e instanceof ILet) {
+				currentScope = parameters.remove(0);
+				lets.remove(lets.size()-1);
+				if (results.size() <= ((ILet)e).bindings().size()) return null;
+				return save(e,results.get(results.size()-1));
+			} else {
+				ISymbol savedIsClosed = closed.remove(closed.size()-1);
+				try {
+					return attributes((IAttributedExpr)e,results.get(0));
+				} finally {
+					isClosed = isClosed == null ? savedIsClosed : isClosed;
+				}
+			}
+		}
+	}
+
+	/** Checks the attributes of an attributed expression whose expression has the given sort */
+	private /*@Nullable*/ ISort attributes(IAttributedExpr e, /*@Nullable*/ ISort exprSort) {
+		boolean errors = false;
+		ISort resultSort = save(e,exprSort);
+		for (IAttribute<?> a: e.attributes()) {
+			if (a.keyword().value().equals(":named")) { // FIXME - use a canonical representation
+				IAttributeValue v = a.attrValue();
+				if (!(v instanceof ISymbol)) {
+					result.add(smtConfig.responseFactory.error("Expected a symbol after :named",v==null?a.keyword().pos():v.pos()));
+					errors = true;
+				}
+				ISort.IFcnSort fcnSort = smtConfig.sortFactory.createFcnSort(new ISort[0],resultSort);
+				SymbolTable.Entry entry = new SymbolTable.Entry((ISymbol)v,fcnSort,null);
+				if (!symTable.add(entry,false)) { 
+					result.add(smtConfig.responseFactory.error("Symbol " + v.toString() + " is already defined",v.pos())); // FIXME - encode name
+					errors = true;
+				}
+				if (isClosed != null) {
+					result.add(smtConfig.responseFactory.error("The expression being named is not closed - this symbol is a variable: " + smtConfig.defaultPrinter.toString(isClosed),isClosed.pos()));
+					errors = true;
+				}
+			}
+		}
+		if (errors) return null;
+		return resultSort;
 	}
 	
 	@Override
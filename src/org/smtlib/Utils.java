@@ -13,6 +13,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.smtlib.IExpr.IAttributeValue;
 import org.smtlib.IExpr.IKeyword;
@@ -463,6 +464,29 @@ public class Utils {
 		}
 	}
 
+	/** Parsed logic definitions, by cacheKey */
+	static final private Map<String,ILogic> parsedLogics = new ConcurrentHashMap<String,ILogic>();
+	
+	/** Parsed theory definitions, by cacheKey */
+	static final private Map<String,ITheory> parsedTheories = new ConcurrentHashMap<String,ITheory>();
+	
+	/** The contents of an otherwise empty symbol table into which a logic has been loaded, by cacheKey */
+	static final private Map<String,SymbolTable.Snapshot> loadedLogics = new ConcurrentHashMap<String,SymbolTable.Snapshot>();
+	
+	/** The key under which the definition of the given logic or theory, as found using
+	 * the current logic path, is cached */
+	protected String cacheKey(String name) {
+		return smtConfig.logicPath + java.io.File.pathSeparator + name;
+	}
+	
+	/** Discards all cached logic and theory definitions, as is needed if the definition
+	 * files change or SMT.logicFinder is replaced */
+	static public void clearLogicCache() {
+		parsedLogics.clear();
+		parsedTheories.clear();
+		loadedLogics.clear();
+	}
+
 	/**
 	 * Finds and loads a logic into the given symbol table
 	 * 
@@ -474,8 +498,19 @@ public class Utils {
 	 */
 	public/* @Nullable */IResponse loadLogic(String logicName,
 			SymbolTable symTable, /* @Nullable */IPos pos) {
-		ILogic sx = null; // = findLogic(logicName, smtConfig.logicPath, pos);
-		{
+		String key = cacheKey(logicName);
+		// The populated table is only reused (or recorded) if nothing else
+		// has been put into the table
+		boolean useLoaded = smtConfig.cacheLogics && symTable.isEmpty();
+		if (useLoaded) {
+			SymbolTable.Snapshot loaded = loadedLogics.get(key);
+			if (loaded != null) {
+				symTable.restore(loaded);
+				return null;
+			}
+		}
+		ILogic sx = smtConfig.cacheLogics ? parsedLogics.get(key) : null; // = findLogic(logicName, smtConfig.logicPath, pos);
+		if (sx == null) {
 			String name = logicName;
 			ISource source;
 			InputStream input = null;
@@ -491,7 +526,6 @@ public class Utils {
 				source = config.smtFactory.createSource(config, input, null);
 				IParser p = config.smtFactory.createParser(config, source);
 				sx = p.parseLogic();
-				symTable.logicInUse = sx;
 			} catch (IParser.ParserException e) {
 				return smtConfig.responseFactory.error(
 						"Failed to parse the logic file " + name + ": " + e,
@@ -525,8 +559,12 @@ public class Utils {
 							+ " is mal-formed (internal name does not match file name): "
 							+ sx.logicName().value(), sx.logicName().pos());
 		}
+		if (smtConfig.cacheLogics) parsedLogics.put(key, sx);
+		symTable.logicInUse = sx;
 
-		return loadLogic(sx, symTable);
+		IResponse res = loadLogic(sx, symTable);
+		if (res == null && useLoaded) loadedLogics.put(key, symTable.snapshot());
+		return res;
 	}
 
 	/**
@@ -540,11 +578,15 @@ public class Utils {
 	 */
 	public/* @Nullable */IResponse loadTheory(String theoryName,
 			SymbolTable symTable) {
-		ITheory th = null;
-		try {
-			th = findTheory(theoryName, smtConfig.logicPath);
-		} catch (SMTLIBException e) {
-			return e.errorResponse;
+		String key = cacheKey(theoryName);
+		ITheory th = smtConfig.cacheLogics ? parsedTheories.get(key) : null;
+		if (th == null) {
+			try {
+				th = findTheory(theoryName, smtConfig.logicPath);
+			} catch (SMTLIBException e) {
+				return e.errorResponse;
+			}
+			if (smtConfig.cacheLogics) parsedTheories.put(key, th);
 		}
 
 		// The second element should be the name of the logic, if specified
@@ -44,7 +44,7 @@ public class C_assert extends Command implements Iassert {
 	/** Writes out the command in S-expression syntax using the given printer */
 	public void write(Printer p) throws IOException, IVisitor.VisitorException {
 		p.writer().append("(" + commandName + " ");
-		formula.accept(p);
+		p.print(formula);
 		p.writer().append(")");
 	}
 
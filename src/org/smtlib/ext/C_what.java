@@ -84,6 +84,12 @@ public class C_what extends Command implements Iwhat {
 	@Override
 	public IResponse execute(ISolver solver) {
 		SMT.Configuration smtConfig = solver.smt();
+		// Look through the solvers that wrap another one (cf. --cache and --incremental)
+		while (true) {
+			if (solver instanceof CachingSolver) solver = ((CachingSolver)solver).solver();
+			else if (solver instanceof IncrementalSolver) solver = ((IncrementalSolver)solver).solver();
+			else break;
+		}
 		if (!(solver instanceof Solver_test)) {
 			return smtConfig.responseFactory.error("This kind of solver (" + solver.getClass() + ") is not able to execute a what command",null);
 		}
@@ -0,0 +1,325 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ */
+package org.smtlib.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.smtlib.IExpr;
+import org.smtlib.IExpr.IAsIdentifier;
+import org.smtlib.IExpr.IAttribute;
+import org.smtlib.IExpr.IAttributedExpr;
+import org.smtlib.IExpr.IBinding;
+import org.smtlib.IExpr.IDeclaration;
+import org.smtlib.IExpr.IExists;
+import org.smtlib.IExpr.IFcnExpr;
+import org.smtlib.IExpr.IForall;
+import org.smtlib.IExpr.ILet;
+import org.smtlib.IExpr.ISymbol;
+import org.smtlib.IPos.IPosable;
+import org.smtlib.ISort;
+import org.smtlib.IVisitor;
+
+/** This class rewrites an expression so that each function application that is referenced
+ * more than once in the expression - that is, a node of the expression's DAG with more than one
+ * parent - is bound to a new name by a let, and each reference replaced by that name.  Printing
+ * the rewritten expression then takes space proportional to the size of the DAG, rather than
+ * to the size of the (perhaps exponentially larger) tree.
+ * <P>
+ * Subterms are compared by identity; structurally equal subterms are shared only if they are
+ * the same node, as they are when the expression factory hash-conses terms (cf. HashConsingFactory).
+ * A subterm is not bound by a let if it mentions a symbol of the same name as a variable bound
+ * (by a quantifier or let) anywhere in the expression, so that the let, which is placed at the
+ * top of the expression, does not capture or separate a bound variable.  The let bindings are
+ * grouped into nested lets, each binding only terms that use names bound by enclosing lets.
+ * <P>
+ * The new names are _let0, _let1, ..., numbered consecutively over all the uses of one DagSharing
+ * object and chosen to differ from every symbol of the expression being rewritten.
+ */
+public class DagSharing {
+
+	/** The prefix of the new names */
+	final static public String PREFIX = "_let";
+
+	/** The factory used to create the rewritten expressions */
+	final protected IExpr.IFactory f;
+
+	/** The number of names created so far */
+	protected int count = 0;
+
+	/** The number of references to each node of the current expression */
+	private IdentityHashMap<IExpr,Integer> refs;
+
+	/** The result of pure(e) for nodes of the current expression */
+	private IdentityHashMap<IExpr,Boolean> pure;
+
+	/** The rewritten form of nodes of the current expression */
+	private IdentityHashMap<IExpr,IExpr> rewritten;
+
+	/** The highest let level of the names used in the rewritten form of each node */
+	private IdentityHashMap<IExpr,Integer> levels;
+
+	/** The names of the symbols of the current expression */
+	private Set<String> names;
+
+	/** The names of the variables bound in the current expression */
+	private Set<String> bound;
+
+	/** The bindings of the current expression; element k holds those for the let of level k+1 */
+	private List<List<IBinding>> bindings;
+
+	/** The sorts of the nodes of the current expression, or null if they are not being kept */
+	private /*@Nullable*/ Map<IExpr,ISort> typemap;
+
+	/** Creates an object that rewrites expressions using the given factory */
+	public DagSharing(IExpr.IFactory f) {
+		this.f = f;
+	}
+
+	/** Returns the argument rewritten with let bindings for its shared subterms, or the argument
+	 * itself if it has no shared subterms */
+	public IExpr share(IExpr e) {
+		return share(e,null);
+	}
+
+	/** Returns the argument rewritten with let bindings for its shared subterms, or the argument
+	 * itself if it has no shared subterms; if typemap is not null, the sorts of the new nodes (and
+	 * names) are added to it, being those of the nodes they replace.
+	 */
+	public IExpr share(IExpr e, /*@Nullable*/ Map<IExpr,ISort> typemap) {
+		refs = new IdentityHashMap<IExpr,Integer>();
+		pure = new IdentityHashMap<IExpr,Boolean>();
+		rewritten = new IdentityHashMap<IExpr,IExpr>();
+		levels = new IdentityHashMap<IExpr,Integer>();
+		names = new HashSet<String>();
+		bound = new HashSet<String>();
+		bindings = new ArrayList<List<IBinding>>();
+		this.typemap = typemap;
+		try {
+			count(e);
+			IExpr result = rewrite(e);
+			for (int k = bindings.size()-1; k >= 0; k--) {
+				result = copy(e, f.let(bindings.get(k),result));
+			}
+			return result;
+		} catch (IVisitor.VisitorException ex) {
+			throw new RuntimeException(ex); // Not thrown by these traversals
+		} finally {
+			refs = null; pure = null; rewritten = null; levels = null;
+			names = null; bound = null; bindings = null; this.typemap = null;
+		}
+	}
+
+	/** Counts the references to e and (on the first reference) to its subterms, and collects
+	 * the names of symbols and bound variables */
+	private void count(IExpr e) throws IVisitor.VisitorException {
+		new IVisitor.PostOrder<Void>() {
+			@Override
+			protected List<? extends IExpr> children(IExpr e) {
+				Integer n = refs.get(e);
+				refs.put(e, n == null ? 1 : n+1);
+				if (n != null) return Collections.<IExpr>emptyList();
+				if (e instanceof ISymbol) {
+					names.add(((ISymbol)e).value());
+				} else if (e instanceof IAsIdentifier) {
+					names.add(((IAsIdentifier)e).head().headSymbol().value());
+				} else if (e instanceof IFcnExpr) {
+					names.add(((IFcnExpr)e).head().headSymbol().value());
+					return ((IFcnExpr)e).args();
+				} else if (e instanceof IForall) {
+					for (IDeclaration d: ((IForall)e).parameters()) bound.add(d.parameter().value());
+					return Collections.singletonList(((IForall)e).expr());
+				} else if (e instanceof IExists) {
+					for (IDeclaration d: ((IExists)e).parameters()) bound.add(d.parameter().value());
+					return Collections.singletonList(((IExists)e).expr());
+				} else if (e instanceof ILet) {
+					List<IExpr> list = new ArrayList<IExpr>();
+					for (IBinding b: ((ILet)e).bindings()) {
+						bound.add(b.parameter().value());
+						list.add(b.expr());
+					}
+					list.add(((ILet)e).expr());
+					return list;
+				} else if (e instanceof IAttributedExpr) {
+					for (IAttribute<?> a: ((IAttributedExpr)e).attributes()) {
+						if (a.attrValue() instanceof ISymbol) names.add(((ISymbol)a.attrValue()).value());
+					}
+					return Collections.singletonList(((IAttributedExpr)e).expr());
+				}
+				return Collections.<IExpr>emptyList();
+			}
+			@Override
+			protected Void leaf(IExpr e) {
+				return null;
+			}
+			@Override
+			protected Void finish(IExpr e, List<Void> results) {
+				return null;
+			}
+		}.traverse(e);
+	}
+
+	/** Returns true if e mentions no symbol with the name of a bound variable (and is neither a
+	 * binder nor an attributed expression), so that it may be moved to the top of the expression */
+	private boolean pure(IExpr e) throws IVisitor.VisitorException {
+		return new IVisitor.PostOrder<Boolean>() {
+			@Override
+			protected /*@Nullable*/ List<? extends IExpr> children(IExpr e) {
+				return e instanceof IFcnExpr && !pure.containsKey(e) ? ((IFcnExpr)e).args() : null;
+			}
+			@Override
+			protected Boolean leaf(IExpr e) {
+				Boolean b = pure.get(e);
+				if (b != null) return b;
+				boolean result;
+				if (e instanceof ISymbol) {
+					result = !bound.contains(((ISymbol)e).value());
+				} else if (e instanceof IAsIdentifier) {
+					result = !bound.contains(((IAsIdentifier)e).head().headSymbol().value());
+				} else {
+					result = !(e instanceof IForall || e instanceof IExists || e instanceof ILet || e instanceof IAttributedExpr);
+				}
+				pure.put(e,result);
+				return result;
+			}
+			@Override
+			protected boolean next(IExpr e, int i, Boolean result) {
+				return result;
+			}
+			@Override
+			protected Boolean finish(IExpr e, List<Boolean> results) {
+				boolean result = !results.contains(Boolean.FALSE);
+				pure.put(e,result);
+				return result;
+			}
+		}.traverse(e);
+	}
+
+	/** Returns the rewritten form of e, binding its shared subterms to new names */
+	private IExpr rewrite(IExpr e) throws IVisitor.VisitorException {
+		return new IVisitor.PostOrder<IExpr>() {
+			@Override
+			protected /*@Nullable*/ List<? extends IExpr> children(IExpr e) {
+				if (rewritten.containsKey(e)) return null;
+				if (e instanceof IFcnExpr) {
+					return ((IFcnExpr)e).args();
+				} else if (e instanceof IForall) {
+					return Collections.singletonList(((IForall)e).expr());
+				} else if (e instanceof IExists) {
+					return Collections.singletonList(((IExists)e).expr());
+				} else if (e instanceof ILet) {
+					List<IExpr> list = new ArrayList<IExpr>();
+					for (IBinding b: ((ILet)e).bindings()) list.add(b.expr());
+					list.add(((ILet)e).expr());
+					return list;
+				} else if (e instanceof IAttributedExpr) {
+					return Collections.singletonList(((IAttributedExpr)e).expr());
+				}
+				return null;
+			}
+			@Override
+			protected IExpr leaf(IExpr e) {
+				IExpr r = rewritten.get(e);
+				if (r != null) return r;
+				rewritten.put(e,e);
+				levels.put(e,0);
+				return e;
+			}
+			@Override
+			protected IExpr finish(IExpr e, List<IExpr> results) throws IVisitor.VisitorException {
+				IExpr r = rewriteNode(e,results);
+				rewritten.put(e,r);
+				return r;
+			}
+		}.traverse(e);
+	}
+
+	/** Returns the rewritten form of the compound expression e, given the rewritten forms of its
+	 * sub-expressions, binding it to a new name if it is shared; records its level */
+	private IExpr rewriteNode(IExpr e, List<IExpr> subs) throws IVisitor.VisitorException {
+		IExpr r;
+		int level = 0;
+		if (e instanceof IFcnExpr) {
+			IFcnExpr fcn = (IFcnExpr)e;
+			boolean changed = false;
+			int k = 0;
+			for (IExpr a: fcn.args()) {
+				level = Math.max(level, levels.get(a));
+				changed = changed || subs.get(k++) != a;
+			}
+			r = changed ? copy(e, f.fcn(fcn.head(),new ArrayList<IExpr>(subs))) : e;
+			if (refs.get(e) > 1 && pure(e)) {
+				// Bind the (rewritten) term to a new name, in the let just inside those
+				// that bind the names it uses
+				ISymbol.ILetParameter name = new SMTExpr.Symbol.LetParameter(f.symbol(newName()));
+				if (level == bindings.size()) bindings.add(new ArrayList<IBinding>());
+				bindings.get(level).add(f.binding(name,r));
+				level++;
+				r = copy(e, name);
+			}
+		} else if (e instanceof IForall) {
+			IForall q = (IForall)e;
+			IExpr body = subs.get(0);
+			level = levels.get(q.expr());
+			r = body == q.expr() ? e : copy(e, f.forall(q.parameters(),body));
+		} else if (e instanceof IExists) {
+			IExists q = (IExists)e;
+			IExpr body = subs.get(0);
+			level = levels.get(q.expr());
+			r = body == q.expr() ? e : copy(e, f.exists(q.parameters(),body));
+		} else if (e instanceof ILet) {
+			ILet let = (ILet)e;
+			List<IBinding> newBindings = new ArrayList<IBinding>(let.bindings().size());
+			boolean changed = false;
+			int k = 0;
+			for (IBinding b: let.bindings()) {
+				IExpr rb = subs.get(k++);
+				level = Math.max(level, levels.get(b.expr()));
+				if (rb == b.expr()) {
+					newBindings.add(b);
+				} else {
+					changed = true;
+					newBindings.add(f.binding(b.parameter(),rb));
+				}
+			}
+			IExpr body = subs.get(k);
+			level = Math.max(level, levels.get(let.expr()));
+			r = !changed && body == let.expr() ? e : copy(e, f.let(newBindings,body));
+		} else {
+			IAttributedExpr a = (IAttributedExpr)e;
+			IExpr body = subs.get(0);
+			level = levels.get(a.expr());
+			r = body == a.expr() ? e : copy(e, f.attributedExpr(body,a.attributes()));
+		}
+		levels.put(e,level);
+		return r;
+	}
+
+	/** Returns a name not used in the current expression */
+	private String newName() {
+		String s;
+		do {
+			s = PREFIX + (count++);
+		} while (names.contains(s));
+		return s;
+	}
+
+	/** Gives the new node the position and sort of the node it replaces, and returns it */
+	private <T extends IExpr> T copy(IExpr original, T node) {
+		if (original instanceof IPosable && node instanceof IPosable) {
+			((IPosable)node).setPos(((IPosable)original).pos());
+		}
+		if (typemap != null) {
+			ISort s = typemap.get(original);
+			if (s != null) typemap.put(node,s);
+		}
+		return node;
+	}
+}
@@ -0,0 +1,365 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ */
+package org.smtlib.impl;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.smtlib.IExpr;
+import org.smtlib.IExpr.IBinaryLiteral;
+import org.smtlib.IExpr.IDecimal;
+import org.smtlib.IExpr.IFcnExpr;
+import org.smtlib.IExpr.IHexLiteral;
+import org.smtlib.IExpr.IKeyword;
+import org.smtlib.IExpr.INumeral;
+import org.smtlib.IExpr.IParameterizedIdentifier;
+import org.smtlib.IExpr.IQualifiedIdentifier;
+import org.smtlib.IExpr.IStringLiteral;
+import org.smtlib.IExpr.ISymbol;
+import org.smtlib.IPos;
+import org.smtlib.IPos.IPosable;
+import org.smtlib.impl.SMTExpr.BinaryLiteral;
+import org.smtlib.impl.SMTExpr.Decimal;
+import org.smtlib.impl.SMTExpr.FcnExpr;
+import org.smtlib.impl.SMTExpr.HexLiteral;
+import org.smtlib.impl.SMTExpr.Keyword;
+import org.smtlib.impl.SMTExpr.Literal;
+import org.smtlib.impl.SMTExpr.Numeral;
+import org.smtlib.impl.SMTExpr.ParameterizedIdentifier;
+import org.smtlib.impl.SMTExpr.StringLiteral;
+import org.smtlib.impl.SMTExpr.Symbol;
+
+/** An expression factory that hash-conses terms: literals, keywords, symbols, indexed identifiers
+ * and function applications that are structurally equal are represented by one shared node, so
+ * they may be compared (and used as hash keys) by reference.  Binders (let, forall, exists),
+ * attributed expressions and as-identifiers are not shared.
+ * <P>
+ * Canonical nodes are held in a weak table (divided into separately locked segments so that
+ * several threads may create terms at once), so nodes that are no longer referenced can still
+ * be garbage collected.  Function applications are compared shallowly - by the identity of the
+ * head and of each (already canonical) argument - so interning a term costs time proportional to
+ * its number of arguments, not its size.
+ * <P>
+ * Since a shared node may stand for several occurrences (in several threads), shared nodes carry
+ * no position: setPos on them does nothing.  Positions remain on the lexer's tokens, on the nodes
+ * that are not shared and on the commands.  Shared nodes must not be modified once created.
+ */
+public class HashConsingFactory extends Factory {
+
+	/** Marks the nodes created (and shared) by this factory */
+	private interface Shared {}
+
+	/** The shared node classes, which ignore positions */
+	static private class SharedSymbol extends Symbol implements Shared {
+		SharedSymbol(String v) { super(v); }
+		@Override public void setPos(/*@Nullable*/IPos pos) {}
+	}
+
+	static private class SharedNumeral extends Numeral implements Shared {
+		SharedNumeral(BigInteger v) { super(v); }
+		@Override public void setPos(/*@Nullable*/IPos pos) {}
+	}
+
+	static private class SharedDecimal extends Decimal implements Shared {
+		SharedDecimal(BigDecimal v) { super(v); }
+		@Override public void setPos(/*@Nullable*/IPos pos) {}
+	}
+
+	static private class SharedKeyword extends Keyword implements Shared {
+		SharedKeyword(String v) { super(v); }
+		@Override public void setPos(/*@Nullable*/IPos pos) {}
+	}
+
+	static private class SharedStringLiteral extends StringLiteral implements Shared {
+		SharedStringLiteral(String v, boolean quoted) { super(v,quoted); }
+		@Override public void setPos(/*@Nullable*/IPos pos) {}
+	}
+
+	static private class SharedBinaryLiteral extends BinaryLiteral implements Shared {
+		SharedBinaryLiteral(String v) { super(v); }
+		@Override public void setPos(/*@Nullable*/IPos pos) {}
+	}
+
+	static private class SharedHexLiteral extends HexLiteral implements Shared {
+		SharedHexLiteral(String v) { super(v); }
+		@Override public void setPos(/*@Nullable*/IPos pos) {}
+	}
+
+	static private class SharedParameterizedIdentifier extends ParameterizedIdentifier implements Shared {
+		SharedParameterizedIdentifier(ISymbol symbol, List<INumeral> nums) { super(symbol,nums); }
+		@Override public void setPos(/*@Nullable*/IPos pos) {}
+	}
+
+	static private class SharedFcnExpr extends FcnExpr implements Shared {
+		SharedFcnExpr(IQualifiedIdentifier id, List<IExpr> args) { super(id,args); }
+		@Override public void setPos(/*@Nullable*/IPos pos) {}
+	}
+
+	/** The number of separately locked segments of the interning table (a power of 2) */
+	final static private int SEGMENTS = 16;
+
+	/** The segments of the interning table; a node is held in the segment selected by its hash */
+	final private Segment[] segments = new Segment[SEGMENTS];
+	{
+		for (int i=0; i<SEGMENTS; i++) segments[i] = new Segment();
+	}
+
+	/** An entry of the interning table: a weak reference to a canonical node, along with its
+	 * (cached) structural hash code */
+	static private class Entry extends WeakReference<IPosable> {
+		final int hash;
+		/*@Nullable*/ Entry next;
+
+		Entry(IPosable node, int hash, /*@Nullable*/Entry next, ReferenceQueue<IPosable> queue) {
+			super(node,queue);
+			this.hash = hash;
+			this.next = next;
+		}
+	}
+
+	/** One segment of the interning table: a chained hash table of weakly-held canonical nodes,
+	 * all of whose operations are synchronized on the segment.
+	 */
+	private class Segment {
+		/** The hash buckets; the length is always a power of 2 */
+		private Entry[] table = new Entry[64];
+
+		/** The number of entries (live or not yet expunged) in the table */
+		private int count = 0;
+
+		/** The queue on which the garbage collector places entries whose nodes have been collected */
+		final private ReferenceQueue<IPosable> queue = new ReferenceQueue<IPosable>();
+
+		/** Returns the canonical node structurally equal to the candidate, making the candidate
+		 * canonical if there is none */
+		synchronized IPosable intern(IPosable candidate, int hash) {
+			expunge();
+			int i = hash & (table.length-1);
+			for (Entry e = table[i]; e != null; e = e.next) {
+				if (e.hash != hash) continue;
+				IPosable node = e.get();
+				if (node != null && same(node,candidate)) return node;
+			}
+			table[i] = new Entry(candidate,hash,table[i],queue);
+			if (++count > table.length - (table.length>>2)) resize();
+			return candidate;
+		}
+
+		/** Removes the entries whose nodes have been garbage collected */
+		private void expunge() {
+			Object r;
+			while ((r = queue.poll()) != null) {
+				Entry dead = (Entry)r;
+				int i = dead.hash & (table.length-1);
+				Entry prev = null;
+				for (Entry e = table[i]; e != null; prev = e, e = e.next) {
+					if (e == dead) {
+						if (prev == null) table[i] = e.next; else prev.next = e.next;
+						count--;
+						break;
+					}
+				}
+			}
+		}
+
+		/** Doubles the number of buckets */
+		private void resize() {
+			Entry[] ntable = new Entry[2*table.length];
+			for (Entry e: table) {
+				while (e != null) {
+					Entry next = e.next;
+					int i = e.hash & (ntable.length-1);
+					e.next = ntable[i];
+					ntable[i] = e;
+					e = next;
+				}
+			}
+			table = ntable;
+		}
+
+		/** The number of entries currently held */
+		synchronized int size() {
+			expunge();
+			return count;
+		}
+	}
+
+	/** The structural hash code of a node, consistent with same() */
+	protected int hash(IPosable node) {
+		int h;
+		if (node instanceof FcnExpr) {
+			FcnExpr f = (FcnExpr)node;
+			h = System.identityHashCode(f.head());
+			for (IExpr a: f.args()) h = 31*h + System.identityHashCode(a);
+		} else if (node instanceof ParameterizedIdentifier) {
+			ParameterizedIdentifier p = (ParameterizedIdentifier)node;
+			h = System.identityHashCode(p.headSymbol());
+			for (INumeral n: p.numerals()) h = 31*h + System.identityHashCode(n);
+		} else if (node instanceof Symbol) {
+			h = node.toString().hashCode();
+		} else if (node instanceof Keyword) {
+			h = ((Keyword)node).value().hashCode();
+		} else {
+			h = ((Literal<?>)node).value().hashCode();
+		}
+		h = 31*h + node.getClass().hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	/** Whether two nodes are structurally identical: of the same class, with equal values, or
+	 * (for composite nodes) with identical components */
+	protected boolean same(IPosable a, IPosable b) {
+		if (a.getClass() != b.getClass()) return false;
+		if (a instanceof FcnExpr) {
+			FcnExpr fa = (FcnExpr)a;
+			FcnExpr fb = (FcnExpr)b;
+			return fa.head() == fb.head() && sameElements(fa.args(),fb.args());
+		} else if (a instanceof ParameterizedIdentifier) {
+			ParameterizedIdentifier pa = (ParameterizedIdentifier)a;
+			ParameterizedIdentifier pb = (ParameterizedIdentifier)b;
+			return pa.headSymbol() == pb.headSymbol() && sameElements(pa.numerals(),pb.numerals());
+		} else if (a instanceof Symbol) {
+			// The original string distinguishes |a| from a, so that printing is unchanged
+			return a.toString().equals(b.toString());
+		} else if (a instanceof Keyword) {
+			return ((Keyword)a).value().equals(((Keyword)b).value());
+		} else {
+			return ((Literal<?>)a).value().equals(((Literal<?>)b).value());
+		}
+	}
+
+	/** Whether two lists have the same length and identical elements */
+	private static boolean sameElements(List<?> a, List<?> b) {
+		if (a.size() != b.size()) return false;
+		Iterator<?> ia = a.iterator();
+		Iterator<?> ib = b.iterator();
+		while (ia.hasNext()) {
+			if (ia.next() != ib.next()) return false;
+		}
+		return true;
+	}
+
+	/** Returns the canonical node structurally equal to the argument (which becomes canonical
+	 * if there is none); the argument must be of a class this factory creates. */
+	@SuppressWarnings("unchecked")
+	protected <T extends IPosable> T intern(T node) {
+		int h = hash(node);
+		return (T)segments[(h >>> 28) & (SEGMENTS-1)].intern(node,h);
+	}
+
+	/** Returns the number of canonical nodes currently held (for diagnostics) */
+	public int size() {
+		int n = 0;
+		for (Segment s: segments) n += s.size();
+		return n;
+	}
+
+	/** Returns the canonical node for an expression that is to be a component of a new node.
+	 * Tokens created by the lexer (which are subclasses of the node classes) and nodes not created
+	 * by this factory are replaced by equivalent canonical nodes (which do not take the position
+	 * of the token); nodes of kinds that are not shared are returned unchanged.
+	 */
+	@SuppressWarnings("unchecked")
+	protected <T extends IPosable> T canonical(T e) {
+		IPosable result;
+		if (e instanceof Shared) {
+			return e;
+		} else if (e instanceof Symbol.Parameter || e instanceof Symbol.LetParameter) {
+			return e; // these denote a particular binding occurrence
+		} else if (e instanceof FcnExpr) {
+			result = fcn(((FcnExpr)e).head(),((FcnExpr)e).args());
+		} else if (e instanceof ParameterizedIdentifier) {
+			result = id(((ParameterizedIdentifier)e).headSymbol(),((ParameterizedIdentifier)e).numerals());
+		} else if (e instanceof Symbol) {
+			result = symbol(e.toString());
+		} else if (e instanceof INumeral) {
+			result = intern(new SharedNumeral(((INumeral)e).value()));
+		} else if (e instanceof IDecimal) {
+			result = intern(new SharedDecimal(((IDecimal)e).value()));
+		} else if (e instanceof IKeyword) {
+			result = keyword(((IKeyword)e).value());
+		} else if (e instanceof IStringLiteral) {
+			result = unquotedString(((IStringLiteral)e).value());
+		} else if (e instanceof IBinaryLiteral) {
+			result = binary(((IBinaryLiteral)e).value());
+		} else if (e instanceof IHexLiteral) {
+			result = hex(((IHexLiteral)e).value());
+		} else {
+			return e;
+		}
+		return (T)result;
+	}
+
+	@Override
+	public INumeral numeral(String v) {
+		return intern(new SharedNumeral(new BigInteger(v)));
+	}
+
+	@Override
+	public Numeral numeral(long v) {
+		return intern(new SharedNumeral(BigInteger.valueOf(v)));
+	}
+
+	@Override
+	public IDecimal decimal(String v) {
+		return intern(new SharedDecimal(new BigDecimal(v)));
+	}
+
+	@Override
+	public IStringLiteral unquotedString(String v) {
+		return intern(new SharedStringLiteral(v,false));
+	}
+
+	@Override
+	public IStringLiteral quotedString(String v) {
+		return intern(new SharedStringLiteral(v,true));
+	}
+
+	@Override
+	public IKeyword keyword(String v) {
+		return intern(new SharedKeyword(v));
+	}
+
+	@Override
+	public IBinaryLiteral binary(String v) {
+		return intern(new SharedBinaryLiteral(v));
+	}
+
+	@Override
+	public IHexLiteral hex(String v) {
+		return intern(new SharedHexLiteral(v));
+	}
+
+	@Override
+	public ISymbol symbol(String v) {
+		return intern(new SharedSymbol(v));
+	}
+
+	@Override
+	public IParameterizedIdentifier id(ISymbol symbol, List<INumeral> num) {
+		List<INumeral> nums = new LinkedList<INumeral>();
+		for (INumeral n: num) nums.add(canonical(n));
+		return intern(new SharedParameterizedIdentifier(canonical(symbol),nums));
+	}
+
+	@Override
+	public IFcnExpr fcn(IQualifiedIdentifier id, List<IExpr> args) {
+		List<IExpr> arglist = new LinkedList<IExpr>();
+		for (IExpr a: args) arglist.add(canonical(a));
+		return intern(new SharedFcnExpr(canonical(id),arglist));
+	}
+
+	@Override
+	public IFcnExpr fcn(IQualifiedIdentifier id, IExpr... args) {
+		List<IExpr> arglist = new LinkedList<IExpr>();
+		for (IExpr a: args) arglist.add(canonical(a));
+		return intern(new SharedFcnExpr(canonical(id),arglist));
+	}
+}
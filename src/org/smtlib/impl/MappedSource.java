@@ -0,0 +1,98 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ */
+package org.smtlib.impl;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.smtlib.CharSequenceMapped;
+
+/** An ISource that reads a file through a CharSequenceMapped, so that large files are not held
+ * in memory in their entirety.  Line numbers are computed with the aid of an index that records
+ * the character position of the beginning of every LINES_PER_ENTRY-th line, built as it is needed,
+ * so that finding the line number of a position late in a large file does not require scanning
+ * the whole file each time.
+ */
+public class MappedSource extends Pos.Source {
+
+	/** The number of lines between successive entries of the line index */
+	final static public int LINES_PER_ENTRY = 64;
+
+	/** The character sequence */
+	final protected CharSequenceMapped chars;
+
+	/** Entry k is the position of the beginning of line k*LINES_PER_ENTRY+1 */
+	private int[] lineIndex = new int[1024];
+
+	/** The number of entries in the line index */
+	private int entries = 1; // line 1 begins at position 0
+
+	/** The position up to which lines have been counted for the index */
+	private int indexedTo = 0;
+
+	/** The number of line terminations before indexedTo */
+	private int linesBefore = 0;
+
+	/** Creates a source for the given file, whose location is the file path
+	 * @throws IOException if the file cannot be opened or is too large
+	 */
+	public MappedSource(File f) throws IOException {
+		this(new CharSequenceMapped(f), f.getPath());
+	}
+
+	private MappedSource(CharSequenceMapped chars, Object location) {
+		super(chars, location);
+		this.chars = chars;
+	}
+
+	@Override
+	public void close() {
+		chars.close();
+	}
+
+	/** Returns the position just after the line termination beginning at p, or p if there is none */
+	private int skipTermination(int p) {
+		char c = charAt(p);
+		if (c == '\n') return p+1;
+		if (c == '\r') return charAt(p+1) == '\n' ? p+2 : p+1;
+		return p;
+	}
+
+	@Override
+	public int lineNumber(int pos) {
+		// Extend the index through pos
+		while (indexedTo < pos) {
+			int q = skipTermination(indexedTo);
+			if (q == indexedTo) {
+				indexedTo++;
+				continue;
+			}
+			indexedTo = q;
+			if (++linesBefore % LINES_PER_ENTRY == 0) {
+				if (entries == lineIndex.length) lineIndex = java.util.Arrays.copyOf(lineIndex, 2*entries);
+				lineIndex[entries++] = q;
+			}
+		}
+		// Find the last indexed line beginning at or before pos, and count from there
+		int lo = 0;
+		int hi = entries-1;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (lineIndex[mid] <= pos) lo = mid; else hi = mid - 1;
+		}
+		int line = lo*LINES_PER_ENTRY + 1;
+		int p = lineIndex[lo];
+		while (p < pos) {
+			int q = skipTermination(p);
+			if (q == p) {
+				p++;
+			} else {
+				line++;
+				p = q;
+			}
+		}
+		return line;
+	}
+}
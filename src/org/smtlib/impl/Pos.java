@@ -116,13 +116,25 @@ public class Pos implements IPos {
 			return this.chars.charAt(pos);
 		}
 		
+		@Override
+		public void release(int pos) {
+			if (chars instanceof CharSequenceInfinite) ((CharSequenceInfinite)chars).release(pos);
+		}
+		
+		/** The position of the first character that has not been released */
+		protected int released() {
+			return chars instanceof CharSequenceInfinite ? ((CharSequenceInfinite)chars).released() : 0;
+		}
+		
 		@Override
 		public int lineBeginning(int pos) {
 			int p = pos;
+			int low = released();
+			if (p < low) return p; // The text is no longer available
 			if (p >= chars().length()) p = chars().length()-1; // If the length is indeterminate, length() should be INT_MAX
-			if (p > 0 && charAt(p) == '\n' && charAt(p-1) == '\r') --p;
+			if (p > low && charAt(p) == '\n' && charAt(p-1) == '\r') --p;
 			char c;
-			while (p >= 0 && (c=charAt(p)) != '\n' && c != '\r') --p;
+			while (p >= low && (c=charAt(p)) != '\n' && c != '\r') --p;
 			return p+1;
 		}
 		
@@ -130,6 +142,7 @@ public class Pos implements IPos {
 		
 		@Override
 		public String textLine(int pos) {
+			if (pos < released()) return eol; // The text is no longer available
 			int b = lineBeginning(pos);
 			int e = nextLineTermination(pos);
 			String s = chars.subSequence(b,e+1).toString();
@@ -152,12 +165,19 @@ public class Pos implements IPos {
 		
 		// Note: this counts lines from the beginning of the character sequence, calling charAt at each
 		// character position; this is not very efficient; the presumption is that this method is called
-		// just for the occasional error message.
+		// just for the occasional error message.  If characters have been released, counting begins
+		// with the first character that has not been released (so a released position is reported
+		// as being on the first line that has not been released).
 		@Override
 		public int lineNumber(int pos) {
 			int line = 1;
+			int i = 0;
+			if (chars instanceof CharSequenceInfinite) {
+				i = ((CharSequenceInfinite)chars).released();
+				line += ((CharSequenceInfinite)chars).linesReleased();
+			}
 			char c;
-			for (int i=0; i<pos; i++) {
+			for (; i<pos; i++) {
 				c = charAt(i);
 				if (c == '\n') line++;
 				else if (c == '\r') {
@@ -7,8 +7,10 @@ package org.smtlib.impl;
 
 // FIXME - Document Response; fix how it's classes fit into the Sexpr class hierarchy
 
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import org.smtlib.*;
 import org.smtlib.IExpr.IAttribute;
@@ -88,6 +90,9 @@ public class Response {
 		@Override
 		public IResponse memout() { return MEMOUT; }
 
+		@Override
+		public IResponse timeout() { return TIMEOUT; }
+
 		@Override
 		public IResponse incomplete() { return INCOMPLETE; }
 
@@ -141,6 +146,11 @@ public class Response {
 		public AssertionsResponse get_assertions_response(List<IExpr> exprs) {
 			return new AssertionsResponse(exprs);
 		}
+		
+		@Override
+		public Model get_model_response(List<ICommand> definitions) {
+			return new Model(definitions);
+		}
 	}
 	
 	/** Implements the IResponse.IError interface */
@@ -227,6 +237,43 @@ public class Response {
 		}
 	}
 
+	/** Implements the IResponse.IModel interface; the define-fun commands are indexed by name, so
+	 * that a value is found in constant time however large the model is */
+	static public class Model implements IResponse.IModel {
+		private List<ICommand> definitions;
+		private Map<ISymbol,ICommand.Idefine_fun> index = new HashMap<ISymbol,ICommand.Idefine_fun>();
+		@Override public List<ICommand> definitions() { return definitions; }
+		public Model(List<ICommand> definitions) {
+			this.definitions = definitions;
+			for (ICommand c: definitions) {
+				if (c instanceof ICommand.Idefine_fun) index.put(((ICommand.Idefine_fun)c).symbol(),(ICommand.Idefine_fun)c);
+			}
+		}
+		
+		@Override
+		public /*@Nullable*/ ICommand.Idefine_fun definition(ISymbol name) {
+			return index.get(name);
+		}
+		
+		@Override
+		public /*@Nullable*/ IExpr value(IExpr term) {
+			if (!(term instanceof ISymbol)) return null;
+			ICommand.Idefine_fun d = index.get((ISymbol)term);
+			if (d == null || !d.parameters().isEmpty()) return null;
+			return d.expression();
+		}
+
+		@Override
+		public boolean isOK() { return false; }
+		@Override
+		public boolean isError() { return false; }
+
+		@Override
+		public <T> T accept(IVisitor<T> v) throws IVisitor.VisitorException {
+			return v.visit(this);
+		}
+	}
+
 	/** Implements the IResponse.IAssertionsResponse interface */
 	static public class AssertionsResponse implements IResponse.IAssertionsResponse {
 		private List<IExpr> assertions = new LinkedList<IExpr>();
@@ -64,8 +64,8 @@ public class Script implements IScript {
 	
 	public String kind() { return "script"; }  // FIXME - should override?
 
-	/** Executes the current list */
-	// FIXME _ should we have an incremental read and execute option?
+	/** Executes the current list; if the commands are in a file and the configuration's streaming
+	 * option is set, each command is executed as it is read */
 	@Override
 	public IResponse execute(ISolver solver) {
 		SMT.Configuration smtConfig = solver.smt();
@@ -77,6 +77,10 @@ public class Script implements IScript {
 				fileReader = new FileReader(new File(filename));
 				ISource source = smtConfig.smtFactory.createSource(new CharSequenceReader(fileReader),filename);
 				IParser p = smtConfig.smtFactory.createParser(smtConfig,source);
+				if (smtConfig.streaming) {
+					IResponse r = p.executeScript(solver);
+					return r != null ? r : smtConfig.responseFactory.success();
+				}
 				IScript script = p.parseScript();
 				if (script == null) return smtConfig.responseFactory.error("Failed to parse the command script: " + filename,this.filename.pos());
 				commands = script.commands();
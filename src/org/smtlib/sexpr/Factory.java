@@ -13,6 +13,7 @@ import org.smtlib.IParser;
 import org.smtlib.IPrinter;
 import org.smtlib.ISource;
 import org.smtlib.SMT;
+import org.smtlib.impl.MappedSource;
 import org.smtlib.impl.Pos;
 
 /** This is the factory for classes that are part of this particular concrete representation
@@ -33,6 +34,13 @@ public class Factory implements IParser.IFactory {
 
 	@Override 
 	public Pos.Source createSource(SMT.Configuration smtConfig, java.io.File file) throws java.io.FileNotFoundException {
+		if (smtConfig.mapFiles && file.isFile()) {
+			try {
+				return new MappedSource(file);
+			} catch (java.io.IOException e) {
+				// Fall through to reading the file in the ordinary way
+			}
+		}
 		return new Pos.Source(smtConfig, file);
 	}
 	
@@ -39,10 +39,25 @@ public class Lexer {
 	
 	/** Skips the rest of the current line, resetting the matcher to point to the line termination character */
 	public void abortLine() {
-		int i = matcher.regionStart();
+		int i = currentPos();
 		char c;
-		while ((c=csr.charAt(i))!= '\r' && c != '\n') ++i;
-		matcher.region(i,csr.length());
+		while (i < csr.length() && (c=csr.charAt(i))!= '\r' && c != '\n') ++i;
+		setPosition(i);
+	}
+	
+	/** Skips any characters before the end of the current line (as the regular expression .* would) */
+	protected void skipRestOfLine() {
+		if (useRegex) {
+			Matcher m = skipThroughEndOfLine.matcher(csr);
+			m.region(matcher.regionStart(),matcher.regionEnd());
+			if (m.lookingAt()) {
+				matcher.region(m.end(),matcher.regionEnd());
+			} // If the match fails, there was nothing left before the end of the line
+		} else {
+			int i = position;
+			while (i < csr.length() && !isLineTerminator(csr.charAt(i))) ++i;
+			position = i;
+		}
 	}
 	
 	/** Creates a Lexer using an SMT configuration object and a source for
@@ -51,6 +66,7 @@ public class Lexer {
 	public Lexer(SMT.Configuration smtConfig, ISource src) {
 		this.smtConfig = smtConfig;
 		this.source = src;
+		this.useRegex = smtConfig.regexLexer;
 		if (src != null) {
 			this.csr = src.chars();
 			this.matcher = combined.matcher(this.csr);
@@ -124,6 +140,17 @@ public class Lexer {
 	/** The CharSequence corresponding to the source object */
 	final protected CharSequence csr;
 	
+	/** If true, tokens are scanned with the regular expression 'combined' (the original implementation);
+	 * otherwise the table-driven scanner is used.  The two produce the same tokens and positions.
+	 */
+	final protected boolean useRegex;
+	
+	/** The position of the next character to be scanned, when the table-driven scanner is in use */
+	protected int position = 0;
+	
+	/** The position just after the token most recently scanned by the table-driven scanner */
+	private int scanEnd;
+	
 	// These are regular expressions (of the sort used by Pattern) for 
 	// scanning the input text into the SMT-LIB concrete syntax tokens.
 	// Note that backslashes are doubled because Java uses them as escape
@@ -137,7 +164,9 @@ public class Lexer {
 	/** Pattern regular expression for SMT-LIB whitespace */
 	private final static String rgxWhiteSpace = "[\\p{Space}]+"; // includes line termination
 	/** Pattern regular expression for SMT-LIB comment */
-	private final static String rgxComment = ";.*";              // be sure dot does not include line termination
+	// This is ;.* except that it stops at the end-of-input character, beyond which a reader or
+	// mapped file that has not yet reached its end of input would otherwise be read indefinitely
+	private final static String rgxComment = ";[^\\n\\r\\u0085\\u2028\\u2029\\031]*";
 	/** Pattern regular expression for SMT-LIB numeral */
 	private final static String rgxNumeral = "0|[1-9][0-9]*";
 	/** Pattern regular expression for an invalid SMT-LIB numeral or decimal (that has leading zeros) */
@@ -210,8 +239,8 @@ public class Lexer {
 			    + "|([ \t\r\n]+)"				// group 21: stop-gap whitespace
 		+   ")"  );
 	
-	/** A pattern to skip up to the end of the line */
-	final public static Pattern skipThroughEndOfLine = Pattern.compile(".*");
+	/** A pattern to skip up to the end of the line (or of the input, as for rgxComment) */
+	final public static Pattern skipThroughEndOfLine = Pattern.compile("[^\\n\\r\\u0085\\u2028\\u2029\\031]*");
 	
 	// We need lexical tokens that inherit from ILexToken so they can be returned uniformly from
 	// getToken(); they also need to actually be the tokens used in the Parser (i.e. from org.smtlib.impl.*);
@@ -276,6 +305,15 @@ public class Lexer {
 	 * value is null if we have not gotten the next lexical token yet. */
 	private /*@Nullable*/ ILexToken nextToken = null;
 	
+	/** Restarts scanning at the beginning of the source, whose characters may have been replaced
+	 * (so that one lexer can scan a succession of short texts, such as the responses of a solver)
+	 */
+	public void restart() {
+		nextToken = null;
+		position = 0;
+		if (useRegex) matcher.reset();
+	}
+	
 	/** Returns the next lexical token without consuming it;
 	 * a subsequent call to getToken will return the same token.
 	 * @throws ParserException if something bad or an intentional abort happens
@@ -300,7 +338,13 @@ public class Lexer {
 	
 	/** Returns the position of the next character to be read */
 	public int currentPos() {
-		return matcher.regionStart();
+		return useRegex ? matcher.regionStart() : position;
+	}
+	
+	/** Sets the position of the next character to be read */
+	protected void setPosition(int pos) {
+		if (useRegex) matcher.region(pos,csr.length());
+		else position = pos;
 	}
 	
 	/** Returns true if the next token is the end-of-data */
@@ -347,6 +391,7 @@ public class Lexer {
 		if (!text.isEmpty() && text.charAt(0) == '"') {
 			return new LexStringLiteral(text,true);
 		}
+		if (!useRegex) return scan(text,0);
 		Matcher matcher = combined.matcher(text);
 		return getToken(matcher);
 	}
@@ -361,9 +406,270 @@ public class Lexer {
 			nextToken = null;
 			return token;
 		}
+		if (!useRegex) {
+			try {
+				return scan(csr,position);
+			} finally {
+				position = scanEnd;
+			}
+		}
 		return getToken(matcher);
 	}
 	
+	/** Scans a string literal by hand, beginning at the position of its opening quote
+	 * (the regular expression for strings overflows the stack on long literals).
+	 */
+	protected ILexToken scanString(CharSequence csr, int begin) {
+		ILexToken token;
+		String matched;
+		IPos pos;
+		int p = begin;
+		try {
+			while (true) {
+				p++;
+				int c = csr.charAt(p);
+				if (c == '\\') {
+					c = csr.charAt(++p);
+					// \\ is translated to \ and \" to "
+					// \x for anything else is just \x
+				} else if (c == '"') {
+					matched = csr.subSequence(begin,p+1).toString();
+					pos = pos(begin,p+1);
+					token = setPos(new LexStringLiteral(matched,true),pos);
+					break;
+				} else {
+					if (c >= ' ' && c <= '~') continue;
+					if (c == '\t' || c == '\r' || c == '\n') continue;
+					if (c == 25) {
+						matched = csr.subSequence(begin,p).toString();
+						pos = pos(begin,p);
+						smtConfig.log.logError(smtConfig.responseFactory.error("String literal is not terminated: " + matched,pos));
+						token = setPos(new LexError(matched),pos);
+						break; // End of data - no closing right paren
+					}
+					smtConfig.log.logError(smtConfig.responseFactory.error("Invalid character: ASCII(decimal) = " + (int)c,
+							pos(p,p+1)));
+					continue;
+				}
+			}
+		} catch (IndexOutOfBoundsException e) {
+			// If the CharSequence does not expand itself and does not terminate 
+			// itself with an end of data character, and does not end with a
+			// quote character, we get this exception
+			matched = csr.subSequence(begin,p).toString();
+			pos = pos(begin,p);
+			token = setPos(new LexError(matched),pos);
+			smtConfig.log.logError(smtConfig.responseFactory.error("String literal is not terminated: " + matched,token.pos()));
+		}
+		return token;
+	}
+	
+	// The table-driven scanner.  Each ASCII character is given a set of class bits; the scanner
+	// makes a single pass over the characters of a token, consulting the table, and reproduces
+	// the tokens (including the error tokens) that the regular expression 'combined' produces.
+	// In particular the order of alternatives in the regular expression is respected: e.g. a
+	// digit sequence not followed by a trailer character is not a numeral, and is reported as
+	// an invalid token.
+	
+	/** Character class: SMT-LIB whitespace (as \p{Space}) */
+	private static final int WS = 1;
+	/** Character class: may begin a simple symbol */
+	private static final int SYM = 2;
+	/** Character class: decimal digit */
+	private static final int DIGIT = 4;
+	/** Character class: may appear within a bar-quoted symbol */
+	private static final int QSYM = 8;
+	/** Character class: hexadecimal digit */
+	private static final int HEX = 16;
+	/** Character class: may follow a numeral, decimal, binary or hex literal */
+	private static final int TRAILER = 32;
+	
+	/** The character class table, indexed by ASCII character */
+	private static final byte[] charClass = new byte[128];
+	static {
+		for (char c: " \t\n\u000B\f\r".toCharArray()) charClass[c] |= WS|TRAILER;
+		for (char c: "();".toCharArray()) charClass[c] |= TRAILER;
+		for (char c = 'a'; c <= 'z'; c++) charClass[c] |= SYM|QSYM;
+		for (char c = 'A'; c <= 'Z'; c++) charClass[c] |= SYM|QSYM;
+		for (char c: "_~!@$%^&*+=<>.?/-".toCharArray()) charClass[c] |= SYM|QSYM;
+		for (char c = '0'; c <= '9'; c++) charClass[c] |= DIGIT|QSYM|HEX;
+		for (char c = 'a'; c <= 'f'; c++) charClass[c] |= HEX;
+		for (char c = 'A'; c <= 'F'; c++) charClass[c] |= HEX;
+		for (char c: "\"'(),:;{}#`[] \t\r\n".toCharArray()) charClass[c] |= QSYM;
+	}
+	
+	/** Returns true if the character is in any of the given classes */
+	private static boolean is(char c, int classes) {
+		return c < 128 && (charClass[c] & classes) != 0;
+	}
+	
+	/** Returns true if the character terminates a line (as for the regular expression dot) */
+	private static boolean isLineTerminator(char c) {
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+	
+	/** Returns true if position p is the end of input or holds a character that may follow a number
+	 * (including, as for the regular expression $, a line terminator that ends the input)
+	 */
+	private static boolean isTrailer(CharSequence cs, int p) {
+		if (p >= cs.length()) return true;
+		char c = cs.charAt(p);
+		return is(c,TRAILER) || (isLineTerminator(c) && p+1 == cs.length());
+	}
+	
+	/** Returns the first position at or after p that is not in the given classes */
+	private static int skip(CharSequence cs, int p, int classes) {
+		while (p < cs.length() && is(cs.charAt(p),classes)) p++;
+		return p;
+	}
+	
+	/** Returns the end of a valid number with leading zeros beginning at p (which holds a '0'),
+	 * or -1 if there is none.
+	 */
+	private static int leadingZeroEnd(CharSequence cs, int p) {
+		int q = p;
+		while (q < cs.length() && cs.charAt(q) == '0') q++;
+		int r;
+		if (q < cs.length() && is(cs.charAt(q),DIGIT)) r = skip(cs,q,DIGIT); // the digit is 1-9
+		else if (q - p >= 2) r = q;
+		else return -1;
+		if (r+1 < cs.length() && cs.charAt(r) == '.' && is(cs.charAt(r+1),DIGIT)) {
+			int f = skip(cs,r+1,DIGIT);
+			if (isTrailer(cs,f)) return f;
+		}
+		return isTrailer(cs,r) ? r : -1;
+	}
+	
+	/** Scans the token that begins (after any whitespace and comments) at position p of cs;
+	 * sets scanEnd to the position just after it.
+	 */
+	protected ILexToken scan(CharSequence cs, int p) throws ParserException {
+		scanEnd = p;
+		while (p < cs.length()) {
+			char c = cs.charAt(p);
+			if (is(c,WS)) {
+				p++;
+			} else if (c == ';') {
+				p++;
+				while (p < cs.length() && !isLineTerminator(cs.charAt(p))) p++;
+			} else {
+				break;
+			}
+		}
+		int begin = p;
+		if (p >= cs.length()) {
+			scanEnd = p;
+			return EOD(p);
+		}
+		char c = cs.charAt(p);
+		int end = -1;
+		ILexToken token = null;
+		switch (c) {
+			case '(':
+				scanEnd = p+1;
+				return LP(p);
+			case ')':
+				scanEnd = p+1;
+				return RP(p);
+			case '"':
+				token = scanString(cs,p);
+				scanEnd = token.pos().charEnd();
+				return token;
+			case '|':
+				end = skip(cs,p+1,QSYM);
+				if (end < cs.length() && cs.charAt(end) == '|') {
+					end++;
+					token = setPos(new LexSymbol(cs.subSequence(begin,end).toString()),pos(begin,end));
+				} else {
+					String matched = cs.subSequence(begin,end).toString();
+					token = setPos(new LexError("Bar(|)-enclosed symbol is not terminated: " + matched),pos(begin,end));
+					smtConfig.log.logError(smtConfig.responseFactory.error("Bar(|)-enclosed symbol is not terminated: " + matched,token.pos()));
+				}
+				scanEnd = end;
+				return token;
+			case ':':
+				end = skip(cs,p+1,SYM|DIGIT);
+				if (end > p+1) {
+					token = setPos(new LexKeyword(cs.subSequence(begin,end).toString()),pos(begin,end));
+					scanEnd = end;
+					return token;
+				}
+				break;
+			case '#':
+				if (p+1 < cs.length()) {
+					char k = cs.charAt(p+1);
+					if (k == 'b' || k == 'x') {
+						end = k == 'b' ? skipBinary(cs,p+2) : skip(cs,p+2,HEX);
+						if (end > p+2 && isTrailer(cs,end)) {
+							String digits = cs.subSequence(p+2,end).toString();
+							token = setPos(k == 'b' ? new LexBinaryLiteral(digits) : new LexHexLiteral(digits),pos(begin,end));
+							scanEnd = end;
+							return token;
+						}
+					}
+				}
+				break;
+			case 25:
+			case 4:
+				scanEnd = p+1;
+				return EOD(p);
+			case 24:
+				scanEnd = p+1;
+				throw new AbortParseException();
+			default:
+				if (is(c,DIGIT)) {
+					end = c == '0' ? p+1 : skip(cs,p+1,DIGIT);
+					if (isTrailer(cs,end)) {
+						token = setPos(new LexNumeral(new BigInteger(cs.subSequence(begin,end).toString())),pos(begin,end));
+						scanEnd = end;
+						return token;
+					}
+					if (end+1 < cs.length() && cs.charAt(end) == '.' && is(cs.charAt(end+1),DIGIT)) {
+						int f = skip(cs,end+1,DIGIT);
+						if (isTrailer(cs,f)) {
+							token = setPos(new LexDecimal(new BigDecimal(cs.subSequence(begin,f).toString())),pos(begin,f));
+							scanEnd = f;
+							return token;
+						}
+					}
+					if (c == '0' && (end = leadingZeroEnd(cs,p)) != -1) {
+						String msg = "Incorrect format for a number - no leading zeros allowed: ";
+						String matched = cs.subSequence(begin,end).toString();
+						token = setPos(new LexError(msg + matched),pos(begin,end));
+						smtConfig.log.logError(smtConfig.responseFactory.error(msg + matched,token.pos()));
+						scanEnd = end;
+						return token;
+					}
+				} else if (is(c,SYM)) {
+					end = skip(cs,p+1,SYM|DIGIT);
+					token = setPos(new LexSymbol(cs.subSequence(begin,end).toString()),pos(begin,end));
+					scanEnd = end;
+					return token;
+				}
+		}
+		// Anything else is a sequence of non-whitespace that is not a valid token
+		end = p+1;
+		while (end < cs.length()) {
+			char cc = cs.charAt(end);
+			if (is(cc,WS) || cc == '(' || cc == ')' || cc == ';') break;
+			end++;
+		}
+		String matched = cs.subSequence(begin,end).toString();
+		IPos pos = pos(begin,end);
+		if (matched.charAt(0) < ' ') matched = "(ASCII char " + (int)matched.charAt(0) + " (decimal))";
+		token = setPos(new LexError("Invalid token: " + matched),pos);
+		smtConfig.log.logError(smtConfig.responseFactory.error("Invalid token: " + matched,pos));
+		scanEnd = end;
+		return token;
+	}
+	
+	/** Returns the first position at or after p that does not hold a binary digit */
+	private static int skipBinary(CharSequence cs, int p) {
+		char c;
+		while (p < cs.length() && ((c = cs.charAt(p)) == '0' || c == '1')) p++;
+		return p;
+	}
+	
 	/** Returns the next token found in the given matcher, advancing the matcher */
 	protected ILexToken getToken(Matcher matcher) throws ParserException {
 		ILexToken token = null;
@@ -397,54 +703,8 @@ public class Lexer {
 				token = setPos(new LexSymbol(matched),pos);
 			} else if ((matched = matcher.group(k=7)) != null) { // string 
 				// The match is just to the initial quote
-				int begin = matcher.start(k); // position of the initial quote
-				int p = begin;
-				try {
-					while (true) {
-						p++;
-						int c = csr.charAt(p);
-						if (c == '\\') {
-							c = csr.charAt(++p);
-							// \\ is translated to \ and \" to "
-							// \x for anything else is just \x
-//							if (c == '\\' || c == '"') {
-//								continue;
-//							} else {
-//								smtConfig.log.logError(smtConfig.responseFactory.error("Invalid escape sequence " + (char)c + " (decimal ASCII = " + (int)c + ")",
-//										pos(p,p+1)));
-//							}
-						} else if (c == '"') {
-							end = p+1;
-							matched = csr.subSequence(begin,end).toString();
-							pos = pos(begin,end);
-							token = setPos(new LexStringLiteral(matched,true),pos);
-							break;
-						} else {
-							if (c >= ' ' && c <= '~') continue;
-							if (c == '\t' || c == '\r' || c == '\n') continue;
-							if (c == 25) {
-								end = p;
-								matched = csr.subSequence(begin,end).toString();
-								pos = pos(begin,end);
-								smtConfig.log.logError(smtConfig.responseFactory.error("String literal is not terminated: " + matched,pos));
-								token = setPos(new LexError(matched),pos);
-								break; // End of data - no closing right paren
-							}
-							smtConfig.log.logError(smtConfig.responseFactory.error("Invalid character: ASCII(decimal) = " + (int)c,
-									pos(p,p+1)));
-							continue;
-						}
-					}
-				} catch (IndexOutOfBoundsException e) {
-					// If the CharSequence does not expand itself and does not terminate 
-					// itself with an end of data character, and does not end with a
-					// quote character, we get this exception
-					end = p;
-					matched = csr.subSequence(begin,end).toString();
-					pos = pos(begin,end);
-					token = setPos(new LexError(matched),pos);
-					smtConfig.log.logError(smtConfig.responseFactory.error("String literal is not terminated: " + matched,token.pos()));
-				}
+				token = scanString(csr,matcher.start(k));
+				end = token.pos().charEnd();
 			} else if ((matched = matcher.group(k=9)) != null) { // colon-initiated keyword
 				pos = pos(matcher.start(k),matcher.end(k));
 				//token = factory.keyword(matched,pos);
@@ -523,7 +783,12 @@ public class Lexer {
 				throw new SMT.InternalException("Failed to report which regular expression matched: "
 						+ " " + b + " " + e + " " + s);
 			}
-			if (csr != null) matcher.region(end,csr.length());
+			if (csr != null) {
+				// The length of a reader or mapped file is not known until its end has been read,
+				// so the region may have been set to extend beyond it
+				int length = csr.length();
+				matcher.region(end < length ? end : length,length);
+			}
 		} else {
 			// FIXME - there is a problem if we have spaces at the very beginning of a file, prior to the LP
 			// the matcher does not match???
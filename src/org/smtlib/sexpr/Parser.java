@@ -9,7 +9,6 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.*;
-import java.util.regex.Matcher;
 
 import org.smtlib.*;
 import org.smtlib.ICommand.IScript;
@@ -131,6 +130,38 @@ public class Parser extends Lexer implements IParser {
 		return scr;
 	}
 	
+	// See the documentation in the interface
+	@Override
+	public /*@Nullable*/IResponse executeScript(ISolver solver) throws ParserException {
+		boolean interactive = smtConfig.interactive;
+		IResponse response = null;
+		try {
+			smtConfig.interactive = false;
+			if (parseLP() == null) return smtConfig.responseFactory.error("Expected a parenthesized list of commands");
+			while (!isRP() && !isEOD()) {
+				ICommand s = parseCommand();
+				if (s == null) return lastError != null ? lastError : smtConfig.responseFactory.error("Failed to parse a command of the script");
+				IResponse r = s.execute(solver);
+				if (r.isError()) return r;
+				response = r;
+				IPos pos = ((Command)s).pos();
+				if (pos != null) source().release(pos.charEnd());
+			}
+			if (parseRP() == null) return smtConfig.responseFactory.error("Unexpected end of data in a script");
+			if (smtConfig.verbose != 0) smtConfig.log.logDiag("Completed input");
+		} finally {
+			smtConfig.interactive = interactive;
+		}
+		return response;
+	}
+	
+	/** Restarts parsing at the beginning of the source (see Lexer.restart), forgetting any earlier error */
+	@Override
+	public void restart() {
+		super.restart();
+		lastError = null;
+	}
+	
 	/** This field is used to communicate the beginning LP while parsing commands */
 	public /*@Nullable*/ ILexToken savedlp;
 	
@@ -229,15 +260,8 @@ public class Parser extends Lexer implements IParser {
 					smtConfig.topLevel = true;
 					continue;
 				} catch (ParserException e) {
-					Matcher m = skipThroughEndOfLine.matcher(csr);
-					m.region(matcher.regionStart(),matcher.regionEnd());
 					if (e.getMessage() != null) lastError = smtConfig.log.logError(smtConfig.responseFactory.error(e.getMessage(),e.pos()));
-					if (m.lookingAt()) {
-						//smtConfig.log.logOut("SKIPPED " + m.start() + " " + m.end());
-						matcher.region(m.end(),matcher.regionEnd());
-					} else {
-						//smtConfig.log.logOut("NOTHING TO SKIP");
-					} // If the match fails, there was nothing left before the end of the line
+					skipRestOfLine();
 				}
 				break;
 			}
@@ -423,10 +447,46 @@ public class Parser extends Lexer implements IParser {
 	}
 	
 	/** Parses an expression, returning null with error messages if there is not a valid
-	 * expression in the token stream.
+	 * expression in the token stream.  The nesting of the expression is tracked by an explicit
+	 * stack of ExprFrame objects rather than by recursive calls, so the depth of the expression
+	 * is limited only by the heap.
 	 */
 	@Override
 	public /*@Nullable*/IExpr parseExpr() throws ParserException {
+		List<ExprFrame> frames = new ArrayList<ExprFrame>();
+		while (true) {
+			// Begin a new expression, which may be complete at once
+			ExprFrame f = beginExpr();
+			IExpr result;
+			if (f == null) {
+				result = begun;
+			} else if (f.advance()) {
+				frames.add(f);
+				continue;
+			} else {
+				result = f.result;
+			}
+			// Give the completed expression to the enclosing expressions, as long as they complete
+			while (true) {
+				if (frames.isEmpty()) return result;
+				f = frames.get(frames.size()-1);
+				f.accept(result);
+				if (f.advance()) break;
+				frames.remove(frames.size()-1);
+				result = f.result;
+			}
+		}
+	}
+
+	/** The expression parsed by the last call of beginExpr that returned null */
+	private /*@Nullable*/IExpr begun;
+
+	/** Parses the beginning of an expression. If the expression has sub-expressions that
+	 * have yet to be parsed, returns a frame for the expression; otherwise returns null, having
+	 * set 'begun' to the expression parsed (null with error messages if there is not a valid
+	 * expression in the token stream).
+	 */
+	private /*@Nullable*/ExprFrame beginExpr() throws ParserException {
 		// Here we suffer a bit for using a hand-written top-down parser.
 		// An IExpr can be
 		//		literal
@@ -440,10 +500,11 @@ public class Parser extends Lexer implements IParser {
 		//		( symbol ...
 		//		( ( _ symbol ...
 		//		( ( as ...
+		begun = null;
 		if (!isLP()) {
 			ILexToken token = getToken();
 			if (token instanceof SMTExpr.Error) return null;
-			if (token instanceof IExpr) return (IExpr)token; // FIXME - do we need to check that this is just a literal or symbol
+			if (token instanceof IExpr) { begun = (IExpr)token; return null; } // FIXME - do we need to check that this is just a literal or symbol
 			if (!(token instanceof SMTExpr.Error)) error("Expected an expression here",token.pos());
 			return null;
 		}
@@ -458,56 +519,208 @@ public class Parser extends Lexer implements IParser {
 		if (head instanceof ISymbol) { // in particular we want reserved words here
 			String s = ((ISymbol)head).value();
 			if (Utils.FORALL.equals(s)) {
-				List<IDeclaration> decls = parseDeclarations();
-				IExpr expr = decls == null ? null : parseExpr();
-				ILexToken rp = expr == null ? null : parseRP();
-				if (rp == null) { skipThruRP(); return null ; }
-				return setPos(smtConfig.exprFactory.forall(decls, expr), pos(lp.pos(), rp.pos()));
+				return new QuantifierFrame(lp,true);
 			} else if (Utils.EXISTS.equals(s)) {
-				List<IDeclaration> decls = parseDeclarations();
-				IExpr expr = decls == null ? null : parseExpr();
-				ILexToken rp = expr == null ? null : parseRP();
-				if (rp == null) { skipThruRP(); return null ; }
-				return setPos(smtConfig.exprFactory.exists(decls, expr), pos(lp.pos(), rp.pos()));
+				return new QuantifierFrame(lp,false);
 			} else if (Utils.LET.equals(s)) {
-				List<IBinding> decls = parseBindings();
-				IExpr expr = decls == null ? null : parseExpr();
-				ILexToken rp = expr == null ? null : parseRP();
-				if (rp == null) { skipThruRP(); return null ; }
-				return setPos(smtConfig.exprFactory.let(decls, expr), pos(lp.pos(), rp.pos()));
+				return new LetFrame(lp);
 			} else if (Utils.AS.equals(s)) {
-				return parseAsIdentifierRest(lp);
+				begun = parseAsIdentifierRest(lp);
+				return null;
 			} else if (Utils.UNDERSCORE.equals(s)) {
-				return parseIdentifierRest(lp);
+				begun = parseIdentifierRest(lp);
+				return null;
 			} else if (Utils.NAMED_EXPR.equals(s)) {
-				IExpr expr = parseExpr();
-				if (expr instanceof IExpr.IError) expr = null;
-				List<IAttribute<?>> list = parseAttributeSequence();
-				if (list == null) { skipThruRP(); return null; }
-				ILexToken rp = parseRP();
-				if (rp == null) { skipThruRP(); return null; }
-				return setPos(smtConfig.exprFactory.attributedExpr(expr,list),pos(lp.pos(), rp.pos()));
+				return new NamedFrame(lp);
 			}
 		}
-		List<IExpr> list = new LinkedList<IExpr>();
-		boolean anyErrors = false;
-		while (!isRP()) {
-			if (isEOD()) {
+		return new FcnFrame(lp,head);
+	}
+
+	/** The state of an expression being parsed by parseExpr whose sub-expressions are being parsed */
+	abstract private class ExprFrame {
+		/** The left parenthesis that begins the expression */
+		final protected ILexToken lp;
+		/** The expression, once it is complete (null if there are errors) */
+		protected /*@Nullable*/IExpr result = null;
+
+		ExprFrame(ILexToken lp) {
+			this.lp = lp;
+		}
+
+		/** Parses what follows the beginning of the expression or its latest sub-expression, up to
+		 * the next sub-expression; returns true if a sub-expression is next, or false if the
+		 * expression is complete (with 'result' set)
+		 */
+		abstract boolean advance() throws ParserException;
+
+		/** Receives the next sub-expression (null if it has errors) */
+		abstract void accept(/*@Nullable*/IExpr e) throws ParserException;
+	}
+
+	/** A function application, parsed as a sequence of argument expressions */
+	private class FcnFrame extends ExprFrame {
+		final private IQualifiedIdentifier head;
+		final private List<IExpr> list = new LinkedList<IExpr>();
+		private boolean anyErrors = false;
+
+		FcnFrame(ILexToken lp, IQualifiedIdentifier head) {
+			super(lp);
+			this.head = head;
+		}
+
+		@Override
+		boolean advance() throws ParserException {
+			if (!isRP()) {
+				if (!isEOD()) return true;
 				error("Unexpected end of data while parsing a sequence of expressions",pos(lp.pos().charStart(),currentPos()));
-				return null; 
+				return false; 
 			}
-			IExpr e = parseExpr();
+			if (anyErrors) { skipThruRP(); return false; }
+			ILexToken rp = parseRP();
+			if (rp == null) { skipThruRP(); return false; }
+			if (list.size() == 0) {
+				error("A function expression must have at least one argument",pos(lp.pos(),rp.pos()));
+				return false;
+			}
+			result = setPos(smtConfig.exprFactory.fcn(head,list), pos(lp.pos(), rp.pos()));
+			return false;
+		}
+
+		@Override
+		void accept(/*@Nullable*/IExpr e) {
 			if (e != null) list.add(e);
 			else anyErrors = true;
 		}
-		if (anyErrors) { skipThruRP(); return null; }
-		ILexToken rp = parseRP();
-		if (rp == null) { skipThruRP(); return null; }
-		if (list.size() == 0) {
-			error("A function expression must have at least one argument",pos(lp.pos(),rp.pos()));
-			return null;
+	}
+
+	/** A forall or exists expression */
+	private class QuantifierFrame extends ExprFrame {
+		final private boolean forall;
+		private /*@Nullable*/List<IDeclaration> decls;
+		private /*@Nullable*/IExpr expr;
+		private boolean started = false;
+
+		QuantifierFrame(ILexToken lp, boolean forall) {
+			super(lp);
+			this.forall = forall;
+		}
+
+		@Override
+		boolean advance() throws ParserException {
+			if (!started) {
+				started = true;
+				decls = parseDeclarations();
+				if (decls != null) return true;
+			}
+			ILexToken rp = expr == null ? null : parseRP();
+			if (rp == null) { skipThruRP(); return false ; }
+			result = setPos(forall ? smtConfig.exprFactory.forall(decls, expr) : smtConfig.exprFactory.exists(decls, expr), 
+					pos(lp.pos(), rp.pos()));
+			return false;
+		}
+
+		@Override
+		void accept(/*@Nullable*/IExpr e) {
+			expr = e;
+		}
+	}
+
+	/** A let expression, whose sub-expressions are the expressions of the bindings and then the body
+	 * (the bindings are parsed as by parseBindings and parseBinding) */
+	private class LetFrame extends ExprFrame {
+		/** The left parenthesis of the list of bindings */
+		private /*@Nullable*/ILexToken bindingsLp;
+		final private List<IBinding> decls = new LinkedList<IBinding>();
+		final private Set<ISymbol> names = new HashSet<ISymbol>();
+		/** The left parenthesis and symbol of the binding whose expression is being parsed,
+		 * if the expression of a binding is being parsed */
+		private /*@Nullable*/ILexToken bindingLp = null;
+		private /*@Nullable*/ISymbol bindingSym = null;
+		/** True once the body is being parsed */
+		private boolean inBody = false;
+		/** The body, once parsed */
+		private /*@Nullable*/IExpr expr = null;
+
+		LetFrame(ILexToken lp) throws ParserException {
+			super(lp);
+			bindingsLp = parseLP();
+		}
+
+		@Override
+		boolean advance() throws ParserException {
+			if (inBody) {
+				ILexToken rp = expr == null ? null : parseRP();
+				if (rp == null) { skipThruRP(); return false ; }
+				result = setPos(smtConfig.exprFactory.let(decls, expr), pos(lp.pos(), rp.pos()));
+				return false;
+			}
+			if (bindingsLp == null) { skipThruRP(); return false; }
+			if (isRP()) {
+				ILexToken rp = parseRP();
+				if (rp == null) { skipThruRP(); skipThruRP(); return false; }
+				inBody = true;
+				return true;
+			}
+			if (isEOD()) {
+				error("Unexpected end of data while parsing a sequence of parameter bindings",pos(bindingsLp.pos().charStart(),currentPos()));
+				skipThruRP();
+				return false; 
+			}
+			bindingLp = parseLP();
+			bindingSym = bindingLp == null ?  null : parseSymbol();
+			if (bindingSym == null) { skipThruRP(); skipThruRP(); return false; }
+			return true;
+		}
+
+		@Override
+		void accept(/*@Nullable*/IExpr e) throws ParserException {
+			if (inBody) {
+				expr = e;
+				return;
+			}
+			ILexToken rp = e == null ? null : parseRP();
+			if (rp == null) { 
+				skipThruRP(); 
+				bindingsLp = null; // so that advance gives up
+				return; 
+			}
+			ISymbol.ILetParameter p = new Symbol.LetParameter(bindingSym); // FIXME - use a factory
+			IBinding decl = setPos(smtConfig.exprFactory.binding(p,e), pos(bindingLp.pos(), rp.pos()));
+			decls.add(decl);
+			if (!names.add(decl.parameter())) {
+				error("Parameter list has a duplicate name: " + smtConfig.defaultPrinter.toString(decl.parameter()),decl.parameter().pos());
+				bindingsLp = null;
+			}
+		}
+	}
+
+	/** An attributed expression */
+	private class NamedFrame extends ExprFrame {
+		private boolean started = false;
+
+		NamedFrame(ILexToken lp) {
+			super(lp);
+		}
+
+		@Override
+		boolean advance() throws ParserException {
+			if (!started) {
+				started = true;
+				return true;
+			}
+			return false;
+		}
+
+		@Override
+		void accept(/*@Nullable*/IExpr expr) throws ParserException {
+			if (expr instanceof IExpr.IError) expr = null;
+			List<IAttribute<?>> list = parseAttributeSequence();
+			if (list == null) { skipThruRP(); return; }
+			ILexToken rp = parseRP();
+			if (rp == null) { skipThruRP(); return; }
+			result = setPos(smtConfig.exprFactory.attributedExpr(expr,list),pos(lp.pos(), rp.pos()));
 		}
-		return setPos(smtConfig.exprFactory.fcn(head,list), pos(lp.pos(), rp.pos()));
 	}
 	
 	/** Parses a parenthesized sequence of IDeclaration items, returning null with error messages if an error occurs */
@@ -970,6 +1183,87 @@ public class Parser extends Lexer implements IParser {
 		return sexpr;
 	}
 	
+	/** Parses the response to a get-model command: a parenthesized sequence (which may begin with
+	 * the symbol model) of declare-fun and define-fun commands; any other entries, such as the
+	 * cardinality constraints some solvers give for uninterpreted sorts, are skipped, as are 
+	 * entries that do not parse (the errors are logged).  The characters of each entry are 
+	 * released once it is parsed, so a long model read from a stream need not be held in full.
+	 * @return the model, or an error response if the text is an error or is not a model
+	 */
+	public IResponse parseModel() throws ParserException {
+		IResponse.IFactory f = smtConfig.responseFactory;
+		if (!isLP()) return f.error("Expected a model, instead of a " + peekToken().kind());
+		getToken();
+		IResponse.IError error = parseErrorRest();
+		if (error != null) return error;
+		if (peekToken() instanceof Symbol) {
+			Symbol sym = (Symbol)getToken();
+			if (!sym.value().equals("model")) {
+				skipThruRP();
+				return f.error("Expected a model, instead of an expression beginning with " + sym);
+			}
+		}
+		List<ICommand> definitions = new LinkedList<ICommand>();
+		while (isLP()) {
+			getToken();
+			ILexToken token = peekToken();
+			String name = token instanceof Symbol ? ((Symbol)token).value() : "";
+			ICommand command = null;
+			if (name.equals(org.smtlib.command.C_define_fun.commandName)) {
+				getToken();
+				command = org.smtlib.command.C_define_fun.parse(this);
+			} else if (name.equals(org.smtlib.command.C_declare_fun.commandName)) {
+				getToken();
+				command = org.smtlib.command.C_declare_fun.parse(this);
+			}
+			if (command != null && isRP()) {
+				getToken();
+				definitions.add(command);
+			} else {
+				skipThruRP();
+			}
+			source().release(currentPos());
+		}
+		if (!isRP()) return f.error("Expected the end of a model, instead of a " + peekToken().kind());
+		getToken();
+		return f.get_model_response(definitions);
+	}
+	
+	/** Parses the response to a get-value command: a parenthesized sequence of (term value) pairs
+	 * @return the value response, or an error response if the text is an error or is not a list of values
+	 */
+	public IResponse parseValues() throws ParserException {
+		IResponse.IFactory f = smtConfig.responseFactory;
+		if (!isLP()) return f.error("Expected a list of values, instead of a " + peekToken().kind());
+		getToken();
+		IResponse.IError error = parseErrorRest();
+		if (error != null) return error;
+		List<IResponse.IPair<IExpr,IExpr>> values = new LinkedList<IResponse.IPair<IExpr,IExpr>>();
+		while (isLP()) {
+			getToken();
+			IExpr term = parseExpr();
+			IExpr value = term == null ? null : parseExpr();
+			if (value == null || !isRP()) return f.error("Expected a term and its value");
+			getToken();
+			values.add(f.pair(term,value));
+		}
+		if (!isRP()) return f.error("Expected the end of a list of values, instead of a " + peekToken().kind());
+		getToken();
+		return f.get_value_response(values);
+	}
+	
+	/** Called just after a left parenthesis: if the next token is the symbol error, parses the rest of
+	 * an error response, (error "message"), and returns it; otherwise consumes nothing and returns null.
+	 */
+	private /*@Nullable*/ IResponse.IError parseErrorRest() throws ParserException {
+		ILexToken token = peekToken();
+		if (!(token instanceof Symbol) || !((Symbol)token).value().equals("error")) return null;
+		getToken();
+		StringLiteral msg = parseStringLiteral();
+		skipThruRP();
+		return smtConfig.responseFactory.error(msg == null ? "error" : msg.value());
+	}
+	
 	/** Parses a left parenthesis, returning null and emitting an error message
 	 *  if there isn't one (and the next token is not consumed)
 	 */
@@ -8,6 +8,9 @@ package org.smtlib.sexpr;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
 import org.smtlib.*;
@@ -33,6 +36,7 @@ import org.smtlib.IExpr.ISymbol;
 import org.smtlib.IResponse.IAssertionsResponse;
 import org.smtlib.IResponse.IAssignmentResponse;
 import org.smtlib.IResponse.IAttributeList;
+import org.smtlib.IResponse.IModel;
 import org.smtlib.IResponse.IProofResponse;
 import org.smtlib.IResponse.IUnsatCoreResponse;
 import org.smtlib.IResponse.IValueResponse;
@@ -41,6 +45,7 @@ import org.smtlib.ISort.IApplication;
 import org.smtlib.ISort.IFamily;
 import org.smtlib.ISort.IFcnSort;
 import org.smtlib.ISort.IParameter;
+import org.smtlib.impl.DagSharing;
 import org.smtlib.impl.SMTExpr;
 
 /** This class writes out SMT-LIB ASTs as concrete S-expression syntax; aside from white space
@@ -54,6 +59,14 @@ public class Printer implements IPrinter, org.smtlib.IVisitor</*@Nullable*/ Void
 	/** The writer to write text to */
 	public Writer writer() { return w; }
 	
+	/** If not null, expressions printed by print(...) are first rewritten by this object so that
+	 * shared subterms are printed just once, bound by a let */
+	protected /*@Nullable*/ DagSharing sharing = null;
+	
+	/** Sets the object used to rewrite expressions printed by print(...) so that shared subterms
+	 * are printed just once; null (the default) prints expressions as trees */
+	public void setSharing(/*@Nullable*/ DagSharing sharing) { this.sharing = sharing; }
+	
 	/** The system-dependent line termination */
 	static public final String eol = System.getProperty("line.separator");
 
@@ -63,9 +76,13 @@ public class Printer implements IPrinter, org.smtlib.IVisitor</*@Nullable*/ Void
 		this.w = w;
 	}
 	
-	/** Prints the argument to the receiver */
+	/** Prints the argument to the receiver, as a DAG if sharing has been set */
 	public <T extends IAccept> void print(T expr) throws IVisitor.VisitorException {
-		expr.accept(this);
+		if (sharing != null && expr instanceof IExpr) {
+			sharing.share((IExpr)expr).accept(this);
+		} else {
+			expr.accept(this);
+		}
 	}
 	
 	/** Returns the argument as a String using a Printer of the same type as the receiver,
@@ -213,71 +230,161 @@ public class Printer implements IPrinter, org.smtlib.IVisitor</*@Nullable*/ Void
 		return null;
 	}
 
-	@Override
-	public Void visit(IFcnExpr e) throws IVisitor.VisitorException {
-		try {
-			w.append("(");
-			e.head().accept(this);
-			for (IExpr a: e.args()) {
+	/** Returns true if this printer writes the given expression (a function application, let,
+	 * quantified or attributed expression) in the standard way, as Printer does; such expressions
+	 * within an expression being printed are written by the Traversal without recursion.  A
+	 * derived class that overrides the visit method for some of these expressions must return
+	 * false for the expressions its visit method writes differently.
+	 */
+	protected boolean inline(IExpr e) {
+		return true;
+	}
+
+	/** Writes what precedes the arguments of a function application written by a Traversal */
+	protected void open(IFcnExpr e) throws IOException, IVisitor.VisitorException {
+		w.append("(");
+		e.head().accept(this);
+		if (!e.args().isEmpty()) w.append(" ");
+	}
+
+	/** Writes what follows argument i of a function application written by a Traversal, if it
+	 * is not the last argument */
+	protected void between(IFcnExpr e, int i) throws IOException {
+		w.append(" ");
+	}
+
+	/** Writes what follows the arguments of a function application written by a Traversal */
+	protected void close(IFcnExpr e) throws IOException {
+		w.append(")");
+	}
+
+	/** Writes compound expressions (those accepted by inline()) with an explicit stack rather
+	 * than by recursion, so that the depth of an expression is not limited by the Java stack */
+	protected class Traversal extends IVisitor.PostOrder<Void> {
+		/** The expression being printed, which is always written by the traversal */
+		final protected IExpr root;
+
+		/** The bindings not yet written of the lets being written, innermost last */
+		final private List<Iterator<IBinding>> bindings = new ArrayList<Iterator<IBinding>>();
+
+		public Traversal(IExpr root) {
+			this.root = root;
+		}
+
+		@Override
+		protected /*@Nullable*/ List<? extends IExpr> children(IExpr e) throws IVisitor.VisitorException {
+			if (e != root && !inline(e)) return null;
+			try {
+				if (e instanceof IFcnExpr) {
+					open((IFcnExpr)e);
+					return ((IFcnExpr)e).args();
+				} else if (e instanceof IForall || e instanceof IExists) {
+					w.append(e instanceof IForall ? "(" + Utils.FORALL + " (" : "(" + Utils.EXISTS + " (");
+					for (IDeclaration a: e instanceof IForall ? ((IForall)e).parameters() : ((IExists)e).parameters()) {
+						a.accept(Printer.this);
+						w.append(" ");
+					}
+					w.append(") ");
+					return Collections.singletonList(e instanceof IForall ? ((IForall)e).expr() : ((IExists)e).expr());
+				} else if (e instanceof ILet) {
+					ILet let = (ILet)e;
+					w.append("(" + Utils.LET + " (");
+					List<IExpr> list = new ArrayList<IExpr>(let.bindings().size()+1);
+					for (IBinding b: let.bindings()) list.add(b.expr());
+					list.add(let.expr());
+					bindings.add(let.bindings().iterator());
+					before();
+					return list;
+				} else if (e instanceof IAttributedExpr) {
+					w.append("(" + Utils.NAMED_EXPR + " ");
+					return Collections.singletonList(((IAttributedExpr)e).expr());
+				}
+			} catch (IOException ex) {
+				throw exc(ex,e);
+			}
+			return null;
+		}
+
+		/** Writes what precedes the next child of the innermost let: the beginning of a binding or
+		 * the end of the bindings */
+		private void before() throws IOException, IVisitor.VisitorException {
+			Iterator<IBinding> iter = bindings.get(bindings.size()-1);
+			if (iter.hasNext()) {
+				w.append("(");
+				iter.next().parameter().accept(Printer.this);
 				w.append(" ");
-				a.accept(this);
+			} else {
+				w.append(") ");
 			}
-			w.append(")");
-		} catch (IOException ex) {
-			throw new IVisitor.VisitorException(ex,e.pos());
 		}
-		return null;
+
+		@Override
+		protected /*@Nullable*/ Void leaf(IExpr e) throws IVisitor.VisitorException {
+			return e.accept(Printer.this);
+		}
+
+		@Override
+		protected boolean next(IExpr e, int i, /*@Nullable*/ Void result) throws IVisitor.VisitorException {
+			try {
+				if (e instanceof IFcnExpr) {
+					if (i < ((IFcnExpr)e).args().size() - 1) between((IFcnExpr)e,i);
+				} else if (e instanceof ILet) {
+					if (i < ((ILet)e).bindings().size()) {
+						w.append(") ");
+						before();
+					}
+				}
+			} catch (IOException ex) {
+				throw exc(ex,e);
+			}
+			return true;
+		}
+
+		@Override
+		protected /*@Nullable*/ Void finish(IExpr e, List</*@Nullable*/ Void> results) throws IVisitor.VisitorException {
+			try {
+				if (e instanceof IFcnExpr) {
+					close((IFcnExpr)e);
+					return null;
+				} else if (e instanceof ILet) {
+					bindings.remove(bindings.size()-1);
+				} else if (e instanceof IAttributedExpr) {
+					for (IAttribute<?> a: ((IAttributedExpr)e).attributes()) {
+						w.append(" ");
+						a.accept(Printer.this);
+					}
+				}
+				w.append(")");
+			} catch (IOException ex) {
+				throw exc(ex,e);
+			}
+			return null;
+		}
+	}
+
+	/** Returns a new Traversal that writes the given expression */
+	protected Traversal traversal(IExpr root) {
+		return new Traversal(root);
+	}
+
+	@Override
+	public Void visit(IFcnExpr e) throws IVisitor.VisitorException {
+		return traversal(e).traverse(e);
 	}
 
 	@Override
 	public Void visit(IForall e) throws IVisitor.VisitorException {
-		try {
-			w.append("(" + Utils.FORALL + " (");
-			for (IDeclaration a: e.parameters()) {
-				a.accept(this);
-				w.append(" ");
-			}
-			w.append(") ");
-			e.expr().accept(this);
-			w.append(")");
-		} catch (IOException ex) {
-			throw new IVisitor.VisitorException(ex,e.pos());
-		}
-		return null;
+		return traversal(e).traverse(e);
 	}
 
 	@Override
 	public Void visit(IExists e) throws IVisitor.VisitorException {
-		try {
-			w.append("(" + Utils.EXISTS + " (");
-			for (IDeclaration a: e.parameters()) {
-				a.accept(this);
-				w.append(" ");
-			}
-			w.append(") ");
-			e.expr().accept(this);
-			w.append(")");
-		} catch (IOException ex) {
-			throw new IVisitor.VisitorException(ex,e.pos());
-		}
-		return null;
+		return traversal(e).traverse(e);
 	}
 
 	@Override
 	public Void visit(ILet e) throws IVisitor.VisitorException {
-		try {
-			w.append("(" + Utils.LET + " (");
-			for (IBinding a: e.bindings()) {
-				a.accept(this);
-				w.append(" ");
-			}
-			w.append(") ");
-			e.expr().accept(this);
-			w.append(")");
-		} catch (IOException ex) {
-			throw new IVisitor.VisitorException(ex,e.pos());
-		}
-		return null;
+		return traversal(e).traverse(e);
 	}
 
 	@Override
@@ -297,18 +404,7 @@ public class Printer implements IPrinter, org.smtlib.IVisitor</*@Nullable*/ Void
 
 	@Override
 	public Void visit(IAttributedExpr e) throws IVisitor.VisitorException {
-		try {
-			w.append("(" + Utils.NAMED_EXPR + " ");
-			e.expr().accept(this);
-			for (IAttribute<?> a: e.attributes()) {
-				w.append(" ");
-				a.accept(this);
-			}
-			w.append(")");
-		} catch (IOException ex) {
-			throw new VisitorException(ex,e.pos());
-		}
-		return null;
+		return traversal(e).traverse(e);
 	}
 
 	@Override
@@ -585,6 +681,23 @@ public class Printer implements IPrinter, org.smtlib.IVisitor</*@Nullable*/ Void
 		return null;
 	}
 
+	@Override
+	public Void visit(IModel e) throws IVisitor.VisitorException {
+		try {
+			w.append("(model");
+			w.append(eol);
+			for (ICommand c : e.definitions()) {
+				w.append("  ");
+				c.accept(this);
+				w.append(eol);
+			}
+			w.append(")");
+		} catch (IOException ex) {
+			throw new IVisitor.VisitorException(ex);
+		}
+		return null;
+	}
+
 	@Override
 	public Void visit(IUnsatCoreResponse e) throws IVisitor.VisitorException {
 		try {
@@ -8,6 +8,7 @@ package org.smtlib.solvers;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.io.Writer;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.*;
@@ -16,6 +17,7 @@ import java.util.regex.Pattern;
 
 import org.smtlib.*;
 import org.smtlib.ICommand.*;
+import org.smtlib.impl.DagSharing;
 import org.smtlib.impl.Pos;
 import org.smtlib.impl.SMTExpr.ParameterizedIdentifier;
 import org.smtlib.sexpr.ISexpr;
@@ -57,11 +59,16 @@ public class Solver_cvc extends Solver_test implements ISolver {
 	
 	final private String errorIndication = "rror";
 	
+	/** The positions of the commands written in batched mode whose responses have not yet been
+	 * read, in the order sent: a response's sequence number is its index in this list */
+	protected List<IPos> batched = new ArrayList<IPos>();
+	
 	/** Creates a solver object (which is not yet started)*/
 	public Solver_cvc(SMT.Configuration smtConfig, String executable) {
 		super(smtConfig,"");
 		cmds[0] = executable;
 		solverProcess = new SolverProcess(cmds,"CVC> ","solver.out.cvc");
+		if (smtConfig.statistics != null) solverProcess.statistics = smtConfig.statistics.channel("cvc");
 	}
 	
 	@Override
@@ -80,9 +87,61 @@ public class Solver_cvc extends Solver_test implements ISolver {
 		}
 	}
 	
+	/** Sends a command whose only response is the prompt, returning an error response if the solver
+	 * reports an error (at the given position) and null otherwise.  If the pipeline option is set,
+	 * the command is instead only written to the buffered channel to the solver, and null is
+	 * returned; the batch of such commands is sent, and the responses checked, by flushBatch().
+	 */
+	protected /*@Nullable*/ IResponse send(/*@Nullable*/ IPos pos, String... solverCmds) {
+		try {
+			if (smtConfig.pipeline) {
+				Writer w = solverProcess.writer();
+				for (String s: solverCmds) w.write(s);
+				batched.add(pos);
+				return null;
+			}
+			String response = solverProcess.sendAndListen(solverCmds);
+			if (response.contains(errorIndication)) {
+				return smtConfig.responseFactory.error(response,pos);
+			}
+			return null;
+		} catch (IOException e) {
+			return smtConfig.responseFactory.error("Failed to write to CVC: " + e,pos);
+		}
+	}
+	
+	/** The position of the given command, if it has one */
+	protected /*@Nullable*/ IPos pos(Object cmd) {
+		return cmd instanceof IPos.IPosable ? ((IPos.IPosable)cmd).pos() : null;
+	}
+	
+	/** Sends the batched commands in one write and reads their responses, logging any errors, in
+	 * order, each at the position of the command that caused it, just as they would have been
+	 * reported had the commands not been batched.  This must be called before any command whose
+	 * response is read directly; that command is then executed as usual.
+	 */
+	protected void flushBatch() {
+		if (batched.isEmpty()) return;
+		int sequence = 0;
+		try {
+			solverProcess.sendNoListen();
+			for (IPos pos: batched) {
+				++sequence;
+				String response = solverProcess.listen();
+				if (response.contains(errorIndication)) {
+					smtConfig.log.logError(smtConfig.responseFactory.error(response,pos));
+				}
+			}
+		} catch (IOException e) {
+			smtConfig.log.logError(smtConfig.responseFactory.error("Error reading from CVC: " + e, sequence == 0 ? null : batched.get(sequence-1)));
+		}
+		batched.clear();
+	}
+	
 	@Override
 	public IResponse exit() {
 		super.exit();
+		flushBatch();
 		solverProcess.exit();
 		if (smtConfig.verbose != 0) smtConfig.log.logDiag("Ended CVC ");
 		return smtConfig.responseFactory.success_exit();
@@ -96,13 +155,9 @@ public class Solver_cvc extends Solver_test implements ISolver {
 			IResponse status = super.assertExpr(sexpr);
 			if (!status.isOK()) return status;
 			String translated = translate(sexpr);
-			String response = solverProcess.sendAndListen("ASSERT " + translated + " ;\n");
-			if (response.contains(errorIndication)) {
-				return smtConfig.responseFactory.error(response);
-			}
+			IResponse response = send(sexpr.pos(),"ASSERT ",translated," ;\n");
+			if (response != null) return response;
 			return status;
-		} catch (IOException e) {
-			return smtConfig.responseFactory.error("Failed to assert expression: " + e + " " + sexpr, sexpr.pos());
 		} catch (VisitorException e) {
 			return smtConfig.responseFactory.error(e.getMessage(),e.pos());
 		}
@@ -114,6 +169,7 @@ public class Solver_cvc extends Solver_test implements ISolver {
 		IResponse status = super.check_sat();
 		if (status.isError()) return status;
 		try {
+			flushBatch();
 			String s = solverProcess.sendAndListen("CHECKSAT;\r\n");
 			//System.out.println("HEARD: " + s);
 			if (s.contains(errorIndication)) {
@@ -137,38 +193,26 @@ public class Solver_cvc extends Solver_test implements ISolver {
 //
 	@Override
 	public IResponse pop(int number) {
-		try {
-			IResponse status = super.pop(number);
-			if (!status.isOK()) return status;
-			if (number == 0) return smtConfig.responseFactory.success();
-			while (number-- > 0) {
-				String response = solverProcess.sendAndListen("POP;\n");
-				if (response.contains(errorIndication)) {
-					return smtConfig.responseFactory.error(response);
-				}
-			}
-			return status;
-		} catch (IOException e) {
-			return smtConfig.responseFactory.error("Failed to execute pop: " + e);
+		IResponse status = super.pop(number);
+		if (!status.isOK()) return status;
+		if (number == 0) return smtConfig.responseFactory.success();
+		while (number-- > 0) {
+			IResponse response = send(null,"POP;\n");
+			if (response != null) return response;
 		}
+		return status;
 	}
 
 	@Override
 	public IResponse push(int number) {
-		try {
-			IResponse status = super.push(number);
-			if (!status.isOK()) return status;
-			if (number == 0) return smtConfig.responseFactory.success();
-			while (number-- > 0) {
-				String response = solverProcess.sendAndListen("PUSH;\n");
-				if (response.contains(errorIndication)) {
-					return smtConfig.responseFactory.error(response);
-				}
-			}
-			return smtConfig.responseFactory.success();
-		} catch (IOException e) {
-			return smtConfig.responseFactory.error("Failed to execute push: " + e);
+		IResponse status = super.push(number);
+		if (!status.isOK()) return status;
+		if (number == 0) return smtConfig.responseFactory.success();
+		while (number-- > 0) {
+			IResponse response = send(null,"PUSH;\n");
+			if (response != null) return response;
 		}
+		return smtConfig.responseFactory.success();
 	}
 
 	@Override
@@ -251,7 +295,7 @@ public class Solver_cvc extends Solver_test implements ISolver {
 		} else if (":status".equals(option)) {
 			return checkSatStatus==null ? smtConfig.responseFactory.unsupported() : checkSatStatus; 
 		} else if (":all-statistics".equals(option)) {
-			return smtConfig.responseFactory.unsupported(); // FIXME
+			return Statistics.response(smtConfig);
 		} else if (":reason-unknown".equals(option)) {
 			return smtConfig.responseFactory.unsupported(); // FIXME
 		} else if (":authors".equals(option)) {
@@ -291,13 +335,9 @@ public class Solver_cvc extends Solver_test implements ISolver {
 				msg = msg + translate(cmd.resultSort());
 			}
 			msg = msg + ";\n";
-			String response = solverProcess.sendAndListen(msg);
-			if (response.contains(errorIndication)) {
-				return smtConfig.responseFactory.error(response);
-			}
+			IResponse response = send(pos(cmd),msg);
+			if (response != null) return response;
 			return smtConfig.responseFactory.success();
-		} catch (IOException e) {
-			return smtConfig.responseFactory.error("Failed to execute set_logic: " + e);
 		} catch (IVisitor.VisitorException e) {
 			return smtConfig.responseFactory.error("Failed to execute set_logic: " + e, e.pos());
 		}
@@ -341,16 +381,12 @@ public class Solver_cvc extends Solver_test implements ISolver {
 		try {
 			if (cmd.arity().value().intValue() == 0) {
 				String msg = encodeSort(cmd.sortSymbol()) + ": TYPE;\n";
-				String response = solverProcess.sendAndListen(msg);
-				if (response.contains(errorIndication)) {
-					return smtConfig.responseFactory.error(response);
-				}
+				IResponse response = send(pos(cmd),msg);
+				if (response != null) return response;
 				return res;
 			} else {
 				return smtConfig.responseFactory.error("CVC adapter does not implement parameterized user-defined sorts",cmd instanceof IPos.IPosable ? ((IPos.IPosable)cmd).pos() : null);
 			}
-		} catch (IOException e) {
-			return smtConfig.responseFactory.error("Failed to execute declare_sort: " + e);
 		} catch (VisitorException e) {
 			return smtConfig.responseFactory.error("Failed to execute declare_sort: " + e, e.pos());
 		}
@@ -368,10 +404,8 @@ public class Solver_cvc extends Solver_test implements ISolver {
 				def = name + ": " + resultSort + 
 					( def == null ? "" : (" = " + def )) + 
 					";\n";
-				String response = solverProcess.sendAndListen(def);
-				if (response.contains(errorIndication)) {
-					return smtConfig.responseFactory.error(response);
-				}
+				IResponse response = send(pos(cmd),def);
+				if (response != null) return response;
 				return res;
 			} else {
 				String name = encode(cmd.symbol());
@@ -413,14 +447,10 @@ public class Solver_cvc extends Solver_test implements ISolver {
 				def.append("): ");
 				def.append(translate(cmd.expression()));
 				def.append(";\n");
-				String response = solverProcess.sendAndListen(def.toString());
-				if (response.contains(errorIndication)) {
-					return smtConfig.responseFactory.error(response);
-				}
+				IResponse response = send(pos(cmd),def.toString());
+				if (response != null) return response;
 				return res;
 			}
-		} catch (IOException e) {
-			return smtConfig.responseFactory.error("Failed to execute define_fun: " + e);
 		} catch (VisitorException e) {
 			return smtConfig.responseFactory.error("Failed to execute define_fun: " + e, e.pos());
 		}
@@ -435,16 +465,12 @@ public class Solver_cvc extends Solver_test implements ISolver {
 				String def = translate(cmd.expression());
 				String head = encodeSort(cmd.sortSymbol());
 				def = head + ": TYPE = " + def + ";\n";
-				String response = solverProcess.sendAndListen(def);
-				if (response.contains(errorIndication)) {
-					return smtConfig.responseFactory.error(response);
-				}
+				IResponse response = send(pos(cmd),def);
+				if (response != null) return response;
 				return res;
 			} else {
 				return smtConfig.responseFactory.error("Parameterized sort definitions not implemented"); // FIXME
 			}
-		} catch (IOException e) {
-			return smtConfig.responseFactory.error("Failed to execute define_sort: " + e);
 		} catch (VisitorException e) {
 			return smtConfig.responseFactory.error("Failed to execute define_sort: " + e, e.pos());
 		}
@@ -470,13 +496,14 @@ public class Solver_cvc extends Solver_test implements ISolver {
 			return smtConfig.responseFactory.error("A get-value command is valid only after check-sat has returned sat or unknown");
 		}
 		try {
+			flushBatch();
 			String response = solverProcess.sendAndListen("COUNTERMODEL;\n");
 			List<ISexpr> valueslist = new LinkedList<ISexpr>();
 			org.smtlib.sexpr.Lexer lexer = new org.smtlib.sexpr.Lexer(smtConfig,null);
 			for (IExpr e: terms) {
 				List<ISexpr> values = new LinkedList<ISexpr>();
 				values.add(new Sexpr.Expr(e));
-				response = solverProcess.sendAndListen("TRANSFORM " + translate(e) + ";\n");
+				response = solverProcess.sendAndListen("TRANSFORM ",translate(e),";\n");
 				if (response.endsWith("CVC> ")) response = response.substring(0,response.length()-5).trim();
 				if (response.startsWith("0bin")) response = "#b" + response.substring(4);
 				else if (response.equals("TRUE")) response = "true";
@@ -545,6 +572,7 @@ public class Solver_cvc extends Solver_test implements ISolver {
 
 
 	public String translate(IExpr expr) throws IVisitor.VisitorException {
+		if (smtConfig.shareTerms) expr = new DagSharing(smtConfig.exprFactory).share(expr,typemap);
 		return expr.accept(new Translator(typemap,smtConfig));
 	}
 	
@@ -668,14 +696,8 @@ public class Solver_cvc extends Solver_test implements ISolver {
 				String name = encode(attr.attrValue());
 				String ex = expr.accept(this);
 				String def = name + " : " + "BOOLEAN" + " = " + ex + ";\n";
-				try {
-					String response = solverProcess.sendAndListen(def);
-					if (response.contains(errorIndication)) {
-						throw new VisitorException(response,e.pos());
-					}
-				} catch (IOException exc) {
-					throw new VisitorException("Failed to define attributed expression: " + exc, e.pos());
-				}
+				IResponse response = send(e.pos(),def);
+				if (response != null) throw new VisitorException(((IResponse.IError)response).errorMsg(),e.pos());
 				return ex;
 			} else {
 				throw new VisitorException("Unexpected kind of keyword: " + smtConfig.defaultPrinter.toString(attr.keyword()),attr.pos());
@@ -0,0 +1,587 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ */
+package org.smtlib.solvers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.smtlib.*;
+import org.smtlib.ICommand.Ideclare_fun;
+import org.smtlib.ICommand.Ideclare_sort;
+import org.smtlib.ICommand.Idefine_fun;
+import org.smtlib.ICommand.Idefine_sort;
+import org.smtlib.IExpr.IAttributeValue;
+import org.smtlib.IExpr.IKeyword;
+
+/** This class is an adapter that runs a portfolio of solvers: every command is sent to each of
+ * several backend solvers (each itself started through its own adapter), and check-sat returns
+ * the first definitive (sat or unsat) answer from any of them.
+ * <P>
+ * The backends are given as a list of solver names, each optionally followed by '=' and the
+ * executable to use, e.g. "z3_4_3=/usr/bin/z3,cvc"; this list is the executable (--exec) or the
+ * command property (org.smtlib.solver_portfolio.command) for the 'portfolio' solver.
+ * A solver named more than once is given a different :random-seed for each instance.
+ * <P>
+ * Each backend has its own thread, which executes that backend's commands in order.  When
+ * check-sat has an answer, the backends that are still working on it after a short grace period
+ * (the losers) are stopped and restarted in the background, replaying the commands that built up
+ * the current state; commands issued meanwhile wait in the backend's queue.  Commands that only
+ * query the state (get-value, get-model, etc.) go to the backend that answered the last check-sat.
+ * A backend whose response to a command disagrees with the response chosen (one is an error, the
+ * other is not) is dropped from the portfolio.
+ */
+public class Solver_portfolio extends AbstractSolver implements ISolver {
+
+	/** A reference to the SMT configuration */
+	protected SMT.Configuration smtConfig;
+
+	/** A reference to the SMT configuration */
+	@Override
+	public SMT.Configuration smt() { return smtConfig; }
+	
+	/** Rebinds the portfolio, the solvers it starts from now on and (in turn, after the commands
+	 * already queued) each backend */
+	@Override
+	public void rebind(final SMT.Configuration smtConfig) {
+		this.smtConfig = smtConfig;
+		if (starter != null) starter.smtConfig = smtConfig;
+		for (Backend b: backends) {
+			b.submit(new Op() {
+				@Override
+				public IResponse apply(ISolver s) {
+					s.rebind(smtConfig);
+					return smtConfig.responseFactory.success();
+				}
+			}, null);
+		}
+	}
+
+	/** The specifications of the backends */
+	protected String[] specs;
+
+	/** The backends, in the order given; dropped backends are removed */
+	protected List<Backend> backends = new LinkedList<Backend>();
+
+	/** The backend that answered the last check-sat, if any */
+	protected /*@Nullable*/ Backend winner = null;
+
+	/** The commands that built up the current state, replayed when a backend is restarted */
+	protected List<Op> history = new LinkedList<Op>();
+
+	/** The SMT object used to start backends (it holds the application properties) */
+	protected /*@Nullable*/ SMT starter = null;
+
+	/** The values of the options, as set through the portfolio (or the defaults); get-option is
+	 * answered from these without involving a backend */
+	protected Map<String,IAttributeValue> options = new HashMap<String,IAttributeValue>(Utils.defaults);
+
+	/** The checkSatStatus returned by check-sat, if sufficiently recent, otherwise null */
+	protected /*@Nullable*/ IResponse checkSatStatus = null;
+
+	@Override
+	public /*@Nullable*/IResponse checkSatStatus() { return checkSatStatus; }
+
+	/** The time (in milliseconds) that check-sat, once it has an answer, waits for the other
+	 * backends to finish before restarting those that are still busy */
+	final static protected long RESTART_GRACE_MILLIS = 50;
+
+	/** The time (in milliseconds) that stopping a backend waits for a restart that is starting its solver */
+	final static protected long STOP_WAIT_MILLIS = 5000;
+
+	/** A command to be applied to a backend solver */
+	static protected interface Op {
+		IResponse apply(ISolver solver);
+	}
+
+	/** A response from a backend */
+	static protected class Result {
+		final Backend backend;
+		final IResponse response;
+		Result(Backend backend, IResponse response) {
+			this.backend = backend;
+			this.response = response;
+		}
+	}
+
+	/** One backend solver, along with the thread that executes its commands */
+	protected class Backend {
+		/** The solver name and, optionally, the executable */
+		final String name;
+		final /*@Nullable*/ String executable;
+		/** The random seed to give the solver, or -1 if none */
+		final int seed;
+		/** The solver itself; it is replaced when the backend is restarted */
+		volatile /*@Nullable*/ ISolver solver = null;
+		/** The executor that runs this backend's commands in order */
+		ExecutorService queue;
+		/** The number of commands submitted but not yet completed */
+		final AtomicInteger pending = new AtomicInteger();
+		/** Set (under the backend's lock) while a restart is starting the solver; that is not
+		 * interrupted, since the start would fail and report an error, but abandoned afterwards */
+		boolean starting = false;
+		/** Set (under the backend's lock) once the backend is stopped */
+		boolean stopped = false;
+
+		Backend(String name, /*@Nullable*/ String executable, int seed) {
+			this.name = name;
+			this.executable = executable;
+			this.seed = seed;
+			queue = newQueue();
+		}
+
+		/** Creates the single thread that runs this backend's commands */
+		private ExecutorService newQueue() {
+			return Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r,"portfolio-" + name);
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+
+		/** Starts the solver (in the calling thread); returns null if that fails */
+		/*@Nullable*/ ISolver startSolver() {
+			ISolver s = starter.startSolver(smtConfig,name,executable);
+			if (s != null && seed >= 0) {
+				s.set_option(smtConfig.exprFactory.keyword(":random-seed"),smtConfig.exprFactory.numeral(seed));
+			}
+			return s;
+		}
+
+		/** Queues the command; when it has executed, its result is also added to the given queue (if not null).
+		 * The command is subject to the deadline of the calling thread, if any. */
+		Future<IResponse> submit(final Op op, final /*@Nullable*/ BlockingQueue<Result> results) {
+			pending.incrementAndGet();
+			final Deadline deadline = Deadline.current();
+			final ExecutorService q;
+			synchronized (this) { q = queue; }
+			return q.submit(new java.util.concurrent.Callable<IResponse>() {
+				@Override
+				public IResponse call() {
+					IResponse r;
+					Deadline previous = Deadline.bind(deadline);
+					try {
+						ISolver s;
+						synchronized (Backend.this) { s = isCurrent(q) ? solver : null; }
+						r = s == null ? smtConfig.responseFactory.error("The solver " + name + " is not running") : op.apply(s);
+					} catch (RuntimeException e) {
+						r = smtConfig.responseFactory.error("Solver " + name + " failed: " + e);
+					} finally {
+						Deadline.bind(previous);
+						done(q);
+					}
+					if (results != null) results.add(new Result(Backend.this,r));
+					return r;
+				}
+			});
+		}
+
+		/** Stops whatever the backend is doing and restarts its solver in the background,
+		 * replaying the given commands; later commands wait until that is done. */
+		void restart(final List<Op> replay) {
+			final ExecutorService q;
+			final ISolver old;
+			synchronized (this) {
+				halt();
+				old = solver;
+				solver = null;
+				pending.set(0);
+				q = queue = newQueue();
+				starting = true;
+			}
+			pending.incrementAndGet();
+			q.submit(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						exitSolver(old);
+						ISolver s = startSolver();
+						synchronized (Backend.this) {
+							if (queue == q) starting = false;
+							if (!isCurrent(q)) {
+								// Restarted again (or stopped) in the meantime
+								exitSolver(s);
+								return;
+							}
+							solver = s;
+						}
+						if (s != null) for (Op op: replay) op.apply(s);
+					} catch (RuntimeException e) {
+						synchronized (Backend.this) {
+							if (isCurrent(q)) solver = null;
+						}
+					} finally {
+						done(q);
+					}
+				}
+			});
+		}
+
+		/** Records that a command submitted to the given queue has completed; the count was reset
+		 * if the backend has been restarted since */
+		private synchronized void done(ExecutorService q) {
+			if (queue == q) pending.decrementAndGet();
+		}
+
+		/** Returns true if the given queue is that of the running backend; called with the lock held */
+		private boolean isCurrent(ExecutorService q) {
+			return queue == q && !stopped;
+		}
+
+		/** Stops the backend's queue, interrupting a command in progress - unless a restart is
+		 * starting the solver, which is left to notice that it has been superseded; the commands
+		 * still queued are discarded or (in the latter case) skipped.  Called with the lock held. */
+		private void halt() {
+			if (starting) {
+				starting = false;
+				queue.shutdown();
+			} else {
+				queue.shutdownNow();
+			}
+		}
+
+		/** Exits the given solver, if not null, ignoring any failure */
+		private void exitSolver(/*@Nullable*/ ISolver s) {
+			if (s == null) return;
+			try {
+				s.exit();
+			} catch (RuntimeException e) {
+				// Already stopped - ignore
+			}
+		}
+
+		/** Exits the solver and stops the backend's thread */
+		void stop() {
+			ISolver s;
+			ExecutorService q;
+			synchronized (this) {
+				halt();
+				stopped = true;
+				q = queue;
+				s = solver;
+				solver = null;
+			}
+			exitSolver(s);
+			try {
+				// Lets a restart in progress exit the solver it is starting
+				q.awaitTermination(STOP_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/** Creates a portfolio whose backends are given by a comma-separated list */
+	public Solver_portfolio(SMT.Configuration smtConfig, /*@NonNull*/ String executable) {
+		this(smtConfig, executable.split(","));
+	}
+
+	/** Creates a portfolio with the given backends */
+	public Solver_portfolio(SMT.Configuration smtConfig, /*@NonNull*/ String[] specs) {
+		this.smtConfig = smtConfig;
+		this.specs = specs;
+	}
+
+	@Override
+	public IResponse start() {
+		starter = new SMT();
+		starter.smtConfig = smtConfig;
+		starter.props = starter.readProperties();
+		Map<String,Integer> counts = new HashMap<String,Integer>();
+		for (String spec: specs) {
+			String name = spec.trim();
+			counts.put(name, counts.containsKey(name) ? counts.get(name)+1 : 1);
+		}
+		Map<String,Integer> seen = new HashMap<String,Integer>();
+		for (String spec: specs) {
+			spec = spec.trim();
+			if (spec.isEmpty()) continue;
+			int k = spec.indexOf('=');
+			String name = k < 0 ? spec : spec.substring(0,k);
+			String exec = k < 0 ? null : spec.substring(k+1);
+			int n = seen.containsKey(spec) ? seen.get(spec) : 0;
+			seen.put(spec, n+1);
+			Backend b = new Backend(name, exec, counts.get(spec) > 1 ? n : -1);
+			b.solver = b.startSolver();
+			if (b.solver == null) {
+				exit();
+				return smtConfig.responseFactory.error("Failed to start the portfolio solver " + spec);
+			}
+			backends.add(b);
+		}
+		if (backends.isEmpty()) return smtConfig.responseFactory.error("No solvers given for the portfolio");
+		if (smtConfig.verbose != 0) smtConfig.log.logDiag("Started portfolio of " + backends.size() + " solvers");
+		return smtConfig.responseFactory.success();
+	}
+
+	@Override
+	public IResponse exit() {
+		for (Backend b: backends) b.stop();
+		backends.clear();
+		if (smtConfig.verbose != 0) smtConfig.log.logDiag("Ended portfolio");
+		return smtConfig.responseFactory.success_exit();
+	}
+
+	/** Removes a backend from the portfolio */
+	protected void drop(Backend b, String reason) {
+		if (!backends.remove(b)) return;
+		if (smtConfig.verbose != 0) smtConfig.log.logDiag("#Dropping " + b.name + " from the portfolio: " + reason);
+		if (winner == b) winner = null;
+		b.stop();
+	}
+
+	/** Waits for a command's response */
+	protected IResponse get(Future<IResponse> f, Backend b) {
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			return smtConfig.responseFactory.error("Interrupted while waiting for " + b.name);
+		} catch (ExecutionException e) {
+			return smtConfig.responseFactory.error("Solver " + b.name + " failed: " + e.getCause());
+		} catch (java.util.concurrent.CancellationException e) {
+			return smtConfig.responseFactory.error("Solver " + b.name + " was stopped");
+		}
+	}
+
+	/** Sends a command that changes the solver state to all the backends.  The response is
+	 * that of the first (in order) backend that was not busy with earlier commands; the
+	 * command is recorded (if it succeeded) so it can be replayed on a restarted backend. */
+	protected IResponse broadcast(final Op op) {
+		if (backends.isEmpty()) return smtConfig.responseFactory.error("All solvers in the portfolio have failed");
+		List<Backend> ready = new ArrayList<Backend>();
+		final List<Backend> busy = new ArrayList<Backend>();
+		for (Backend b: backends) (b.pending.get() == 0 ? ready : busy).add(b);
+		if (ready.isEmpty()) ready.add(busy.remove(0));
+		Map<Backend,Future<IResponse>> futures = new HashMap<Backend,Future<IResponse>>();
+		for (Backend b: backends) futures.put(b, b.submit(op,null));
+		IResponse chosen = null;
+		for (Backend b: ready) {
+			IResponse r = get(futures.get(b),b);
+			if (chosen == null) chosen = r;
+			else if (r.isError() != chosen.isError()) drop(b, "response differs: " + smtConfig.defaultPrinter.toString(r));
+		}
+		// Busy backends are checked when they get to this command
+		final boolean chosenIsError = chosen.isError();
+		for (final Backend b: busy) {
+			final Future<IResponse> f = futures.get(b);
+			final ExecutorService q;
+			synchronized (b) { q = b.queue; }
+			q.submit(new Runnable() {
+				@Override
+				public void run() {
+					IResponse r = get(f,b);
+					boolean current;
+					synchronized (b) { current = b.isCurrent(q); }
+					if (current && r.isError() != chosenIsError) {
+						synchronized (Solver_portfolio.this) { droppedLater.add(b); }
+					}
+				}
+			});
+		}
+		dropLater();
+		if (!chosenIsError) history.add(op);
+		return chosen;
+	}
+
+	/** Backends found (on their own threads) to have diverged, to be dropped by the main thread */
+	final protected List<Backend> droppedLater = new LinkedList<Backend>();
+
+	/** Drops any backends found to have diverged */
+	protected void dropLater() {
+		List<Backend> list;
+		synchronized (this) {
+			list = new ArrayList<Backend>(droppedLater);
+			droppedLater.clear();
+		}
+		for (Backend b: list) drop(b, "response differs from the other solvers");
+	}
+
+	/** Sends a command that only queries the state to one backend: the one that answered the
+	 * last check-sat or, if none, the first one not busy */
+	protected IResponse query(Op op) {
+		dropLater();
+		if (backends.isEmpty()) return smtConfig.responseFactory.error("All solvers in the portfolio have failed");
+		Backend b = winner;
+		if (b == null) {
+			b = backends.get(0);
+			for (Backend bb: backends) if (bb.pending.get() == 0) { b = bb; break; }
+		}
+		return get(b.submit(op,null),b);
+	}
+
+	@Override
+	public IResponse check_sat() {
+		dropLater();
+		if (backends.isEmpty()) return smtConfig.responseFactory.error("All solvers in the portfolio have failed");
+		BlockingQueue<Result> results = new LinkedBlockingQueue<Result>();
+		Op op = new Op() { public IResponse apply(ISolver s) { return s.check_sat(); }};
+		for (Backend b: backends) b.submit(op,results);
+		List<Backend> remaining = new ArrayList<Backend>(backends);
+		Result first = null;
+		Result answer = null;
+		while (!remaining.isEmpty()) {
+			Result r;
+			try {
+				r = results.take();
+			} catch (InterruptedException e) {
+				return smtConfig.responseFactory.error("Interrupted while waiting for check-sat");
+			}
+			remaining.remove(r.backend);
+			if (first == null || (first.response.isError() && !r.response.isError())) first = r;
+			IResponse res = r.response;
+			if (res.equals(smtConfig.responseFactory.sat()) || res.equals(smtConfig.responseFactory.unsat())) {
+				answer = r;
+				break;
+			}
+		}
+		if (answer == null) answer = first;
+		winner = answer.backend;
+		if (smtConfig.verbose != 0) smtConfig.log.logDiag("#check-sat answered by " + winner.name);
+		// The others are given a moment to finish, since restarting a backend costs far more
+		long grace = System.nanoTime() + RESTART_GRACE_MILLIS*1000000L;
+		try {
+			while (!remaining.isEmpty()) {
+				long wait = grace - System.nanoTime();
+				if (wait <= 0) break;
+				Result r = results.poll(wait, TimeUnit.NANOSECONDS);
+				if (r == null) break;
+				remaining.remove(r.backend);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		// The losers still working on this check-sat are stopped and brought back up to date
+		for (Backend b: remaining) b.restart(new ArrayList<Op>(history));
+		checkSatStatus = answer.response;
+		return answer.response;
+	}
+
+	@Override
+	public IResponse reset() {
+		checkSatStatus = null;
+		winner = null;
+		IResponse r = broadcast(new Op() { public IResponse apply(ISolver s) { return s.reset(); }});
+		history.clear();
+		if (!r.isError()) options = new HashMap<String,IAttributeValue>(Utils.defaults);
+		return r;
+	}
+
+	@Override
+	public IResponse set_logic(final String logicName, final /*@Nullable*/ IPos pos) {
+		return broadcast(new Op() { public IResponse apply(ISolver s) { return s.set_logic(logicName,pos); }});
+	}
+
+	@Override
+	public IResponse push(final int number) {
+		checkSatStatus = null;
+		return broadcast(new Op() { public IResponse apply(ISolver s) { return s.push(number); }});
+	}
+
+	@Override
+	public IResponse pop(final int number) {
+		checkSatStatus = null;
+		return broadcast(new Op() { public IResponse apply(ISolver s) { return s.pop(number); }});
+	}
+
+	@Override
+	public IResponse assertExpr(final IExpr expr) {
+		checkSatStatus = null;
+		return broadcast(new Op() { public IResponse apply(ISolver s) { return s.assertExpr(expr); }});
+	}
+
+	@Override
+	public IResponse declare_fun(final Ideclare_fun cmd) {
+		return broadcast(new Op() { public IResponse apply(ISolver s) { return s.declare_fun(cmd); }});
+	}
+
+	@Override
+	public IResponse declare_sort(final Ideclare_sort cmd) {
+		return broadcast(new Op() { public IResponse apply(ISolver s) { return s.declare_sort(cmd); }});
+	}
+
+	@Override
+	public IResponse define_fun(final Idefine_fun cmd) {
+		return broadcast(new Op() { public IResponse apply(ISolver s) { return s.define_fun(cmd); }});
+	}
+
+	@Override
+	public IResponse define_sort(final Idefine_sort cmd) {
+		return broadcast(new Op() { public IResponse apply(ISolver s) { return s.define_sort(cmd); }});
+	}
+
+	@Override
+	public IResponse set_option(final IKeyword option, final IAttributeValue value) {
+		IResponse r = broadcast(new Op() { public IResponse apply(ISolver s) { return s.set_option(option,value); }});
+		if (!r.isError()) options.put(option.value(),value);
+		return r;
+	}
+
+	@Override
+	public IResponse set_info(final IKeyword key, final IAttributeValue value) {
+		return broadcast(new Op() { public IResponse apply(ISolver s) { return s.set_info(key,value); }});
+	}
+
+	@Override
+	public IResponse get_assertions() {
+		return query(new Op() { public IResponse apply(ISolver s) { return s.get_assertions(); }});
+	}
+
+	@Override
+	public IResponse get_model() {
+		return query(new Op() { public IResponse apply(ISolver s) { return s.get_model(); }});
+	}
+
+	@Override
+	public IResponse get_proof() {
+		return query(new Op() { public IResponse apply(ISolver s) { return s.get_proof(); }});
+	}
+
+	@Override
+	public IResponse get_unsat_core() {
+		return query(new Op() { public IResponse apply(ISolver s) { return s.get_unsat_core(); }});
+	}
+
+	@Override
+	public IResponse get_value(final IExpr... terms) {
+		return query(new Op() { public IResponse apply(ISolver s) { return s.get_value(terms); }});
+	}
+
+	@Override
+	public IResponse get_assignment() {
+		return query(new Op() { public IResponse apply(ISolver s) { return s.get_assignment(); }});
+	}
+
+	@Override
+	public IResponse get_option(final IKeyword option) {
+		// Answered here if possible, since it is asked after every command (for :print-success)
+		IAttributeValue value = options.get(option.value());
+		if (value != null) return value;
+		return query(new Op() { public IResponse apply(ISolver s) { return s.get_option(option); }});
+	}
+
+	@Override
+	public IResponse get_info(final IKeyword option) {
+		return query(new Op() { public IResponse apply(ISolver s) { return s.get_info(option); }});
+	}
+
+	@Override
+	public IResponse evalExpr(final IExpr formula) {
+		return query(new Op() { public IResponse apply(ISolver s) { return s.evalExpr(formula); }});
+	}
+}
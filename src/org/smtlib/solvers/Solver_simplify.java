@@ -6,6 +6,8 @@
 package org.smtlib.solvers;
 
 import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -26,6 +28,7 @@ import org.smtlib.IExpr.IAttributedExpr;
 import org.smtlib.IResponse.IAssertionsResponse;
 import org.smtlib.IResponse.IAssignmentResponse;
 import org.smtlib.IResponse.IAttributeList;
+import org.smtlib.IResponse.IModel;
 import org.smtlib.IResponse.IProofResponse;
 import org.smtlib.IResponse.IUnsatCoreResponse;
 import org.smtlib.IResponse.IValueResponse;
@@ -36,6 +39,7 @@ import org.smtlib.ISort.IFcnSort;
 import org.smtlib.ISort.IParameter;
 import org.smtlib.IExpr.*;
 import org.smtlib.IVisitor.VisitorException;
+import org.smtlib.impl.DagSharing;
 
 // Note - simplify appears to have problems if the set of assertions pushed
 // via BG_PUSH are not consistent.  At least, it does not produce counterexample
@@ -47,11 +51,11 @@ import org.smtlib.IVisitor.VisitorException;
  * the background or checking that it is valid.  Assertions that are pushed (via BG_PUSH)
  * appear to be filtered out of counterexamples.  Thus for now we will only use
  * BG_PUSH for background theory axioms; for the rest we will accumulate all assertions
- * into one giant AND (in the conjunction field) and then assert them all at once to Simplify
+ * (in the conjuncts field) and then assert them all at once to Simplify, as one giant AND,
  * when check-sat is called.  The usual push and pop will not be sent to Simplify - rather
- * we save the state of 'conjunction' ourselves.  This implements the letter if not the
- * spirit of push and pop, and it may have performance implications.  If it does, we'll
- * optimize the implementation then. */
+ * we record ourselves how many assertions there were at each push.  This implements the letter
+ * if not the spirit of push and pop; the assertions are kept only once, however many pushes
+ * there are, and are written to Simplify one by one rather than first being joined. */
 public class Solver_simplify extends Solver_test implements ISolver {
 	
 	/** Just to hold the command line to launch Simplify */
@@ -63,12 +67,16 @@ public class Solver_simplify extends Solver_test implements ISolver {
 	/** Accumulates the translated expressions from various asserts, in order
 	 * to send them all at once with a check-sat command.
 	 */
-	private String conjunction = "";
+	private List<String> conjuncts = new ArrayList<String>();
 
-	/** The stack on which to save instances of 'conjunction' */
-	private List<String> pushesStack = new LinkedList<String>();
+	/** Binds the shared subterms of expressions (when smtConfig.shareTerms); since Simplify has
+	 * no let, bound names become global, so one object is kept so that every name is new */
+	private /*@Nullable*/ DagSharing sharing = null;
+
+	/** The stack on which to save the number of conjuncts at each push, most recent first */
+	private List<Integer> pushesStack = new LinkedList<Integer>();
 	{
-		pushesStack.add("");
+		pushesStack.add(0);
 	}
 	
 	/** Constructor with standard signature for invocation through reflection */
@@ -76,6 +84,7 @@ public class Solver_simplify extends Solver_test implements ISolver {
 		super(smtConfig,"");
 		cmds[0] = executable;
 		solverProcess = new SolverProcess(cmds,">\t","solver.out.simplify");
+		if (smtConfig.statistics != null) solverProcess.statistics = smtConfig.statistics.channel("simplify");
 	}
 	
 	@Override
@@ -109,7 +118,7 @@ public class Solver_simplify extends Solver_test implements ISolver {
 			if (translatedSexpr == null) {
 				return smtConfig.responseFactory.error("Failure in translating expression: " + smtConfig.defaultPrinter.toString(sexpr), sexpr.pos());
 			}
-			conjunction = conjunction + " \n" + translatedSexpr;
+			conjuncts.add(translatedSexpr);
 			//String s = solverProcess.sendAndListen("(BG_PUSH ",translatedSexpr," )\r\n");
 			//System.out.println("HEARD: " + s);
 		} catch (VisitorException e) {
@@ -134,8 +143,19 @@ public class Solver_simplify extends Solver_test implements ISolver {
 //			else if (s.contains("Invalid.")) res = smtConfig.responseFactory.sat();
 //			else res = smtConfig.responseFactory.unknown();
 			
-			String msg = "(NOT (AND TRUE " + conjunction + "\n))\n";
-			String s = solverProcess.sendAndListen(msg);
+			Writer w = solverProcess.writer();
+			try {
+				w.write("(NOT (AND TRUE ");
+				for (String conjunct: conjuncts) {
+					w.write(" \n");
+					w.write(conjunct);
+				}
+			} catch (IOException e) {
+				// Do not leave a partial conjunction to be sent ahead of the next command
+				if (!solverProcess.discard()) throw new IOException("An incomplete command was sent to the solver: " + e.getMessage());
+				throw e;
+			}
+			String s = solverProcess.sendAndListen("\n))\n");
 			// FIXME - what about errors in SImplify
 			//smtConfig.log.logOut("HEARD: " + s);
 			if (s.contains("Valid.")) res = smtConfig.responseFactory.unsat();
@@ -218,7 +238,8 @@ public class Solver_simplify extends Solver_test implements ISolver {
 		if (!status.isOK()) return status;
 		try {
 			while (--number >= 0) { 
-				conjunction = pushesStack.remove(0);
+				int n = pushesStack.remove(0);
+				conjuncts.subList(n,conjuncts.size()).clear();
 				String s = solverProcess.sendAndListen("(BG_POP)");
 				// FIXME - check for error in s -- System.out.println("HEARD " + s);
 			}
@@ -235,7 +256,7 @@ public class Solver_simplify extends Solver_test implements ISolver {
 		if (!status.isOK()) return status;
 		try {
 			while (--number >= 0) { 
-				pushesStack.add(0,conjunction);
+				pushesStack.add(0,conjuncts.size());
 				String s = solverProcess.sendAndListen("(BG_PUSH (EQ 0 0))");
 				// FIXME - check for error in s -- System.out.println("HEARD " + s);
 			}
@@ -300,7 +321,7 @@ public class Solver_simplify extends Solver_test implements ISolver {
 		} else if (Utils.REASON_UNKNOWN.equals(option)) {
 			return smtConfig.responseFactory.unsupported();
 		} else if (Utils.ALL_STATISTICS.equals(option)) {
-			return smtConfig.responseFactory.unsupported();
+			return Statistics.response(smtConfig);
 		} else {
 			return smtConfig.responseFactory.unsupported();
 		}
@@ -371,6 +392,10 @@ public class Solver_simplify extends Solver_test implements ISolver {
 
 	
 	public /*@Nullable*/String translate(IExpr expr) throws IVisitor.VisitorException {
+		if (smtConfig.shareTerms) {
+			if (sharing == null) sharing = new DagSharing(smtConfig.exprFactory);
+			expr = sharing.share(expr,typemap);
+		}
 		Translator t = new Translator(typemap,smtConfig);
 		String r = expr.accept(t);
 		if (t.conjuncts.isEmpty()) return r;
@@ -934,6 +959,12 @@ public class Solver_simplify extends Solver_test implements ISolver {
 			return null;
 		}
 
+		@Override
+		public String visit(IModel e) throws VisitorException {
+			// TODO Auto-generated method stub
+			return null;
+		}
+
 		@Override
 		public String visit(IUnsatCoreResponse e) throws VisitorException {
 			// TODO Auto-generated method stub
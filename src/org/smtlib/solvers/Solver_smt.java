@@ -14,6 +14,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -31,6 +32,7 @@ import org.smtlib.IExpr.IKeyword;
 import org.smtlib.IExpr.INumeral;
 import org.smtlib.IExpr.IStringLiteral;
 import org.smtlib.IParser.ParserException;
+import org.smtlib.impl.DagSharing;
 import org.smtlib.impl.Pos;
 
 /** This class is an adapter that takes the SMT-LIB ASTs and translates them into SMT commands */
@@ -43,6 +45,11 @@ public class Solver_smt extends AbstractSolver implements ISolver {
 	@Override
 	public SMT.Configuration smt() { return smtConfig; }
 	
+	@Override
+	public void rebind(SMT.Configuration smtConfig) {
+		this.smtConfig = smtConfig;
+	}
+	
 	/** The command-line arguments for launching the solver */
 	String cmds[]; 
 
@@ -70,6 +77,7 @@ public class Solver_smt extends AbstractSolver implements ISolver {
 		this.smtConfig = smtConfig;
 		cmds = new String[] { executable };
 		solverProcess = new SolverProcess(cmds,"> ","solver.out.smt"); // FIXME - what prompt?
+		if (smtConfig.statistics != null) solverProcess.statistics = smtConfig.statistics.channel("smt");
 		responseParser = new org.smtlib.sexpr.Parser(smt(),new Pos.Source("",null));
 	}
 	
@@ -77,6 +85,7 @@ public class Solver_smt extends AbstractSolver implements ISolver {
 		this.smtConfig = smtConfig;
 		cmds = executable;
 		solverProcess = new SolverProcess(cmds,"> ","solver.out.smt"); // FIXME - what prompt?
+		if (smtConfig.statistics != null) solverProcess.statistics = smtConfig.statistics.channel("smt");
 		responseParser = new org.smtlib.sexpr.Parser(smt(),new Pos.Source("",null));
 	}
 	
@@ -103,19 +112,40 @@ public class Solver_smt extends AbstractSolver implements ISolver {
 	/** Translates an S-expression into standard SMT syntax */
 	protected String translateSMT(IAccept sexpr) throws IVisitor.VisitorException {
 		StringWriter sw = new StringWriter();
-		org.smtlib.sexpr.Printer.write(sw,sexpr);
+		translate(sw,sexpr);
 		return sw.toString();
 	}
 	
+	/** Translates an S-expression into SMT syntax, writing the result to the given Writer */
+	protected void translate(Writer w, IAccept sexpr) throws IVisitor.VisitorException {
+		org.smtlib.sexpr.Printer p = new org.smtlib.sexpr.Printer(w);
+		if (smtConfig.shareTerms) p.setSharing(new DagSharing(smtConfig.exprFactory));
+		p.print(sexpr);
+	}
+	
+	/** Writes the prefix and the translation of the S-expression directly to the solver, as part
+	 * of a command to be completed by a call of a send method; if the translation fails, the partial
+	 * command is discarded, or an IOException is thrown if it has already been (partly) sent.
+	 */
+	protected void writeTranslated(String prefix, IAccept sexpr) throws IOException, IVisitor.VisitorException {
+		Writer w = solverProcess.writer();
+		try {
+			w.write(prefix);
+			translate(w,sexpr);
+		} catch (IVisitor.VisitorException e) {
+			if (!solverProcess.discard()) throw new IOException("An incomplete command was sent to the solver: " + e.getMessage());
+			throw e;
+		}
+	}
+	
 	public IResponse sendCommand(ICommand cmd) {
-		String translatedCmd = null;
 		try {
-			translatedCmd = translate(cmd);
-			return parseResponse(solverProcess.sendAndListen(translatedCmd,"\n"));
+			writeTranslated("",cmd);
+			return parseResponse(solverProcess.sendAndListen("\n"));
 		} catch (IOException e) {
-			return smtConfig.responseFactory.error("Error writing to solver: " + translatedCmd + " " + e);
+			return smtConfig.responseFactory.error("Error writing to solver: " + e);
 		} catch (IVisitor.VisitorException e) {
-			return smtConfig.responseFactory.error("Error writing to solver: " + translatedCmd + " " + e);
+			return smtConfig.responseFactory.error("Error writing to solver: " + e);
 		}
 	}
 	
@@ -176,7 +206,8 @@ public class Solver_smt extends AbstractSolver implements ISolver {
 	@Override
 	public IResponse assertExpr(IExpr sexpr) {
 		try {
-			return sendCommand("(assert " + translate(sexpr) + ")");
+			writeTranslated("(assert ",sexpr);
+			return sendCommand(")");
 		} catch (IVisitor.VisitorException e) {
 			return smtConfig.responseFactory.error("Failed to assert expression: " + e + " " + sexpr);
 		} catch (Exception e) {
@@ -378,11 +409,10 @@ public class Solver_smt extends AbstractSolver implements ISolver {
 		// Try passing in command FIXME
 		//return sendCommand(new org.smtlib.command.C_get_value(terms));
 		try {
-			solverProcess.sendNoListen("(get-value (");
+			solverProcess.writer().write("(get-value (");
 			for (IExpr e: terms) {
-				solverProcess.sendNoListen("(");
-				solverProcess.sendNoListen(" ",translate(e));
-				solverProcess.sendNoListen(")");
+				writeTranslated("( ",e);
+				solverProcess.writer().write(")");
 			}
 			// FIXME - z3 does not make pairs of the result
 			String r = solverProcess.sendAndListen("))\n");
@@ -32,6 +32,12 @@ public class Solver_test implements ISolver {
 	
 	/** Returns the reference to the configuration currently in use. */
 	public SMT.Configuration smt() { return smtConfig; }
+	
+	@Override
+	public void rebind(SMT.Configuration smtConfig) {
+		this.smtConfig = smtConfig;
+		symTable.smtConfig = smtConfig;
+	}
 
 	/** The symbol table used by this solver */
 	public SymbolTable symTable; // TODO - public for the sake of C_what - change to protected
@@ -52,9 +58,10 @@ public class Solver_test implements ISolver {
 	public /*@Nullable*/IResponse checkSatStatus() { return checkSatStatus; }
 
 	/** A map holding the sorts of subexpressions, used for distinguishing formulas and terms
-	 * for solvers for which that needs to be done.
+	 * for solvers for which that needs to be done.  In streaming mode it holds just those of
+	 * the most recent command (so that it does not grow with the length of the input).
 	 */
-	protected Map<IExpr,ISort> typemap = new HashMap<IExpr,ISort>();
+	protected Map<IExpr,ISort> typemap = new IdentityHashMap<IExpr,ISort>();
 	
 	/** The data structure that maintains the current values of options and info items for this solver. */
 	protected Map<String,IAttributeValue> options = new HashMap<String,IAttributeValue>();
@@ -95,6 +102,7 @@ public class Solver_test implements ISolver {
 		if (!logicSet) {
 			return smtConfig.responseFactory.error("The logic must be set before an assert command is issued");
 		}
+		if (smtConfig.streaming) { typemap.clear(); symTable.clearChecked(); }
 		List<IResponse> errs = TypeChecker.check(this.symTable,expr,typemap);
 		if (errs != null && !errs.isEmpty()) {
 			return errs.get(0); // FIXME - return all errors, not just the first
@@ -354,7 +362,7 @@ public class Solver_test implements ISolver {
 		} else if (Utils.REASON_UNKNOWN.equals(option)) {
 			return smtConfig.responseFactory.unsupported();
 		} else if (Utils.ALL_STATISTICS.equals(option)) {
-			return smtConfig.responseFactory.unsupported();
+			return Statistics.response(smtConfig);
 			
 //		} else if ((value = Utils.stringInfo.get(option)) != null) {
 //			lit = smtConfig.exprFactory.unquotedString(value);
@@ -396,6 +404,7 @@ public class Solver_test implements ISolver {
 			return smtConfig.responseFactory.error("The logic must be set before a define-fun command is issued");
 		}
 		String encodedName = encode(cmd.symbol());
+		if (smtConfig.streaming) { typemap.clear(); symTable.clearChecked(); }
 		List<IResponse> list = TypeChecker.checkFcn(symTable, typemap, cmd.symbol(), cmd.parameters(),cmd.resultSort(),cmd.expression(),cmd instanceof IPosable ? ((IPosable)cmd).pos(): null);
 		if (list.isEmpty()) {
 			ISort args[] = new ISort[cmd.parameters().size()];
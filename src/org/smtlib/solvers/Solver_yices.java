@@ -9,9 +9,12 @@ import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.regex.Matcher;
@@ -44,6 +47,7 @@ import org.smtlib.IExpr.IStringLiteral;
 import org.smtlib.IExpr.ISymbol;
 import org.smtlib.IParser.ParserException;
 import org.smtlib.IVisitor.VisitorException;
+import org.smtlib.impl.DagSharing;
 import org.smtlib.impl.Pos;
 import org.smtlib.impl.SMTExpr.ParameterizedIdentifier;
 
@@ -74,6 +78,7 @@ public class Solver_yices extends Solver_test implements ISolver {
 		super(smtConfig,"");
 		cmds[0] = executable;
 		solverProcess = new SolverProcess(cmds,"yices > ","solver.out.yices");
+		if (smtConfig.statistics != null) solverProcess.statistics = smtConfig.statistics.channel("yices");
 	}
 	
 	@Override
@@ -88,9 +93,25 @@ public class Solver_yices extends Solver_test implements ISolver {
 		}
 	}
 	
+	/** The positions of the commands written in batched mode whose responses have not yet been
+	 * read, in the order sent: a response's sequence number is its index in this list */
+	protected List<IPos> batched = new ArrayList<IPos>();
+	
+	/** Sends a command whose only response is the prompt, returning an error response if the solver
+	 * reports an error (at the given position) and null otherwise.  If the pipeline option is set,
+	 * the command is instead only written to the buffered channel to the solver, and null is
+	 * returned; the batch of such commands is sent, and the responses checked, by flushBatch().
+	 */
 	protected /*@Nullable*/ IResponse send(IPos pos, String... solverCmds) {
 		try {
-			for (String s: solverCmds) solverProcess.sendNoListen(s);
+			// The pieces are written to the buffered channel to the solver and sent together
+			Writer w = solverProcess.writer();
+			for (String s: solverCmds) w.write(s);
+			if (smtConfig.pipeline) {
+				w.write("\n");
+				batched.add(pos);
+				return null;
+			}
 			String response = solverProcess.sendAndListen("\n");
 			if (response.contains(errorIndication)) {
 				return smtConfig.responseFactory.error(response,pos);
@@ -100,6 +121,29 @@ public class Solver_yices extends Solver_test implements ISolver {
 			return smtConfig.responseFactory.error(e.getMessage(),pos);
 		}
 	}
+	
+	/** Sends the batched commands in one write and reads their responses, logging any errors, in
+	 * order, each at the position of the command that caused it, just as they would have been
+	 * reported had the commands not been batched.  This must be called before any command whose
+	 * response is read directly; that command is then executed as usual.
+	 */
+	protected void flushBatch() {
+		if (batched.isEmpty()) return;
+		int sequence = 0;
+		try {
+			solverProcess.sendNoListen();
+			for (IPos pos: batched) {
+				++sequence;
+				String response = solverProcess.listen();
+				if (response.contains(errorIndication)) {
+					smtConfig.log.logError(smtConfig.responseFactory.error(response,pos));
+				}
+			}
+		} catch (IOException e) {
+			smtConfig.log.logError(smtConfig.responseFactory.error("Error reading from Yices solver: " + e, sequence == 0 ? null : batched.get(sequence-1)));
+		}
+		batched.clear();
+	}
 
 	// FIXME - are we capturing errors from the solver?
 	
@@ -107,6 +151,7 @@ public class Solver_yices extends Solver_test implements ISolver {
 	public IResponse exit() {
 		IResponse r = send(null,"(exit)");
 		if (r != null) return r;
+		flushBatch();
 		solverProcess.exit();
 		if (smtConfig.verbose != 0) smtConfig.log.logDiag("Ended yices ");
 		return smtConfig.responseFactory.success_exit();
@@ -133,6 +178,7 @@ public class Solver_yices extends Solver_test implements ISolver {
 		if (res.isError()) return res;
 
 		try {
+			flushBatch();
 			String s = solverProcess.sendAndListen("(check)\r\n");
 			if (s.contains(errorIndication)) {
 				return smtConfig.responseFactory.error(s);
@@ -298,7 +344,7 @@ public class Solver_yices extends Solver_test implements ISolver {
 		} else if (":status".equals(option)) {
 			return checkSatStatus==null ? smtConfig.responseFactory.unsupported() : checkSatStatus; 
 		} else if (":all-statistics".equals(option)) {
-			return smtConfig.responseFactory.unsupported(); // FIXME
+			return Statistics.response(smtConfig);
 		} else if (":reason-unknown".equals(option)) {
 			return smtConfig.responseFactory.unsupported(); // FIXME
 		} else if (":authors".equals(option)) {
@@ -432,6 +478,7 @@ public class Solver_yices extends Solver_test implements ISolver {
 		IResponse status = super.get_proof();
 		if (status.isError()) return status;
 		try {
+			flushBatch();
 			String response = solverProcess.sendAndListen("(get-proof)\n");
 			if (response.contains(errorIndication)) {
 				return smtConfig.responseFactory.error(response);
@@ -447,6 +494,7 @@ public class Solver_yices extends Solver_test implements ISolver {
 		IResponse status = super.get_unsat_core();
 		if (status.isError()) return status;
 		try {
+			flushBatch();
 			String response = solverProcess.sendAndListen("(get-unsat-core)\n");
 			if (response.contains(errorIndication)) {
 				return smtConfig.responseFactory.error(response);
@@ -462,6 +510,7 @@ public class Solver_yices extends Solver_test implements ISolver {
 		IResponse status = super.get_assignment();
 		if (status.isError()) return status;
 		try {
+			flushBatch();
 			String response = solverProcess.sendAndListen("(get-assignment)\n");
 			if (response.contains(errorIndication)) {
 				return smtConfig.responseFactory.error(response);
@@ -477,6 +526,7 @@ public class Solver_yices extends Solver_test implements ISolver {
 		IResponse status = super.get_value(terms);
 		if (status.isError()) return status;
 		try {
+			flushBatch();
 			solverProcess.sendNoListen("(get-value");
 			for (IExpr e: terms) {
 				solverProcess.sendNoListen(" ",translate(e));
@@ -494,6 +544,7 @@ public class Solver_yices extends Solver_test implements ISolver {
 	}
 	
 	public /*@Nullable*/ String translate(IExpr expr) throws IVisitor.VisitorException {
+		if (smtConfig.shareTerms) expr = new DagSharing(smtConfig.exprFactory).share(expr,typemap);
 		return expr.accept(new Translator());
 	}
 	
@@ -1,7 +1,6 @@
 package org.smtlib.solvers;
 
 import java.io.IOException;
-import java.io.StringWriter;
 import java.io.Writer;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -13,6 +12,7 @@ import org.smtlib.IExpr.IFcnExpr;
 import org.smtlib.IExpr.IHexLiteral;
 import org.smtlib.IExpr.IParameterizedIdentifier;
 import org.smtlib.IExpr.IQualifiedIdentifier;
+import org.smtlib.impl.DagSharing;
 import org.smtlib.sexpr.ISexpr;
 import org.smtlib.sexpr.ISexpr.ISeq;
 import org.smtlib.sexpr.Sexpr;
@@ -24,6 +24,7 @@ public class Solver_z3_2_11 extends Solver_z3_4_3 {
 		super(smtConfig,executable);
 		cmds = new String[]{ executable, "/smt2","/in","/m"}; 
 		solverProcess.setCmd(cmds);
+		if (smtConfig.statistics != null) solverProcess.statistics = smtConfig.statistics.channel("z3_2_11");
 		NAME_VALUE = "z3-2.11";
 		VERSION_VALUE = "2.11";
 	}
@@ -55,9 +56,9 @@ public class Solver_z3_2_11 extends Solver_z3_4_3 {
 			return smtConfig.responseFactory.error("A get-value command is valid only after check-sat has returned sat or unknown");
 		}
 		try {
-			solverProcess.sendNoListen("(get-value (");
+			solverProcess.writer().write("(get-value (");
 			for (IExpr e: terms) {
-				solverProcess.sendNoListen(" ",translate(e));
+				writeTranslated(" ",e);
 			}
 			String r = solverProcess.sendAndListen("))\n");
 			IResponse response = parseResponse(r);
@@ -81,14 +82,14 @@ public class Solver_z3_2_11 extends Solver_z3_4_3 {
 		}
 	}
 
-	/** Translates an S-expression into Z3 syntax */
+	/** Translates an S-expression into Z3 syntax, writing the result to the given Writer */
 	@Override
-	protected String translate(IAccept sexpr) throws IVisitor.VisitorException {
+	protected void translate(Writer w, IAccept sexpr) throws IVisitor.VisitorException {
 		// The z3 solver uses the standard S-expression concrete syntax, but not quite
 		// so we have to use our own translator
-		StringWriter sw = new StringWriter();
-		sexpr.accept(new Translator(sw));
-		return sw.toString();
+		Translator t = new Translator(w);
+		if (smtConfig.shareTerms) t.setSharing(new DagSharing(smtConfig.exprFactory));
+		t.print(sexpr);
 	}
 	
 	public class Translator extends Solver_z3_4_3.Translator {
@@ -193,41 +194,45 @@ public class Solver_z3_2_11 extends Solver_z3_4_3 {
 //			return sb.toString();
 //		}
 
+		/** xor, like -, is written with its arguments grouped to the left */
+		@Override
+		protected boolean isLeftAssoc(IFcnExpr e) {
+			return super.isLeftAssoc(e) || (e.args().size() > 2 && e.head().toString().equals("xor"));
+		}
+
+		/** Chainable and right-associative operators (and xor of one argument) are visited separately */
+		@Override
+		protected boolean inline(IExpr e) {
+			if (!(e instanceof IFcnExpr)) return true;
+			IFcnExpr f = (IFcnExpr)e;
+			String fcnname = f.head().toString();
+			return !f.args().isEmpty() && !(fcnname.equals("=") || fcnname.equals("<") || fcnname.equals(">")
+					|| fcnname.equals("<=") || fcnname.equals(">=") || fcnname.equals("=>")
+					|| (f.args().size() == 1 && fcnname.equals("xor")));
+		}
+
 		@Override
 		public Void visit(IFcnExpr e) throws IVisitor.VisitorException {
-			try {
-				Iterator<IExpr> iter = e.args().iterator();
-				if (!iter.hasNext()) throw new VisitorException("Did not expect an empty argument list",e.pos());
-				IQualifiedIdentifier fcn = e.head();
-				String fcnname = fcn.toString(); // FIXME - fcn.accept(this);
-				int length = e.args().size();
-				if (fcnname.equals("=") || fcnname.equals("<") || fcnname.equals(">") || fcnname.equals("<=") || fcnname.equals(">=")) {
-					// chainable
-					chainable(fcnname,iter);
-				} else if (fcnname.equals("xor")) {
-					// left-associative operators that need grouping
-					leftassoc(fcnname,length,iter);
-				} else if (length > 1 && fcnname.equals("-")) {
-					// left-associative operators that need grouping
-					leftassoc(fcnname,length,iter);
-				} else if (fcnname.equals("=>")) {
-					// right-associative operators that need grouping
-					if (!iter.hasNext()) {
-						throw new VisitorException("=> operation without arguments",e.pos());
-					}
-					rightassoc(fcnname,iter);
-				} else {
-					// no associativity 
-					w.append("( ");
-					w.append(fcnname);
-					while (iter.hasNext()) {
-						w.append(" ");
-						iter.next().accept(this);
-					}
-					w.append(" )");
+			Iterator<IExpr> iter = e.args().iterator();
+			if (!iter.hasNext()) throw new VisitorException("Did not expect an empty argument list",e.pos());
+			IQualifiedIdentifier fcn = e.head();
+			String fcnname = fcn.toString(); // FIXME - fcn.accept(this);
+			int length = e.args().size();
+			if (fcnname.equals("=") || fcnname.equals("<") || fcnname.equals(">") || fcnname.equals("<=") || fcnname.equals(">=")) {
+				// chainable
+				chainable(fcnname,iter);
+			} else if (fcnname.equals("xor") && length == 1) {
+				// left-associative operators that need grouping
+				leftassoc(fcnname,length,iter);
+			} else if (fcnname.equals("=>")) {
+				// right-associative operators that need grouping
+				if (!iter.hasNext()) {
+					throw new VisitorException("=> operation without arguments",e.pos());
 				}
-			} catch (IOException ex) {
-				throw new IVisitor.VisitorException(ex,e.pos());
+				rightassoc(fcnname,iter);
+			} else {
+				// no associativity, or left-associative operators (see isLeftAssoc)
+				super.visit(e);
 			}
 			return null;
 		}
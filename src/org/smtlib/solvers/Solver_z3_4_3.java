@@ -13,6 +13,7 @@ package org.smtlib.solvers;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.io.Reader;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.util.HashMap;
@@ -20,8 +21,8 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.smtlib.*;
 import org.smtlib.ICommand.Ideclare_fun;
@@ -37,6 +38,7 @@ import org.smtlib.IExpr.INumeral;
 import org.smtlib.IExpr.IQualifiedIdentifier;
 import org.smtlib.IExpr.IStringLiteral;
 import org.smtlib.IParser.ParserException;
+import org.smtlib.impl.DagSharing;
 import org.smtlib.impl.Pos;
 import org.smtlib.sexpr.Printer;
 
@@ -53,13 +55,21 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 	/** A reference to the SMT configuration */
 	public SMT.Configuration smt() { return smtConfig; }
 	
+	@Override
+	public void rebind(SMT.Configuration smtConfig) {
+		this.smtConfig = smtConfig;
+	}
+	
 	/** The command-line arguments for launching the Z3 solver */
 	protected String cmds[] = new String[]{ "", "/smt2","/in","SMTLIB2_COMPLIANT=true"}; 
 
 	/** The object that interacts with external processes */
 	protected SolverProcess solverProcess;
 	
-	/** The parser that parses responses from the solver */
+	/** The text of the response being parsed by responseParser */
+	final protected ResponseText responseText = new ResponseText();
+	
+	/** The parser that parses responses from the solver; it is restarted on each response */
 	protected org.smtlib.sexpr.Parser responseParser;
 	
 	/** Set to true once a set-logic command has been executed */
@@ -70,6 +80,9 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 	
 	@Override
 	public /*@Nullable*/IResponse checkSatStatus() { return checkSatStatus; }
+	
+	/** The model read by the last get-model command, if checkSatStatus has not changed since, otherwise null */
+	protected /*@Nullable*/ IResponse.IModel model = null;
 
 	/** The number of assertions on the top assertion stack */
 	private int pushes = 0; // FIXME - not needed
@@ -86,12 +99,30 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 		options.putAll(Utils.defaults);
 	}
 	
+	/** A pipelined command whose response has not yet been checked for errors */
+	static protected class Deferred {
+		/** The response, once read */
+		final protected Future<String> response;
+		
+		/** The position of the command, if known */
+		final protected /*@Nullable*/ IPos pos;
+		
+		protected Deferred(Future<String> response, /*@Nullable*/ IPos pos) {
+			this.response = response;
+			this.pos = pos;
+		}
+	}
+	
+	/** Pipelined commands that have not yet been checked for errors, oldest first */
+	protected List<Deferred> deferred = new LinkedList<Deferred>();
+	
 	/** Creates an instance of the Z3 solver */
 	public Solver_z3_4_3(SMT.Configuration smtConfig, /*@NonNull*/ String executable) {
 		this.smtConfig = smtConfig;
 		cmds[0] = executable;
 		solverProcess = new SolverProcess(cmds,"\n","solver.out.z3");
-		responseParser = new org.smtlib.sexpr.Parser(smt(),new Pos.Source("",null));
+		if (smtConfig.statistics != null) solverProcess.statistics = smtConfig.statistics.channel("z3_4_3");
+		responseParser = new org.smtlib.sexpr.Parser(smt(),new Pos.Source(responseText,null));
 	}
 	
 	@Override
@@ -111,6 +142,7 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 	@Override
 	public IResponse exit() {
 		try {
+			flushPipeline();
 			solverProcess.sendAndListen("(exit)\n");
 			solverProcess.exit();
 			if (smtConfig.verbose != 0) smtConfig.log.logDiag("Ended Z3 ");
@@ -123,11 +155,16 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 	@Override
 	public IResponse reset() {
 		try {
+			flushPipeline();
 			String s = solverProcess.sendAndListen("(reset)\n");
 			IResponse response = parseResponse(s);
+			// A reset also resets the options, so restore those that start() sets
+			if (smtConfig.solverVerbosity > 0) solverProcess.sendNoListen("(set-option :verbosity ",Integer.toString(smtConfig.solverVerbosity),")");
+			solverProcess.sendAndListen("(set-option :print-success true)\n");
 			//need to reset the state so far on our side as well
 			logicSet=false;
 			checkSatStatus = null;
+			model = null;
 			pushes = 0;
 			pushesStack = new LinkedList<Integer>();
 			pushesStack.add(0);
@@ -141,13 +178,36 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 	
 	/** Translates an S-expression into Z3 syntax */
 	protected String translate(IAccept sexpr) throws IVisitor.VisitorException {
-		// The z3 solver uses the standard S-expression concrete syntax, but not quite
-		// so we have to use our own translator
 		StringWriter sw = new StringWriter();
-		sexpr.accept(new Translator(sw));
+		translate(sw,sexpr);
 		return sw.toString();
 	}
 	
+	/** Translates an S-expression into Z3 syntax, writing the result to the given Writer */
+	protected void translate(Writer w, IAccept sexpr) throws IVisitor.VisitorException {
+		// The z3 solver uses the standard S-expression concrete syntax, but not quite
+		// so we have to use our own translator
+		Translator t = new Translator(w);
+		if (smtConfig.shareTerms) t.setSharing(new DagSharing(smtConfig.exprFactory));
+		t.print(sexpr);
+	}
+	
+	/** Writes the prefix and the translation of the S-expression directly to the solver, as part
+	 * of a command to be completed by a call of a send method.  If the translation fails, the
+	 * partial command is discarded; if it cannot be (because a large part of it has already been
+	 * sent), an IOException is thrown instead, as the solver then has an incomplete command.
+	 */
+	protected void writeTranslated(String prefix, IAccept sexpr) throws IOException, IVisitor.VisitorException {
+		Writer w = solverProcess.writer();
+		try {
+			w.write(prefix);
+			translate(w,sexpr);
+		} catch (IVisitor.VisitorException e) {
+			if (!solverProcess.discard()) throw new IOException("An incomplete command was sent to the solver: " + e.getMessage());
+			throw e;
+		}
+	}
+	
 	/** Translates an S-expression into standard SMT syntax */
 	protected String translateSMT(IAccept sexpr) throws IVisitor.VisitorException {
 		// The z3 solver uses the standard S-expression concrete syntax, but not quite
@@ -156,37 +216,263 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 		return sw.toString();
 	}
 	
+	/** Decodes a response from the solver.  The common responses (success, sat, unsat, unknown,
+	 * unsupported) are recognized directly in the text, without allocating anything, as are error
+	 * responses; any other response is parsed by responseParser, which is restarted on the new text.
+	 */
 	protected IResponse parseResponse(String response) {
+		IResponse.IFactory f = smtConfig.responseFactory;
+		int start = 0;
+		int end = response.length();
+		while (start < end && response.charAt(start) <= ' ') start++;
+		while (end > start && response.charAt(end-1) <= ' ') end--;
+		if (isWord(response,start,end,"success")) return f.success();
+		if (isWord(response,start,end,"sat")) return f.sat();
+		if (isWord(response,start,end,"unsat")) return f.unsat();
+		if (isWord(response,start,end,"unknown")) return f.unknown();
+		if (isWord(response,start,end,"unsupported")) return f.unsupported();
+		if (response.indexOf('[') >= 0) response = convertBitVectors(response);
+		if (response.contains("error")) return decodeError(response);
 		try {
-			Pattern oldbv = Pattern.compile("bv([0-9]+)\\[([0-9]+)\\]");
-			Matcher mm = oldbv.matcher(response);
-			while (mm.find()) {
-				long val = Long.parseLong(mm.group(1));
-				int base = Integer.parseInt(mm.group(2));
-				String bits = "";
-				for (int i=0; i<base; i++) { bits = ((val&1)==0 ? "0" : "1") + bits; val = val >>> 1; }
-				response = response.substring(0,mm.start()) + "#b" + bits + response.substring(mm.end(),response.length());
-				mm = oldbv.matcher(response);
-			}
-			if (response.contains("error")) {
-				Pattern p = Pattern.compile("\\p{Space}*\\(\\p{Blank}*error\\p{Blank}+\"(([\\p{Print}\\p{Space}&&[^\"\\\\]]|\\\\\")*)\"\\p{Blank}*\\)");
-				Matcher m = p.matcher(response);
-				String concat = "";
-				while (m.lookingAt()) {
-					if (!concat.isEmpty()) concat = concat + "; ";
-					String matched = m.group(1);
-					concat = concat + matched;
-					m.region(m.end(0),m.regionEnd());
-				}
-				if (!concat.isEmpty()) response = concat;
-				return smtConfig.responseFactory.error(response);
-			}
-			responseParser = new org.smtlib.sexpr.Parser(smt(),new Pos.Source(response,null));
+			responseText.set(response);
+			responseParser.restart();
 			return responseParser.parseResponse(response);
 		} catch (ParserException e) {
 			return smtConfig.responseFactory.error("ParserException while parsing response: " + response + " " + e);
 		}
 	}
+	
+	/** Returns true if the text from start to end is the given word */
+	static private boolean isWord(String text, int start, int end, String word) {
+		return end - start == word.length() && text.startsWith(word,start);
+	}
+	
+	/** Returns the error response for a response that contains the word error: its message is that
+	 * of the (error "message") responses with which the response begins, separated by semicolons,
+	 * or the whole response if it does not begin with one.
+	 */
+	protected IResponse decodeError(String response) {
+		StringBuilder concat = new StringBuilder();
+		int n = response.length();
+		int p = 0;
+		while (true) {
+			int i = p;
+			while (i < n && isSpace(response.charAt(i))) i++;
+			if (i == n || response.charAt(i) != '(') break;
+			i++;
+			while (i < n && isBlank(response.charAt(i))) i++;
+			if (!response.startsWith("error",i)) break;
+			i += 5;
+			int k = i;
+			while (i < n && isBlank(response.charAt(i))) i++;
+			if (i == k || i == n || response.charAt(i) != '"') break;
+			int msgStart = ++i;
+			// The message is printable characters and white space, with no quotes except as \"
+			while (i < n) {
+				char c = response.charAt(i);
+				if (c == '\\' && i+1 < n && response.charAt(i+1) == '"') i += 2;
+				else if (c != '"' && c != '\\' && ((c >= ' ' && c <= '~') || isSpace(c))) i++;
+				else break;
+			}
+			if (i == n || response.charAt(i) != '"') break;
+			int msgEnd = i++;
+			while (i < n && isBlank(response.charAt(i))) i++;
+			if (i == n || response.charAt(i) != ')') break;
+			p = i + 1;
+			if (concat.length() != 0) concat.append("; ");
+			concat.append(response,msgStart,msgEnd);
+		}
+		return smtConfig.responseFactory.error(concat.length() != 0 ? concat.toString() : response);
+	}
+	
+	static private boolean isSpace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+	
+	static private boolean isBlank(char c) {
+		return c == ' ' || c == '\t';
+	}
+	
+	/** Rewrites the bit-vector literals of the old syntax, bvN[W], as binary literals #b..., in one pass */
+	static protected String convertBitVectors(String response) {
+		StringBuilder sb = null;
+		int copied = 0; // the text before this position has been copied to sb
+		int n = response.length();
+		for (int i = response.indexOf("bv"); i >= 0; i = response.indexOf("bv",i+1)) {
+			int j = i + 2;
+			while (j < n && Character.isDigit(response.charAt(j))) j++;
+			if (j == i + 2 || j == n || response.charAt(j) != '[') continue;
+			int k = j + 1;
+			while (k < n && Character.isDigit(response.charAt(k))) k++;
+			if (k == j + 1 || k == n || response.charAt(k) != ']') continue;
+			long val;
+			int width;
+			try {
+				val = Long.parseLong(response,i+2,j,10);
+				width = Integer.parseInt(response,j+1,k,10);
+			} catch (NumberFormatException e) {
+				continue;
+			}
+			if (sb == null) sb = new StringBuilder(n);
+			sb.append(response,copied,i).append("#b");
+			for (int b = width-1; b >= 0; b--) sb.append(b < 64 && ((val >>> b) & 1) != 0 ? '1' : '0');
+			copied = k + 1;
+			i = k;
+		}
+		if (sb == null) return response;
+		sb.append(response,copied,n);
+		return sb.toString();
+	}
+	
+	/** A Reader that rewrites the bit-vector literals of the old syntax, bvN[W], in the text read
+	 * through it as binary literals (as convertBitVectors does for a whole response), so that a
+	 * response can be parsed as it arrives */
+	static protected class BitVectorReader extends Reader {
+		/** The reader of the original text */
+		final private Reader in;
+		/** Characters read from in but not yet examined, from pos to lim */
+		final private char[] buf = new char[4096];
+		private int pos = 0;
+		private int lim = 0;
+		/** Rewritten text not yet returned, from done on */
+		final private StringBuilder ready = new StringBuilder();
+		private int done = 0;
+
+		public BitVectorReader(Reader in) {
+			this.in = in;
+		}
+
+		/** Returns the next character of the original text, or -1 at its end */
+		private int next() throws IOException {
+			if (pos == lim) {
+				lim = in.read(buf,0,buf.length);
+				pos = 0;
+				if (lim <= 0) {
+					lim = 0;
+					return -1;
+				}
+			}
+			return buf[pos++];
+		}
+
+		/** Returns the character just obtained from next() to those not yet examined */
+		private void unread(int c) {
+			if (c >= 0) pos--;
+		}
+
+		/** Appends the digits that follow to ready, returning how many there were */
+		private int digits() throws IOException {
+			int n = 0;
+			int c;
+			while ((c = next()) >= '0' && c <= '9') {
+				ready.append((char)c);
+				n++;
+			}
+			unread(c);
+			return n;
+		}
+
+		/** Fills ready with the next piece of rewritten text, returning false at the end of the text */
+		private boolean fill() throws IOException {
+			ready.setLength(0);
+			done = 0;
+			int c = next();
+			if (c < 0) return false;
+			ready.append((char)c);
+			if (c != 'b') {
+				int k = pos;
+				while (k < lim && buf[k] != 'b') k++;
+				ready.append(buf,pos,k-pos);
+				pos = k;
+				return true;
+			}
+			if ((c = next()) != 'v') { unread(c); return true; }
+			ready.append('v');
+			if (digits() == 0) return true;
+			if ((c = next()) != '[') { unread(c); return true; }
+			ready.append('[');
+			if (digits() == 0) return true;
+			if ((c = next()) != ']') { unread(c); return true; }
+			ready.append(']');
+			String converted = convertBitVectors(ready.toString());
+			ready.setLength(0);
+			ready.append(converted);
+			return true;
+		}
+
+		@Override
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			if (len == 0) return 0;
+			if (done == ready.length() && !fill()) return -1;
+			int n = Math.min(len, ready.length() - done);
+			ready.getChars(done, done+n, cbuf, off);
+			done += n;
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+	/** A CharSequence whose characters are those of a String that may be replaced, so that the
+	 * response parser can be reused for each response */
+	static protected class ResponseText implements CharSequence {
+		private String text = "";
+		
+		public void set(String text) { this.text = text; }
+		
+		@Override
+		public int length() { return text.length(); }
+		
+		@Override
+		public char charAt(int index) { return text.charAt(index); }
+		
+		@Override
+		public CharSequence subSequence(int start, int end) { return text.subSequence(start,end); }
+		
+		@Override
+		public String toString() { return text; }
+	}
+
+	/** Sends a command (at the given position, if known) whose normal response is success; if the
+	 * pipeline option is set, the command is sent without waiting and success is returned, the
+	 * actual response being checked later by flushPipeline().
+	 */
+	protected IResponse sendCommand(/*@Nullable*/ IPos pos, String ... args) throws IOException {
+		if (!smtConfig.pipeline) return parseResponse(solverProcess.sendAndListen(args));
+		deferred.add(new Deferred(solverProcess.sendPipelined(args),pos));
+		return smtConfig.responseFactory.success();
+	}
+	
+	/** Returns the position of the given command, if it has one */
+	protected /*@Nullable*/ IPos pos(Object cmd) {
+		return cmd instanceof IPos.IPosable ? ((IPos.IPosable)cmd).pos() : null;
+	}
+	
+	/** Reads and checks the responses of all pipelined commands, logging any errors, in order, each
+	 * at the position of the command that caused it, just as they would have been reported had the
+	 * commands not been pipelined.  This must be called before any command whose response is read
+	 * directly; that command is then executed as usual.
+	 */
+	protected void flushPipeline() {
+		for (Deferred d: deferred) {
+			IResponse r;
+			try {
+				r = parseResponse(d.response.get());
+			} catch (ExecutionException e) {
+				r = smtConfig.responseFactory.error("Error reading from Z3 solver: " + e.getCause());
+			} catch (InterruptedException e) {
+				r = smtConfig.responseFactory.error("Interrupted while reading from Z3 solver");
+			}
+			if (!r.isError()) continue;
+			IResponse.IError error = (IResponse.IError)r;
+			if (error.pos() == null && d.pos != null) error.setPos(d.pos);
+			smtConfig.log.logError(error);
+		}
+		deferred.clear();
+	}
 
 	@Override
 	public IResponse assertExpr(IExpr sexpr) {
@@ -198,10 +484,11 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 			return smtConfig.responseFactory.error("The logic must be set before an assert command is issued");
 		}
 		try {			
-			String s = solverProcess.sendAndListen("(assert ",translate(sexpr),")\n");
-			response = parseResponse(s);
+			writeTranslated("(assert ",sexpr);
+			response = sendCommand(sexpr.pos(),")\n");
 			pushes++; // FIXME
 			checkSatStatus = null;
+			model = null;
 		} catch (IVisitor.VisitorException e) {
 			return smtConfig.responseFactory.error("Failed to assert expression: " + e + " " + sexpr);
 		} catch (Exception e) {
@@ -221,10 +508,13 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 			return smtConfig.responseFactory.error("The get-model command is only valid immediately after check-sat returned sat");
 		}
 		try {			
-			String s = solverProcess.sendAndListen("(eval ",translate(sexpr),")\n");
+			flushPipeline();
+			writeTranslated("(eval ",sexpr);
+			String s = solverProcess.sendAndListen(")\n");
 			s = s.trim();
 			pushes++; // FIXME
 			checkSatStatus = null;
+			model = null;
 			return smtConfig.responseFactory.stringLiteral(s);			
 		} catch (IVisitor.VisitorException e) {
 			return smtConfig.responseFactory.error("Failed to evaluate expression: " + e + " " + sexpr);
@@ -242,6 +532,7 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 			return smtConfig.responseFactory.error("The get-assertions command is only valid if :interactive-mode has been enabled");
 		}
 		try {
+			flushPipeline();
 			StringBuilder sb = new StringBuilder();
 			String s;
 			int parens = 0;
@@ -287,35 +578,35 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 			return smtConfig.responseFactory.error("The get-model command is only valid immediately after check-sat returned sat");
 		}
 		
-		//get the model from Z3 and return it
-		try
-		{
-			StringBuilder sb = new StringBuilder();
-			String s;
-			int parens = 0;
-			do 
-			{
-				if (parens != 0)
-					s = solverProcess.listen();
-				else
-					s = solverProcess.sendAndListen("(get-model)\n");
-				int p = -1;
-				while (( p = s.indexOf('(',p+1)) != -1) parens++;
-				p = -1;
-				while (( p = s.indexOf(')',p+1)) != -1) parens--;
-				sb.append(s.replace("\r",""));
-			} while (parens > 0);
-			s=sb.toString().trim();
-			try {			
-				return smtConfig.responseFactory.stringLiteral(s);				
-			} catch (Exception e ) {
-				// continue - fall through
-			}
-			return smtConfig.responseFactory.error("Unexpected output from the Z3 solver: " + s);
+		if (model != null) return model;
+		
+		//get the model from Z3, parsing it as it is read, and keep it for get-value
+		try {
+			flushPipeline();
+			solverProcess.sendNoListen("(get-model)\n");
+			IResponse response = readResponse(true);
+			if (response instanceof IResponse.IModel) model = (IResponse.IModel)response;
+			return response;
 		} catch (IOException e) {
 			return smtConfig.responseFactory.error("IOException while reading Z3 reponse");
 		}
 	}
+	
+	/** Reads a model (if isModel is true) or a list of values from the solver, parsing the response as
+	 * it arrives rather than first collecting it into a String; bit-vector literals are converted
+	 * as in parseResponse.
+	 */
+	protected IResponse readResponse(boolean isModel) throws IOException {
+		Reader r = new BitVectorReader(solverProcess.listenReader());
+		try {
+			org.smtlib.sexpr.Parser p = new org.smtlib.sexpr.Parser(smt(),new Pos.Source(new CharSequenceReader(r,10000,0,2),null));
+			return isModel ? p.parseModel() : p.parseValues();
+		} catch (ParserException e) {
+			return smtConfig.responseFactory.error("Unexpected output from the Z3 solver: " + e);
+		} finally {
+			r.close();
+		}
+	}
 
 
 	@Override
@@ -325,12 +616,14 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 			if (!logicSet) {
 				return smtConfig.responseFactory.error("The logic must be set before a check-sat command is issued");
 			}
+			flushPipeline();
 			String s = solverProcess.sendAndListen("(check-sat)\n");
 			
 			if (s.contains("unsat")) res = smtConfig.responseFactory.unsat();
 			else if (s.contains("sat")) res = smtConfig.responseFactory.sat();
 			else res = smtConfig.responseFactory.unknown();
 			checkSatStatus = res;
+			model = null;
 		} catch (IOException e) {
 			res = smtConfig.responseFactory.error("Failed to check-sat");
 		}
@@ -347,11 +640,12 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 		if (number == 0) return smtConfig.responseFactory.success();
 		try {
 			checkSatStatus = null;
+			model = null;
 			int n = number;
 			while (n-- > 0) {
 				pushes = pushesStack.remove(0);
 			}
-			return parseResponse(solverProcess.sendAndListen("(pop ",new Integer(number).toString(),")\n"));
+			return sendCommand(null,"(pop ",new Integer(number).toString(),")\n");
 		} catch (IOException e) {
 			return smtConfig.responseFactory.error("Error writing to Z3 solver: " + e);
 		}
@@ -364,6 +658,7 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 		}
 		if (number < 0) throw new SMT.InternalException("Internal bug: A push command called with a negative argument: " + number);
 		checkSatStatus = null;
+		model = null;
 		if (number == 0) return smtConfig.responseFactory.success();
 		try {
 			pushesStack.add(pushes);
@@ -372,7 +667,7 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 				pushesStack.add(0);
 			}
 			pushes = 0;
-			return parseResponse(solverProcess.sendAndListen("(push ",new Integer(number).toString(),")\n"));
+			return sendCommand(null,"(push ",new Integer(number).toString(),")\n");
 		} catch (IOException e) {
 			return smtConfig.responseFactory.error("Error writing to Z3 solver: " + e);
 		}
@@ -487,7 +782,7 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 		} else if (Utils.REASON_UNKNOWN.equals(option)) {
 			return smtConfig.responseFactory.unsupported();
 		} else if (Utils.ALL_STATISTICS.equals(option)) {
-			return smtConfig.responseFactory.unsupported();
+			return Statistics.response(smtConfig);
 		} else {
 			return smtConfig.responseFactory.unsupported();
 		}
@@ -513,7 +808,9 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 		}
 		try {
 			checkSatStatus = null;
-			return parseResponse(solverProcess.sendAndListen(translate(cmd),"\n"));
+			model = null;
+			writeTranslated("",cmd);
+			return sendCommand(pos(cmd),"\n");
 			
 		} catch (IOException e) {
 			return smtConfig.responseFactory.error("Error writing to Z3 solver: " + e);
@@ -529,7 +826,9 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 		}
 		try {
 			checkSatStatus = null;
-			return parseResponse(solverProcess.sendAndListen(translate(cmd),"\n"));
+			model = null;
+			writeTranslated("",cmd);
+			return sendCommand(pos(cmd),"\n");
 		} catch (IOException e) {
 			return smtConfig.responseFactory.error("Error writing to Z3 solver: " + e);
 		} catch (IVisitor.VisitorException e) {
@@ -544,7 +843,9 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 		}
 		try {
 			checkSatStatus = null;
-			return parseResponse(solverProcess.sendAndListen(translate(cmd),"\n"));
+			model = null;
+			writeTranslated("",cmd);
+			return sendCommand(pos(cmd),"\n");
 		} catch (IOException e) {
 			return smtConfig.responseFactory.error("Error writing to Z3 solver: " + e);
 		} catch (IVisitor.VisitorException e) {
@@ -559,7 +860,9 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 		}
 		try {
 			checkSatStatus = null;
-			return parseResponse(solverProcess.sendAndListen(translate(cmd),"\n"));
+			model = null;
+			writeTranslated("",cmd);
+			return sendCommand(pos(cmd),"\n");
 		} catch (IOException e) {
 			return smtConfig.responseFactory.error("Error writing to Z3 solver: " + e);
 		} catch (IVisitor.VisitorException e) {
@@ -577,6 +880,7 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 			return smtConfig.responseFactory.error("The get-proof command is only valid immediately after check-sat returned unsat");
 		}
 		try {
+			flushPipeline();
 			return parseResponse(solverProcess.sendAndListen("(get-proof)\n"));
 		} catch (IOException e) {
 			return smtConfig.responseFactory.error("Error writing to Z3 solver: " + e);
@@ -593,6 +897,7 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 			return smtConfig.responseFactory.error("The get-unsat-core command is only valid immediately after check-sat returned unsat");
 		}
 		try {
+			flushPipeline();
 			return parseResponse(solverProcess.sendAndListen("(get-unsat-core)\n"));
 		} catch (IOException e) {
 			return smtConfig.responseFactory.error("Error writing to Z3 solver: " + e);
@@ -609,6 +914,7 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 			return smtConfig.responseFactory.error("The get-assignment command is only valid immediately after check-sat returned sat or unknown");
 		}
 		try {
+			flushPipeline();
 			return parseResponse(solverProcess.sendAndListen("(get-assignment)\n"));
 		} catch (IOException e) {
 			return smtConfig.responseFactory.error("Error writing to Z3 solver: " + e);
@@ -624,15 +930,24 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 		if (!smtConfig.responseFactory.sat().equals(checkSatStatus) && !smtConfig.responseFactory.unknown().equals(checkSatStatus)) {
 			return smtConfig.responseFactory.error("A get-value command is valid only after check-sat has returned sat or unknown");
 		}
+		if (model != null) {
+			// Answer from the model if it gives the values of all the terms
+			List<IResponse.IPair<IExpr,IExpr>> values = new LinkedList<IResponse.IPair<IExpr,IExpr>>();
+			for (IExpr e: terms) {
+				IExpr v = model.value(e);
+				if (v == null) break;
+				values.add(smtConfig.responseFactory.pair(e,v));
+			}
+			if (values.size() == terms.length) return smtConfig.responseFactory.get_value_response(values);
+		}
 		try {
-			solverProcess.sendNoListen("(get-value (");
+			flushPipeline();
+			solverProcess.writer().write("(get-value (");
 			for (IExpr e: terms) {
-				solverProcess.sendNoListen(" ",translate(e));
+				writeTranslated(" ",e);
 			}
-			String r = solverProcess.sendAndListen("))\n");
-			IResponse response = parseResponse(r);
-
-			return response;
+			solverProcess.sendNoListen("))\n");
+			return readResponse(false);
 		} catch (IOException e) {
 			return smtConfig.responseFactory.error("Error writing to Z3 solver: " + e);
 		} catch (IVisitor.VisitorException e) {
@@ -644,19 +959,44 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 		
 		public Translator(Writer w) { super(w); }
 
+		/** Returns true if e is an application of - to more than two arguments, which is written
+		 * with its arguments grouped to the left */
+		protected boolean isLeftAssoc(IFcnExpr e) {
+			return e.args().size() > 2 && (e.head() instanceof IIdentifier) && e.head().toString().equals("-");
+		}
+
+		/** Function applications without arguments are visited separately, so that they are reported */
+		@Override
+		protected boolean inline(IExpr e) {
+			return !(e instanceof IFcnExpr) || !((IFcnExpr)e).args().isEmpty();
+		}
+
+		@Override
+		protected void open(IFcnExpr e) throws IOException, IVisitor.VisitorException {
+			if (!isLeftAssoc(e)) {
+				super.open(e);
+				return;
+			}
+			// (- a b c) is written as (- (- a b) c)
+			String fcnname = e.head().toString();
+			for (int i = 1; i < e.args().size(); i++) {
+				w.append("(");
+				w.append(fcnname);
+				w.append(" ");
+			}
+		}
+
+		@Override
+		protected void between(IFcnExpr e, int i) throws IOException {
+			if (i > 0 && isLeftAssoc(e)) w.append(")");
+			super.between(e,i);
+		}
+
 		@Override
 		public Void visit(IFcnExpr e) throws IVisitor.VisitorException {
 			// Only - for >=2 args is not correctly done, but we can't delegate to translateSMT because it might be a sub-expression.
-			Iterator<IExpr> iter = e.args().iterator();
-			if (!iter.hasNext()) throw new VisitorException("Did not expect an empty argument list",e.pos());
-			IQualifiedIdentifier fcn = e.head();
-			int length = e.args().size();
-			if (length > 2 && (fcn instanceof IIdentifier) && fcn.toString().equals("-")) {
-				leftassoc(fcn.toString(),length,iter);
-			} else {
-				super.visit(e);
-			}
-			return null;
+			if (e.args().isEmpty()) throw new VisitorException("Did not expect an empty argument list",e.pos());
+			return super.visit(e);
 		}
 
 		//@ requires iter.hasNext();